@@ -1,12 +1,23 @@
 package org.osjava.sj;
 
+import org.apache.commons.lang3.math.NumberUtils;
 import org.osjava.sj.loader.JndiLoader;
+import org.osjava.sj.loader.NioBasedJndiLoader;
 
 import javax.naming.Context;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
 import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import static org.osjava.sj.SimpleJndi.CONTEXT_FACTORY;
+import static org.osjava.sj.jndi.MemoryContext.CONCURRENT;
+import static org.osjava.sj.jndi.MemoryContext.FROZEN;
 import static org.osjava.sj.jndi.MemoryContext.IGNORE_CLOSE;
+import static org.osjava.sj.jndi.MemoryContext.INDEX;
 
 /**
  * @author Holger Thurow (thurow.h@gmail.com)
@@ -20,13 +31,27 @@ class ContextFactory {
         overwriteWithSystemProperty(SimpleJndi.ROOT, env);
         overwriteWithSystemProperty(SimpleJndi.ENC, env);
         overwriteWithSystemProperty(SimpleJndi.SHARED, env);
+        overwriteWithSystemProperty(SimpleJndi.TEMPLATE, env);
+        overwriteWithSystemProperty(SimpleJndi.TEMPLATE_CHECK_INTERVAL, env);
+        overwriteWithSystemProperty(SimpleJndi.SHARED_GRACE_PERIOD, env);
         overwriteWithSystemProperty(SimpleJndi.JNDI_SYNTAX_SEPARATOR, env);
         overwriteWithSystemProperty(SimpleJndi.FILENAME_TO_CONTEXT, env);
         overwriteWithSystemProperty(SimpleJndi.PATH_SEPARATOR, env);
         overwriteWithSystemProperty(JndiLoader.DELIMITER, env);
         overwriteWithSystemProperty(JndiLoader.COLON_REPLACE, env);
+        overwriteWithSystemProperty(NioBasedJndiLoader.PARALLELISM, env);
+        overwriteWithSystemProperty(SimpleJndi.ROOT_PARALLELISM, env);
+        overwriteWithSystemProperty(SimpleJndi.FAIL_ON_ROOT_CONFLICT, env);
+        overwriteWithSystemProperty(NioBasedJndiLoader.LAZY, env);
+        overwriteWithSystemProperty(NioBasedJndiLoader.SNAPSHOT, env);
+        overwriteWithSystemProperty(NioBasedJndiLoader.PARSE_CACHE, env);
+        overwriteWithSystemProperty(NioBasedJndiLoader.INI_CHARSET, env);
+        overwriteWithSystemProperty(NioBasedJndiLoader.INI_UNQUOTE, env);
         overwriteWithSystemProperty(Context.OBJECT_FACTORIES, env);
         overwriteWithSystemProperty(IGNORE_CLOSE, env);
+        overwriteWithSystemProperty(CONCURRENT, env);
+        overwriteWithSystemProperty(INDEX, env);
+        overwriteWithSystemProperty(FROZEN, env);
         overwriteWithSystemProperty("jndi.syntax.direction", env);
         overwriteWithSystemProperty(CONTEXT_FACTORY, env);
 
@@ -52,6 +77,80 @@ class ContextFactory {
         }
     }
 
+    /**
+     * Returns a handle of the shared context of root, created by loader if there is none yet. Only one thread loads a root: Concurrent callers wait for it and get handles of the same context. If loading fails, all of them get the exception and the next call tries again. The loading does not block callers asking for other roots.
+     * <p>
+     * The context is closed when the last handle not ignoring close() is closed, see {@link SharedContext}.
+     *
+     * @param environment Whether the handle ignores close(), see {@link org.osjava.sj.jndi.MemoryContext#IGNORE_CLOSE}.
+     */
+    static Context getSharedContext(final ConcurrentHashMap<String, FutureTask<SharedContext>> contextsByRoot, final String root, final Hashtable environment, final Callable<? extends Context> loader) throws NamingException {
+        final long gracePeriod = NumberUtils.toLong((String) environment.get(SimpleJndi.SHARED_GRACE_PERIOD));
+        while (true) {
+            final FutureTask<SharedContext> load = new FutureTask<SharedContext>(new Callable<SharedContext>() {
+                @Override
+                public SharedContext call() throws Exception {
+                    return new SharedContext(contextsByRoot, root, loader.call(), gracePeriod);
+                }
+            });
+            FutureTask<SharedContext> running = contextsByRoot.putIfAbsent(root, load);
+            if (running == null) {
+                load.run();
+                running = load;
+            }
+            final SharedContext shared;
+            try {
+                shared = await(root, running);
+            }
+            catch (NamingException e) {
+                contextsByRoot.remove(root, running);
+                throw e;
+            }
+            final SharedContextHandle handle = SharedContextHandle.acquire(shared, environment);
+            if (handle != null) {
+                return handle;
+            }
+            // Closed meanwhile.
+            contextsByRoot.remove(root, running);
+        }
+    }
+
+    /**
+     * @return null: root is not loaded or still loading.
+     */
+    static SharedContext getLoadedContext(ConcurrentHashMap<String, FutureTask<SharedContext>> contextsByRoot, String root) throws NamingException {
+        final FutureTask<SharedContext> load = contextsByRoot.get(root);
+        if (load == null || !load.isDone()) {
+            return null;
+        }
+        try {
+            return await(root, load);
+        }
+        catch (NamingException e) {
+            return null;
+        }
+    }
+
+    static <T> T await(String root, FutureTask<T> load) throws NamingException {
+        try {
+            return load.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final InterruptedNamingException namingException = new InterruptedNamingException("Interrupted while waiting for root " + root + " to be loaded.");
+            namingException.setRootCause(e);
+            throw namingException;
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof NamingException) {
+                throw (NamingException) e.getCause();
+            }
+            final NamingException namingException = new NamingException("Unable to load root " + root);
+            namingException.setRootCause(e.getCause());
+            throw namingException;
+        }
+    }
+
     private static void overwriteWithSystemProperty(String key, final Hashtable<String, String> env) {
         String value = System.getProperty(key);
         if(value != null) {
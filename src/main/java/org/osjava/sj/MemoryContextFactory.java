@@ -40,16 +40,15 @@
 
 package org.osjava.sj;
 
-import org.apache.commons.lang3.BooleanUtils;
 import org.osjava.sj.jndi.MemoryContext;
 
 import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.naming.spi.InitialContextFactory;
 import java.util.Hashtable;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-
-import static org.osjava.sj.jndi.MemoryContext.IGNORE_CLOSE;
+import java.util.concurrent.FutureTask;
 
 /**
  * Initial Context Factory for {@link MemoryContext}. Note the difference to {@link SimpleJndiContextFactory}. Here an empty context is returned. No sub contexts or JNDI objects are initialized from sub directories or property files under a root directory. The org.osjava.sj.root property may even not be set.
@@ -59,8 +58,8 @@ import static org.osjava.sj.jndi.MemoryContext.IGNORE_CLOSE;
  */
 public class MemoryContextFactory extends ContextFactory implements InitialContextFactory {
 
-    private static final ConcurrentHashMap<String, Context> contextsByRoot =
-            new ConcurrentHashMap<String, Context>();
+    private static final ConcurrentHashMap<String, FutureTask<SharedContext>> contextsByRoot =
+            new ConcurrentHashMap<String, FutureTask<SharedContext>>();
 
     /**
      * @see javax.naming.spi.InitialContextFactory#getInitialContext(java.util.Hashtable)
@@ -72,7 +71,7 @@ public class MemoryContextFactory extends ContextFactory implements InitialConte
     /**
      * @see InitialContextFactory#getInitialContext(Hashtable)
      */
-    public Context getInitialContext(Hashtable environment) throws NamingException {
+    public Context getInitialContext(final Hashtable environment) throws NamingException {
         overwriteEnvironmentWithSystemProperties(environment);
         initializeStandardJndiEnvironment(environment);
         final Boolean isShared = Boolean.valueOf(
@@ -81,39 +80,13 @@ public class MemoryContextFactory extends ContextFactory implements InitialConte
             return new MemoryContext(environment);
         }
         else {
-            String root = (String) environment.get("org.osjava.sj.root");
-            final Context ctx = contextsByRoot.get(root);
-            // ctx.listBindings("").hasMore(): Ob alle Kontexte zerstört wurden.
-            if (ctx != null) {
-                String ignoreClose = (String) environment.get(IGNORE_CLOSE);
-                ctx.addToEnvironment(
-                        IGNORE_CLOSE,
-                        BooleanUtils.toStringTrueFalse(BooleanUtils.toBoolean(ignoreClose)));
-                return ctx;
-            }
-            else {
-                final String finalRoot = root;
-                MemoryContext context = new MemoryContext(environment) {
-                    private boolean isClosed;
-                    @Override
-                    public void close() throws NamingException {
-                        // When already closed getEnvironment() throws an Exception.
-                        if (!isClosed) {
-                            String ignoreClose = (String) getEnvironment().get(IGNORE_CLOSE);
-                            if (!BooleanUtils.toBoolean(ignoreClose)) {
-                                // first remove, so the context will be removed even when close()
-                                // throws an Exception
-                                contextsByRoot.remove(finalRoot);
-                                super.forceClose();
-                                isClosed = true;
-                            }
-                        }
-                    }
-
-                };
-                contextsByRoot.put(root, context);
-                return context;
-            }
+            final String root = (String) environment.get("org.osjava.sj.root");
+            return getSharedContext(contextsByRoot, root, environment, new Callable<Context>() {
+                @Override
+                public Context call() {
+                    return new MemoryContext(environment);
+                }
+            });
         }
     }
 
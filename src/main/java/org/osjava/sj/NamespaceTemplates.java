@@ -0,0 +1,196 @@
+package org.osjava.sj;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osjava.sj.jndi.MemoryContext;
+import org.osjava.sj.loader.JndiLoader;
+import org.osjava.sj.loader.NioBasedJndiLoader;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the namespaces of non-shared InitialContexts with {@link SimpleJndi#TEMPLATE} set to true: The roots are loaded once into a frozen template and every new InitialContext gets a {@link MemoryContext#fork()} of it, which shares the template's bindings until they are modified. So the files are not parsed and the objects not created again for every InitialContext.
+ * <p>
+ * Templates are keyed by the roots and the entries of the environment that affect loading or the contexts, see {@link #KEYS}. A template is loaded again when a file under a root was added, removed or modified, judged by its size and modification time. The roots are checked at most once per {@link SimpleJndi#TEMPLATE_CHECK_INTERVAL}. Only one thread loads a template: Concurrent callers wait for it. Bound objects, e.g. DataSources, are shared by all InitialContexts forked from the same template. Roots in jars, context factories other than {@link MemoryContextFactory} and {@link NioBasedJndiLoader#LAZY} are not supported.
+ */
+final class NamespaceTemplates {
+
+    /* Besides all "jndi.syntax." entries. */
+    private static final String[] KEYS = {
+            SimpleJndi.ROOT, SimpleJndi.ENC, SimpleJndi.FILENAME_TO_CONTEXT, SimpleJndi.PATH_SEPARATOR, SimpleJndi.FAIL_ON_ROOT_CONFLICT,
+            JndiLoader.DELIMITER, JndiLoader.COLON_REPLACE, NioBasedJndiLoader.INI_CHARSET, NioBasedJndiLoader.INI_UNQUOTE,
+            MemoryContext.IGNORE_CLOSE, MemoryContext.CONCURRENT, MemoryContext.INDEX, Context.OBJECT_FACTORIES};
+    private static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    private static final ConcurrentHashMap<List<String>, FutureTask<Template>> templates = new ConcurrentHashMap<List<String>, FutureTask<Template>>();
+
+    private static final class Template {
+        private final MemoryContext root;
+        private final long fingerprint;
+        private final AtomicLong checked;
+
+        private Template(MemoryContext root, long fingerprint, long checked) {
+            this.root = root;
+            this.fingerprint = fingerprint;
+            this.checked = new AtomicLong(checked);
+        }
+
+        /**
+         * @return false: A file under roots was modified. While one thread checks the roots others take the template as current.
+         */
+        private boolean isCurrent(@NotNull String[] roots, long checkInterval) {
+            final long now = System.currentTimeMillis();
+            final long last = checked.get();
+            if (now - last < checkInterval || !checked.compareAndSet(last, now)) {
+                return true;
+            }
+            return fingerprint(roots) == fingerprint;
+        }
+    }
+
+    private NamespaceTemplates() { }
+
+    /**
+     * @return null: The environment does not allow a template.
+     */
+    @Nullable
+    static InitialContext newInitialContext(@NotNull Hashtable environment) throws NamingException {
+        if (!MemoryContextFactory.class.getName().equals(environment.get(SimpleJndi.CONTEXT_FACTORY))
+                || BooleanUtils.toBoolean(String.valueOf(environment.get(NioBasedJndiLoader.LAZY)))) {
+            return null;
+        }
+        final SimpleJndi simpleJndi = new SimpleJndi(environment);
+        final String root = simpleJndi.getRoot(environment);
+        if (root != null && root.contains("jarMarkerClass=")) {
+            return null;
+        }
+        final String[] roots = root != null && !root.isEmpty() ? simpleJndi.extractRoots(root) : new String[0];
+        final long checkInterval = NumberUtils.toLong((String) environment.get(SimpleJndi.TEMPLATE_CHECK_INTERVAL), DEFAULT_CHECK_INTERVAL);
+        final List<String> key = keyOf(environment);
+        Template template;
+        while (true) {
+            FutureTask<Template> running = templates.get(key);
+            if (running == null) {
+                final FutureTask<Template> load = new FutureTask<Template>(new Callable<Template>() {
+                    @Override
+                    public Template call() throws Exception {
+                        // Before loading, so files modified while loading are detected by the next check.
+                        final long checked = System.currentTimeMillis();
+                        final long fingerprint = fingerprint(roots);
+                        final MemoryContext context = new MemoryContext(environment);
+                        simpleJndi.load(context);
+                        if (!context.isFrozen()) {
+                            context.freeze();
+                        }
+                        return new Template(context, fingerprint, checked);
+                    }
+                });
+                running = templates.putIfAbsent(key, load);
+                if (running == null) {
+                    load.run();
+                    running = load;
+                }
+            }
+            try {
+                template = ContextFactory.await(root, running);
+            }
+            catch (NamingException e) {
+                templates.remove(key, running);
+                throw e;
+            }
+            if (template.isCurrent(roots, checkInterval)) {
+                break;
+            }
+            templates.remove(key, running);
+        }
+        final MemoryContext fork = template.root.fork();
+        if (BooleanUtils.toBoolean(String.valueOf(environment.get(MemoryContext.FROZEN)))) {
+            fork.freeze();
+        }
+        return new ForkedInitialContext(environment, fork);
+    }
+
+    /**
+     * @return The entries of environment in {@link #KEYS} and those starting with "jndi.syntax.", sorted by name.
+     */
+    @NotNull
+    private static List<String> keyOf(@NotNull Hashtable environment) {
+        final TreeMap<String, String> entries = new TreeMap<String, String>();
+        for (String name : KEYS) {
+            final Object value = environment.get(name);
+            if (value != null) {
+                entries.put(name, String.valueOf(value));
+            }
+        }
+        for (Object name : environment.keySet()) {
+            if (name instanceof String && ((String) name).startsWith("jndi.syntax.")) {
+                entries.put((String) name, String.valueOf(environment.get(name)));
+            }
+        }
+        final List<String> key = new ArrayList<String>(entries.size() << 1);
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            key.add(entry.getKey());
+            key.add(entry.getValue());
+        }
+        return key;
+    }
+
+    private static long fingerprint(@NotNull String[] roots) {
+        long fingerprint = 17;
+        for (String root : roots) {
+            fingerprint = fingerprint(new File(root), fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private static long fingerprint(@NotNull File file, long fingerprint) {
+        fingerprint = 31 * fingerprint + file.getPath().hashCode();
+        if (file.isDirectory()) {
+            final File[] files = file.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File child : files) {
+                    fingerprint = fingerprint(child, fingerprint);
+                }
+            }
+        }
+        else {
+            fingerprint = 31 * (31 * fingerprint + file.length()) + file.lastModified();
+        }
+        return fingerprint;
+    }
+
+    /**
+     * package-private: Only for Testing!
+     */
+    static void clearCache() {
+        templates.clear();
+    }
+
+    /**
+     * An InitialContext using the given context as default context instead of creating one by the configured factory.
+     */
+    private static class ForkedInitialContext extends InitialContext {
+        private ForkedInitialContext(Hashtable environment, Context defaultContext) throws NamingException {
+            super(true);
+            defaultInitCtx = defaultContext;
+            gotDefault = true;
+            init(environment);
+        }
+    }
+}
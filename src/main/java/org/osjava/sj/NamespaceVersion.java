@@ -0,0 +1,184 @@
+package org.osjava.sj;
+
+import org.jetbrains.annotations.NotNull;
+import org.osjava.sj.jndi.LazyContext;
+import org.osjava.sj.jndi.MemoryContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One version of the namespace of a {@link SharedContext}. Readers pin the version for the duration of an operation, a snapshot or the life of a subcontext or enumeration read from it, see {@link #pin(Object)}. When a version is replaced by a reload it is retired: It stays readable until the last reader left, then the objects bound in it are closed and the namespace is closed.
+ */
+final class NamespaceVersion {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(NamespaceVersion.class);
+
+    private final Context context;
+    private final AtomicInteger readers = new AtomicInteger();
+    private volatile boolean retired;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    NamespaceVersion(@NotNull Context context) {
+        this.context = context;
+    }
+
+    @NotNull
+    Context getContext() {
+        return context;
+    }
+
+    /**
+     * Pins the version until {@link #exit()}.
+     *
+     * @return false: The version was retired. Read the current one.
+     */
+    boolean enter() {
+        readers.incrementAndGet();
+        if (retired) {
+            exit();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Pins the version once more for owner, e.g. a subcontext looked up in it, until {@link Pin#release()} or until owner was garbage collected. Caller must have entered the version.
+     */
+    @NotNull
+    Pin pin(@NotNull Object owner) {
+        Pin.expunge();
+        readers.incrementAndGet();
+        return new Pin(owner, this);
+    }
+
+    void exit() {
+        if (readers.decrementAndGet() == 0 && retired) {
+            closeRetired();
+        }
+    }
+
+    /**
+     * Closes the version as soon as no reader pins it anymore.
+     */
+    void retire() {
+        retired = true;
+        if (readers.get() == 0) {
+            closeRetired();
+        }
+    }
+
+    private void closeRetired() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            closeResources(context);
+            close(context);
+        }
+        catch (NamingException e) {
+            LOGGER.error("Closing retired namespace failed.", e);
+        }
+    }
+
+    /**
+     * Closes the version while readers may still pin it, when the last handle of its {@link SharedContext} is closed.
+     */
+    void close() throws NamingException {
+        if (closed.compareAndSet(false, true)) {
+            close(context);
+        }
+    }
+
+    /**
+     * Closes the objects bound in context and its subcontexts implementing {@link AutoCloseable}, e.g. pooled DataSources. References never looked up are skipped, as no object was created for them.
+     */
+    private static void closeResources(@NotNull Context context) throws NamingException {
+        final NamingEnumeration<Binding> bindings = context.listBindings("");
+        while (bindings.hasMore()) {
+            final Binding binding = bindings.next();
+            final Object object = binding.getObject();
+            if (object instanceof LazyContext && !((LazyContext) object).isLoaded()) {
+                // No objects created yet.
+                continue;
+            }
+            if (object instanceof Context) {
+                closeResources((Context) object);
+            }
+            else if (object instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) object).close();
+                }
+                catch (Exception e) {
+                    LOGGER.error("Closing {} failed.", binding.getName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A pin of an object reading the version, released when the object is closed or, as it might never be, garbage collected.
+     */
+    static final class Pin extends PhantomReference<Object> {
+        private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<Object>();
+        /* Keeps the pins reachable until released. */
+        private static final Set<Pin> PINS = Collections.newSetFromMap(new ConcurrentHashMap<Pin, Boolean>());
+
+        private final NamespaceVersion version;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Pin(@NotNull Object owner, @NotNull NamespaceVersion version) {
+            super(owner, QUEUE);
+            this.version = version;
+            PINS.add(this);
+        }
+
+        @NotNull
+        NamespaceVersion getVersion() {
+            return version;
+        }
+
+        boolean isReleased() {
+            return released.get();
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                PINS.remove(this);
+                version.exit();
+            }
+        }
+
+        /**
+         * Releases the pins of objects garbage collected without being closed.
+         */
+        static void expunge() {
+            Reference<?> pin;
+            while ((pin = QUEUE.poll()) != null) {
+                ((Pin) pin).release();
+            }
+        }
+    }
+
+    private static void close(Context context) throws NamingException {
+        if (context instanceof MemoryContext) {
+            ((MemoryContext) context).forceClose();
+            return;
+        }
+        // Closing is no longer to be ignored by the contexts below.
+        context.removeFromEnvironment(MemoryContext.IGNORE_CLOSE);
+        context.close();
+    }
+}
@@ -0,0 +1,149 @@
+package org.osjava.sj;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.osjava.sj.jndi.JndiUtils;
+import org.osjava.sj.jndi.MemoryContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Merges roots loaded concurrently, each into a namespace of its own, into one context. Subcontexts defined by more than one root are merged. A name bound to an object by more than one root, or to an object by one root and to a subcontext by another, is a conflict: Like loading the roots one after another, the root configured first wins. All conflicts are logged with both roots defining the name, whatever order the roots finished loading in.
+ */
+final class RootMerger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RootMerger.class);
+    private final String separator;
+    private final List<Context> roots = new ArrayList<Context>();
+    /* Per root, the names not merged because a root added before defined them. */
+    private final List<Set<List<String>>> skipped = new ArrayList<Set<List<String>>>();
+    /* The root that defined a name first, by the name's components. */
+    private final Map<List<String>, String> objects = new HashMap<List<String>, String>();
+    private final Map<List<String>, String> contexts = new HashMap<List<String>, String>();
+    private final SortedSet<String> conflicts = new TreeSet<String>();
+
+    /**
+     * @param separator Joins the components of conflicting names in the report.
+     */
+    RootMerger(@NotNull String separator) {
+        this.separator = separator;
+    }
+
+    /**
+     * Add the roots in the order they are configured in.
+     *
+     * @param source The root as configured, to report conflicts.
+     * @param root The namespace source was loaded into.
+     */
+    void add(@NotNull String source, @NotNull Context root) throws NamingException {
+        roots.add(root);
+        final Set<List<String>> skip = new HashSet<List<String>>();
+        skipped.add(skip);
+        collect(source, root, new ArrayList<String>(), skip);
+    }
+
+    private void collect(String source, Context context, List<String> prefix, Set<List<String>> skip) throws NamingException {
+        final NamingEnumeration<Binding> bindings = context.listBindings("");
+        while (bindings.hasMore()) {
+            final Binding binding = bindings.next();
+            final List<String> name = new ArrayList<String>(prefix);
+            name.add(JndiUtils.toComponent(context, binding.getName()));
+            String other = objects.get(name);
+            if (binding.getObject() instanceof Context) {
+                if (other != null) {
+                    conflict(name, other, source);
+                    skip.add(name);
+                    continue;
+                }
+                if (!contexts.containsKey(name)) {
+                    contexts.put(name, source);
+                }
+                collect(source, (Context) binding.getObject(), name, skip);
+            }
+            else {
+                if (other == null) {
+                    other = contexts.get(name);
+                }
+                if (other != null) {
+                    conflict(name, other, source);
+                    skip.add(name);
+                }
+                else {
+                    objects.put(name, source);
+                }
+            }
+        }
+    }
+
+    private void conflict(List<String> name, String first, String second) {
+        conflicts.add(StringUtils.join(name, separator) + " (" + first + ", " + second + ")");
+    }
+
+    /**
+     * Binds the objects of all roots added to target. A name defined by more than one root is bound as defined by the root added first.
+     *
+     * @param failOnConflict true: Instead throw a NameAlreadyBoundException, if names are defined by more than one root, and do not modify target.
+     */
+    void merge(@NotNull Context target, boolean failOnConflict) throws NamingException {
+        if (!conflicts.isEmpty()) {
+            final String message = "Names bound by more than one root: " + StringUtils.join(conflicts, "; ");
+            if (failOnConflict) {
+                throw new NameAlreadyBoundException(message);
+            }
+            LOGGER.warn("{}. Bound as defined by the root configured first.", message);
+        }
+        for (int i = 0; i < roots.size(); i++) {
+            bind(roots.get(i), target, new ArrayList<String>(), skipped.get(i));
+        }
+    }
+
+    private static void bind(Context source, Context target, List<String> prefix, Set<List<String>> skip) throws NamingException {
+        final NamingEnumeration<Binding> bindings = source.listBindings("");
+        while (bindings.hasMore()) {
+            final Binding binding = bindings.next();
+            final String component = JndiUtils.toComponent(source, binding.getName());
+            final List<String> components = new ArrayList<String>(prefix);
+            components.add(component);
+            if (skip.contains(components)) {
+                continue;
+            }
+            // One component, even if it contains a separator.
+            final Name name = target.getNameParser("").parse("");
+            name.add(component);
+            if (binding.getObject() instanceof Context) {
+                bind((Context) binding.getObject(), subcontext(target, name), components, skip);
+            }
+            else {
+                target.bind(name, binding.getObject());
+            }
+        }
+    }
+
+    private static Context subcontext(Context target, Name name) throws NamingException {
+        if (target instanceof MemoryContext) {
+            return ((MemoryContext) target).getOrCreateSubcontext(name);
+        }
+        try {
+            return target.createSubcontext(name);
+        }
+        catch (NameAlreadyBoundException e) {
+            // Created by a root merged before.
+            return (Context) target.lookup(name);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.osjava.sj;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The namespace of a root shared by all {@link SharedContextHandle}s a factory returned for it. Counts the handles not ignoring close(): When the last of them is closed the namespace is closed and removed from the factory, at once or after {@link SimpleJndi#SHARED_GRACE_PERIOD} if no handle was acquired meanwhile. Handles acquired ignoring close() do not keep the namespace open, but are never released while another handle is open, even if close() is no longer ignored.
+ * <p>
+ * A reload replaces the namespace by a new {@link NamespaceVersion} in one step, see {@link #publish(Context)}.
+ */
+final class SharedContext {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(SharedContext.class);
+    /* Created with the first grace period. */
+    private static ScheduledExecutorService scheduler;
+
+    private final ConcurrentHashMap<String, FutureTask<SharedContext>> contextsByRoot;
+    private final String root;
+    private volatile NamespaceVersion current;
+    private final long gracePeriod;
+    /* Guarded by this. */
+    private int references;
+    /* Handles acquired ignoring close() and not closed yet. */
+    private int uncounted;
+    private boolean closed;
+    private ScheduledFuture<?> teardown;
+
+    /**
+     * @param contextsByRoot The factory's cache this context is removed from when closed.
+     * @param gracePeriod Milliseconds to keep the namespace after the last handle was closed.
+     */
+    SharedContext(@NotNull ConcurrentHashMap<String, FutureTask<SharedContext>> contextsByRoot, @NotNull String root, @NotNull Context context, long gracePeriod) {
+        this.contextsByRoot = contextsByRoot;
+        this.root = root;
+        current = new NamespaceVersion(context);
+        this.gracePeriod = gracePeriod;
+    }
+
+    /**
+     * Pins the current version of the namespace. Call {@link NamespaceVersion#exit()} when done.
+     */
+    @NotNull
+    NamespaceVersion enter() {
+        while (true) {
+            final NamespaceVersion version = current;
+            if (version.enter()) {
+                return version;
+            }
+        }
+    }
+
+    /**
+     * Replaces the namespace by context atomically: Operations started afterwards read context. The previous version is retired, see {@link NamespaceVersion#retire()}.
+     *
+     * @return false: This shared context was closed meanwhile. context was not published.
+     */
+    boolean publish(@NotNull Context context) {
+        final NamespaceVersion previous;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            previous = current;
+            current = new NamespaceVersion(context);
+        }
+        previous.retire();
+        NamespaceVersion.Pin.expunge();
+        return true;
+    }
+
+    /**
+     * @param counted false: The handle ignores close() and does not keep the namespace open.
+     * @return false: The namespace was already closed. Get a new one from the factory.
+     */
+    synchronized boolean acquire(boolean counted) {
+        if (closed) {
+            return false;
+        }
+        if (counted) {
+            references++;
+            if (teardown != null) {
+                teardown.cancel(false);
+                teardown = null;
+            }
+        }
+        else {
+            uncounted++;
+        }
+        return true;
+    }
+
+    /**
+     * @param counted true: The namespace is closed when no other handle counts. false: The handle was acquired ignoring close(), which was no longer ignored when it was closed. The namespace is closed only if no other handle is open at all.
+     */
+    void release(boolean counted) throws NamingException {
+        synchronized (this) {
+            if (counted) {
+                references--;
+            }
+            else if (--uncounted > 0) {
+                return;
+            }
+            if (closed || references > 0 || teardown != null) {
+                return;
+            }
+            if (gracePeriod > 0) {
+                teardown = scheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            close(true);
+                        }
+                        catch (NamingException e) {
+                            LOGGER.error("Closing shared context of root {} failed.", root, e);
+                        }
+                    }
+                }, gracePeriod, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        close(false);
+    }
+
+    /**
+     * @param scheduled Called by the scheduled teardown, which was possibly canceled meanwhile.
+     */
+    private void close(boolean scheduled) throws NamingException {
+        synchronized (this) {
+            if (closed || references > 0 || (scheduled && teardown == null)) {
+                return;
+            }
+            closed = true;
+            teardown = null;
+        }
+        // first remove, so the context will be removed even when close() throws an Exception.
+        final FutureTask<SharedContext> entry = contextsByRoot.get(root);
+        if (entry != null && isThis(entry)) {
+            contextsByRoot.remove(root, entry);
+        }
+        current.close();
+    }
+
+    private boolean isThis(FutureTask<SharedContext> future) {
+        if (!future.isDone()) {
+            return false;
+        }
+        try {
+            return future.get() == this;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NotNull Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Simple-JNDI shared context reaper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            scheduler = executor;
+        }
+        return scheduler;
+    }
+}
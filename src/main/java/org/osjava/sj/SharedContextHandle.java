@@ -0,0 +1,398 @@
+package org.osjava.sj;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.jetbrains.annotations.NotNull;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.util.Hashtable;
+
+import static org.osjava.sj.jndi.MemoryContext.IGNORE_CLOSE;
+
+/**
+ * A context returned by a factory for a shared root, see {@link SharedContext}. Delegates to the shared namespace until closed. close() releases the handle once, unless {@link MemoryContext#IGNORE_CLOSE} is set for this handle. A handle acquired with IGNORE_CLOSE set does not count, even if IGNORE_CLOSE is removed later: Its close() then closes the namespace only if no other handle is open, see {@link SharedContext#release(boolean)}. IGNORE_CLOSE is kept per handle, not in the shared environment.
+ * <p>
+ * Every operation reads the version of the namespace current when it starts, even if the namespace is reloaded meanwhile. A {@link #pin() pinned} handle reads the same version until closed. So do subcontexts looked up or created, see {@link VersionedContext}, and enumerations until closed or enumerated to the end.
+ */
+final class SharedContextHandle implements Context {
+
+    private final SharedContext shared;
+    /* null: Not pinned. Set before the handle is returned. */
+    private NamespaceVersion pinned;
+    /* Guarded by this. */
+    private boolean ignoreClose;
+    /* false: The handle was acquired ignoring close(). */
+    private final boolean counted;
+    private volatile boolean closed;
+
+    private SharedContextHandle(@NotNull SharedContext shared, boolean ignoreClose) {
+        this.shared = shared;
+        this.ignoreClose = ignoreClose;
+        counted = !ignoreClose;
+    }
+
+    /**
+     * @return null: shared was already closed.
+     */
+    static SharedContextHandle acquire(@NotNull SharedContext shared, @NotNull Hashtable environment) {
+        final boolean ignoreClose = BooleanUtils.toBoolean((String) environment.get(IGNORE_CLOSE));
+        return shared.acquire(!ignoreClose) ? new SharedContextHandle(shared, ignoreClose) : null;
+    }
+
+    /**
+     * Makes this handle read the current version of the namespace until closed, even if the namespace is reloaded meanwhile.
+     *
+     * @return this
+     */
+    @NotNull
+    SharedContextHandle pin() {
+        pinned = shared.enter();
+        return this;
+    }
+
+    private NamespaceVersion enter() throws NamingException {
+        if (closed) {
+            throw new NamingException("Context was closed.");
+        }
+        return pinned != null ? pinned : shared.enter();
+    }
+
+    private void exit(NamespaceVersion version) {
+        if (version != pinned) {
+            version.exit();
+        }
+    }
+
+    public Object lookup(Name name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return VersionedContext.wrap(version, version.getContext().lookup(name));
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public Object lookup(String name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return VersionedContext.wrap(version, version.getContext().lookup(name));
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public void bind(Name name, Object value) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            version.getContext().bind(name, value);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public void bind(String name, Object value) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            version.getContext().bind(name, value);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public void rebind(Name name, Object value) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            version.getContext().rebind(name, value);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public void rebind(String name, Object value) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            version.getContext().rebind(name, value);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public void unbind(Name name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            version.getContext().unbind(name);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public void unbind(String name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            version.getContext().unbind(name);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public void rename(Name oldName, Name newName) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            version.getContext().rename(oldName, newName);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public void rename(String oldName, String newName) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            version.getContext().rename(oldName, newName);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public NamingEnumeration list(Name name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return VersionedContext.enumerate(version, version.getContext().list(name));
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public NamingEnumeration list(String name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return VersionedContext.enumerate(version, version.getContext().list(name));
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public NamingEnumeration listBindings(Name name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return VersionedContext.enumerate(version, version.getContext().listBindings(name));
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public NamingEnumeration listBindings(String name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return VersionedContext.enumerate(version, version.getContext().listBindings(name));
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public void destroySubcontext(Name name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            version.getContext().destroySubcontext(name);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public void destroySubcontext(String name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            version.getContext().destroySubcontext(name);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public Context createSubcontext(Name name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return VersionedContext.wrap(version, version.getContext().createSubcontext(name));
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public Context createSubcontext(String name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return VersionedContext.wrap(version, version.getContext().createSubcontext(name));
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public Object lookupLink(Name name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return VersionedContext.wrap(version, version.getContext().lookupLink(name));
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public Object lookupLink(String name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return VersionedContext.wrap(version, version.getContext().lookupLink(name));
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public NameParser getNameParser(Name name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return version.getContext().getNameParser(name);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public NameParser getNameParser(String name) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return version.getContext().getNameParser(name);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public Name composeName(Name name, Name prefix) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return version.getContext().composeName(name, prefix);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    public String composeName(String name, String prefix) throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return version.getContext().composeName(name, prefix);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    /**
+     * {@link MemoryContext#IGNORE_CLOSE} only changes whether close() of this handle is ignored. It is not added to the shared environment.
+     */
+    public Object addToEnvironment(String key, Object value) throws NamingException {
+        if (IGNORE_CLOSE.equals(key)) {
+            synchronized (this) {
+                final Object previous = ignoreClose ? "true" : null;
+                ignoreClose = BooleanUtils.toBoolean(String.valueOf(value));
+                return previous;
+            }
+        }
+        final NamespaceVersion version = enter();
+        try {
+            return version.getContext().addToEnvironment(key, value);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    /**
+     * See {@link #addToEnvironment(String, Object)}.
+     */
+    public Object removeFromEnvironment(String key) throws NamingException {
+        if (IGNORE_CLOSE.equals(key)) {
+            synchronized (this) {
+                final Object previous = ignoreClose ? "true" : null;
+                ignoreClose = false;
+                return previous;
+            }
+        }
+        final NamespaceVersion version = enter();
+        try {
+            return version.getContext().removeFromEnvironment(key);
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    /**
+     * @return The shared environment with {@link MemoryContext#IGNORE_CLOSE} of this handle.
+     */
+    public Hashtable getEnvironment() throws NamingException {
+        final Hashtable environment;
+        final NamespaceVersion version = enter();
+        try {
+            environment = version.getContext().getEnvironment();
+        }
+        finally {
+            exit(version);
+        }
+        synchronized (this) {
+            if (ignoreClose) {
+                environment.put(IGNORE_CLOSE, "true");
+            }
+            else {
+                environment.remove(IGNORE_CLOSE);
+            }
+        }
+        return environment;
+    }
+
+    public String getNameInNamespace() throws NamingException {
+        final NamespaceVersion version = enter();
+        try {
+            return version.getContext().getNameInNamespace();
+        }
+        finally {
+            exit(version);
+        }
+    }
+
+    /**
+     * Releases this handle and the version it pinned. The shared namespace is closed with the last counted handle released.
+     */
+    public void close() throws NamingException {
+        synchronized (this) {
+            if (closed || ignoreClose) {
+                return;
+            }
+            closed = true;
+        }
+        if (pinned != null) {
+            pinned.exit();
+        }
+        shared.release(counted);
+    }
+}
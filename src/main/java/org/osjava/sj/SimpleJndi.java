@@ -33,20 +33,32 @@ package org.osjava.sj;
 
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.osjava.sj.jndi.MemoryContext;
 import org.osjava.sj.loader.JndiLoader;
 import org.osjava.sj.loader.NioBasedJndiLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.naming.ConfigurationException;
 import javax.naming.Context;
 import javax.naming.InitialContext;
+import javax.naming.InterruptedNamingException;
 import javax.naming.NamingException;
 import java.io.File;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public class SimpleJndi {
 
@@ -55,6 +67,16 @@ public class SimpleJndi {
     /** Option for top level space (ENC), e.g. "java:comp/env". */
     public static final String ENC = "org.osjava.sj.space";
     public static final String SHARED = "org.osjava.sj.jndi.shared";
+    /** With {@link #SHARED} true: Milliseconds to keep a shared root loaded after the last InitialContext of it was closed. Default is 0: Close it at once. */
+    public static final String SHARED_GRACE_PERIOD = "org.osjava.sj.jndi.sharedGracePeriod";
+    /** With {@link #SHARED} false: Load the roots once and hand every new InitialContext a copy-on-write fork of them. See {@link NamespaceTemplates}. */
+    public static final String TEMPLATE = "org.osjava.sj.jndi.template";
+    /** With {@link #TEMPLATE} true: Milliseconds between two checks of a root for modified files. Default is 1000. 0: Check on every new InitialContext. */
+    public static final String TEMPLATE_CHECK_INTERVAL = "org.osjava.sj.jndi.templateCheckInterval";
+    /** Number of roots loaded concurrently, each into a namespace of its own, before they are merged by a {@link RootMerger}. Default is 1: Load the roots one after another. Independent of {@link NioBasedJndiLoader#PARALLELISM}, the number of threads parsing the files of each root. */
+    public static final String ROOT_PARALLELISM = "org.osjava.sj.rootParallelism";
+    /** true: Fail with a NameAlreadyBoundException if a name is defined by more than one root. Default is false: The root configured first wins. Not supported with {@link NioBasedJndiLoader#LAZY}. */
+    public static final String FAIL_ON_ROOT_CONFLICT = "org.osjava.sj.failOnRootConflict";
     public static final String JNDI_SYNTAX_SEPARATOR = "jndi.syntax.separator";
     private static final Logger logger = LoggerFactory.getLogger(SimpleJndi.class);
     public static final String FILENAME_TO_CONTEXT = "org.osjava.sj.filenameToContext";
@@ -68,8 +90,15 @@ public class SimpleJndi {
     }
 
     InitialContext loadRoot() throws NamingException {
-
         final InitialContext initialContext = new InitialContext(env);
+        load(initialContext);
+        return initialContext;
+    }
+
+    /**
+     * Loads the roots into initialContext. Closes initialContext on failure.
+     */
+    void load(Context initialContext) throws NamingException {
         Context ctxt = initialContext;
         ctxt = createENC(env, ctxt);
 //        FileBasedJndiLoader loader = new FileBasedJndiLoader(env);
@@ -77,59 +106,154 @@ public class SimpleJndi {
         String root = getRoot(env);
         if (root != null && !root.isEmpty()) {
             final String[] roots = extractRoots(root);
-            for (String path : roots) {
-                if (!path.startsWith("jarMarkerClass=")) {
-                    final File rootFile = new File(path);
-                    LOGGER.debug("Loading {}", rootFile.getAbsolutePath());
-                    try {
-                        loader.load(rootFile, ctxt, BooleanUtils.toBoolean(env.get(FILENAME_TO_CONTEXT)));
-                    }
-                    catch (Exception e) {
-                        String message = "Unable to load: " + rootFile.getAbsolutePath();
-                        throwException(initialContext, e, message);
-                    }
+            final int parallelism = NumberUtils.toInt(env.get(ROOT_PARALLELISM), 1);
+            final boolean failOnConflict = BooleanUtils.toBoolean(env.get(FAIL_ON_ROOT_CONFLICT));
+            final boolean lazy = BooleanUtils.toBoolean(env.get(NioBasedJndiLoader.LAZY));
+            try {
+                if (failOnConflict && lazy) {
+                    throw new ConfigurationException(FAIL_ON_ROOT_CONFLICT + " is not supported with " + NioBasedJndiLoader.LAZY + ".");
+                }
+                // Merging would load lazy subcontexts.
+                if ((parallelism > 1 || failOnConflict) && roots.length > 1 && !lazy) {
+                    loadConcurrently(loader, roots, ctxt, Math.max(1, Math.min(parallelism, roots.length)), failOnConflict);
                 }
                 else {
-                    LOGGER.debug("Processing path={}", path);
-                    String[] parts = StringUtils.split(path, "=,");
-                    for (int i = 0; i < parts.length; i++) {
-                        String part = parts[i];
-                        LOGGER.debug("Split to: {}", part);
-                    }
-                    URL pathToJar = null;
-                    try {
-                        Class<?> clazz = Class.forName(parts[1]);
-                        pathToJar = clazz.getProtectionDomain().getCodeSource().getLocation();
-                        File jarFile = new File(pathToJar.toURI());
-                        loader.loadJar(jarFile, parts[3], ctxt, BooleanUtils.toBoolean(env.get(FILENAME_TO_CONTEXT)));
-                    }
-                    catch (ClassNotFoundException e) {
-                        String msg = "Unable to load jarMarkerClass";
-                        throwException(initialContext, e, msg);
-                    }
-                    catch (URISyntaxException e) {
-                        String msg = "Unable to resolve path to jar file: " + pathToJar;
-                        throwException(initialContext, e, msg);
-                    }
-                    catch (Exception e) {
-                        String msg = "Unable to load root from jar. jarMarkerClass: " + parts[1] + " root: " + parts[3];
-                        throwException(initialContext, e, msg);
+                    for (String path : roots) {
+                        load(loader, path, ctxt);
                     }
                 }
             }
+            catch (NamingException e) {
+                initialContext.close();
+                throw e;
+            }
         }
         else {
             logger.warn("Mistakenly no root provided?");
         }
-        return initialContext;
+        if (BooleanUtils.toBoolean(env.get(MemoryContext.FROZEN))) {
+            initialContext.addToEnvironment(MemoryContext.FROZEN, "true");
+        }
+    }
+
+    /**
+     * Loads one of the roots into ctxt.
+     */
+    private void load(NioBasedJndiLoader loader, String path, Context ctxt) throws NamingException {
+        if (!path.startsWith("jarMarkerClass=")) {
+            final File rootFile = new File(path);
+            LOGGER.debug("Loading {}", rootFile.getAbsolutePath());
+            try {
+                loader.load(rootFile, ctxt, BooleanUtils.toBoolean(env.get(FILENAME_TO_CONTEXT)));
+            }
+            catch (Exception e) {
+                String message = "Unable to load: " + rootFile.getAbsolutePath();
+                throw toNamingException(e, message);
+            }
+        }
+        else {
+            LOGGER.debug("Processing path={}", path);
+            String[] parts = StringUtils.split(path, "=,");
+            for (int i = 0; i < parts.length; i++) {
+                String part = parts[i];
+                LOGGER.debug("Split to: {}", part);
+            }
+            URL pathToJar = null;
+            try {
+                Class<?> clazz = Class.forName(parts[1]);
+                pathToJar = clazz.getProtectionDomain().getCodeSource().getLocation();
+                File jarFile = new File(pathToJar.toURI());
+                loader.loadJar(jarFile, parts[3], ctxt, BooleanUtils.toBoolean(env.get(FILENAME_TO_CONTEXT)));
+            }
+            catch (ClassNotFoundException e) {
+                String msg = "Unable to load jarMarkerClass";
+                throw toNamingException(e, msg);
+            }
+            catch (URISyntaxException e) {
+                String msg = "Unable to resolve path to jar file: " + pathToJar;
+                throw toNamingException(e, msg);
+            }
+            catch (Exception e) {
+                String msg = "Unable to load root from jar. jarMarkerClass: " + parts[1] + " root: " + parts[3];
+                throw toNamingException(e, msg);
+            }
+        }
+    }
+
+    /**
+     * Loads every root into a {@link MemoryContext} of its own on a pool of threads, then merges them into ctxt by a {@link RootMerger}. If roots fail to load, the failure of the first of them in configuration order is thrown.
+     *
+     * @param failOnConflict See {@link #FAIL_ON_ROOT_CONFLICT}.
+     */
+    private void loadConcurrently(final NioBasedJndiLoader loader, final String[] roots, Context ctxt, int threads, boolean failOnConflict) throws NamingException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NotNull Runnable runnable) {
+                final Thread thread = new Thread(runnable, "Simple-JNDI root loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final List<Future<MemoryContext>> futures = new ArrayList<Future<MemoryContext>>();
+        final List<MemoryContext> loaded = new ArrayList<MemoryContext>();
+        try {
+            for (final String path : roots) {
+                futures.add(executor.submit(new Callable<MemoryContext>() {
+                    @Override
+                    public MemoryContext call() throws NamingException {
+                        final MemoryContext context = new MemoryContext(env);
+                        try {
+                            load(loader, path, context);
+                            return context;
+                        }
+                        catch (NamingException e) {
+                            context.forceClose();
+                            throw e;
+                        }
+                    }
+                }));
+            }
+            NamingException failure = null;
+            for (Future<MemoryContext> future : futures) {
+                try {
+                    loaded.add(future.get());
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedNamingException("Interrupted while loading roots.");
+                }
+                catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof NamingException
+                                ? (NamingException) e.getCause()
+                                : toNamingException((Exception) e.getCause(), "Unable to load roots.");
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            final String separator = env.get(JNDI_SYNTAX_SEPARATOR);
+            final RootMerger merger = new RootMerger(separator != null ? separator : "/");
+            for (int i = 0; i < roots.length; i++) {
+                merger.add(roots[i], loaded.get(i));
+            }
+            merger.merge(ctxt, failOnConflict);
+        }
+        finally {
+            executor.shutdownNow();
+            // The objects bound are kept in ctxt.
+            for (MemoryContext context : loaded) {
+                context.forceClose();
+            }
+        }
     }
 
-    private void throwException(final InitialContext initialContext, final Exception e, final String msg) throws NamingException {
+    private NamingException toNamingException(final Exception e, final String msg) {
         LOGGER.error(msg, e);
-        initialContext.close();
         NamingException e2 = new NamingException(msg);
         e2.setRootCause(e);
-        throw e2;
+        return e2;
     }
 
     @NotNull
@@ -162,7 +286,7 @@ public class SimpleJndi {
     }
 
     @Nullable
-    private String getRoot(Hashtable env) {
+    String getRoot(Hashtable env) {
         String root = (String) env.get(ROOT);
 //        if(root == null) {
 //            throw new IllegalStateException("Property "+ROOT+" is mandatory. ");
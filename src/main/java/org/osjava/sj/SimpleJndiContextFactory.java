@@ -38,7 +38,15 @@ import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.naming.spi.InitialContextFactory;
 import java.util.Hashtable;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.osjava.sj.jndi.MemoryContext.IGNORE_CLOSE;
 
@@ -48,14 +56,17 @@ import static org.osjava.sj.jndi.MemoryContext.IGNORE_CLOSE;
  * @author Henri Yandell, Holger Thurow
  */
 public class SimpleJndiContextFactory extends ContextFactory implements InitialContextFactory {
-    private static final ConcurrentHashMap<String, DelimiterConvertingContext> contextsByRoot =
-            new ConcurrentHashMap<String, DelimiterConvertingContext>();
+    private static final ConcurrentHashMap<String, FutureTask<SharedContext>> contextsByRoot =
+            new ConcurrentHashMap<String, FutureTask<SharedContext>>();
+    /* Created with the first reload in background. */
+    private static ExecutorService reloader;
 
     /**
      * package-private: Only for Testing!
      */
     static void clearCache() {
         contextsByRoot.clear();
+        NamespaceTemplates.clearCache();
     }
 
     /**
@@ -68,40 +79,92 @@ public class SimpleJndiContextFactory extends ContextFactory implements InitialC
         final Boolean isShared = Boolean.valueOf(
                 (String) environment.get(SimpleJndi.SHARED));
         if (!isShared) {
+            if (BooleanUtils.toBoolean((String) environment.get(SimpleJndi.TEMPLATE))) {
+                final InitialContext fork = NamespaceTemplates.newInitialContext(environment);
+                if (fork != null) {
+                    return new DelimiterConvertingContext(fork);
+                }
+            }
             return new DelimiterConvertingContext(new SimpleJndi(environment).loadRoot());
         }
         else {
             final String root = (String) environment.get(SimpleJndi.ROOT);
-            final Context ctx = contextsByRoot.get(root);
-            if (ctx != null) {
-                String ignoreClose = (String) environment.get(IGNORE_CLOSE);
-                ctx.addToEnvironment(
-                        IGNORE_CLOSE,
-                        BooleanUtils.toStringTrueFalse(BooleanUtils.toBoolean(ignoreClose)));
-                return ctx;
-            }
-            else {
-                InitialContext context = new SimpleJndi(environment).loadRoot();
-                final DelimiterConvertingContext delimiterConvertingContext = new DelimiterConvertingContext(context) {
-                    private boolean isClosed;
+            return getSharedContext(contextsByRoot, root, environment, new Callable<Context>() {
+                @Override
+                public Context call() throws NamingException {
+                    return new DelimiterConvertingContext(new SimpleJndi(environment).loadRoot());
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads the shared root of environment again and replaces its namespace by the new one in a single step, so no lookup sees it half loaded. Operations started before still read the previous namespace, and so do subcontexts and enumerations read from it until closed. When the last of them is done, the objects bound in the previous namespace implementing {@link AutoCloseable}, e.g. DataSource pools, are closed and it is closed. If loading fails, the previous namespace stays in place.
+     * <p>
+     * The new namespace is not shared with {@link MemoryContextFactory}.
+     *
+     * @param environment As passed to {@link InitialContext#InitialContext(Hashtable)} for the shared root.
+     * @return false: The root is not loaded, because no context of it is open. Nothing was loaded.
+     */
+    public static boolean reload(final Hashtable environment) throws NamingException {
+        final Hashtable env = (Hashtable) environment.clone();
+        overwriteEnvironmentWithSystemProperties(env);
+        initializeStandardJndiEnvironment(env);
+        final SharedContext shared = getLoadedContext(contextsByRoot, (String) env.get(SimpleJndi.ROOT));
+        if (shared == null) {
+            return false;
+        }
+        env.remove(SimpleJndi.SHARED);
+        final Context context = new DelimiterConvertingContext(new SimpleJndi(env).loadRoot());
+        if (!shared.publish(context)) {
+            context.removeFromEnvironment(IGNORE_CLOSE);
+            context.close();
+            return false;
+        }
+        return true;
+    }
 
-                    @Override
-                    public void close() throws NamingException {
-                        // When already closed getEnvironment() throws an Exception.
-                        if (!isClosed) {
-                            String ignoreClose = (String) getEnvironment().get(IGNORE_CLOSE);
-                            if (!BooleanUtils.toBoolean(ignoreClose)) {
-                                // first remove, so the context will be removed even when close() throws an Exception.
-                                contextsByRoot.remove(root);
-                                target.close();
-                                isClosed = true;
-                            }
-                        }
-                    }
-                };
-                contextsByRoot.put(root, delimiterConvertingContext);
-                return delimiterConvertingContext;
+    /**
+     * Like {@link #reload(Hashtable)}, but loads the new namespace in a background thread, while the calling thread goes on. Reloads are done one after another in the order requested.
+     *
+     * @param environment As passed to {@link InitialContext#InitialContext(Hashtable)} for the shared root.
+     * @return The result of {@link #reload(Hashtable)}, or its {@link NamingException} as cause of an {@link java.util.concurrent.ExecutionException}.
+     */
+    public static Future<Boolean> reloadInBackground(final Hashtable environment) {
+        final Hashtable env = (Hashtable) environment.clone();
+        return reloader().submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws NamingException {
+                return reload(env);
             }
+        });
+    }
+
+    private static synchronized ExecutorService reloader() {
+        if (reloader == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Simple-JNDI reloader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            reloader = executor;
         }
+        return reloader;
+    }
+
+    /**
+     * Returns a context of the shared root of environment, which reads the same namespace until closed, even if it is replaced by {@link #reload(Hashtable)} meanwhile. Closing it is never ignored.
+     *
+     * @param environment As passed to {@link InitialContext#InitialContext(Hashtable)} for the shared root.
+     */
+    public static Context snapshot(final Hashtable environment) throws NamingException {
+        final Hashtable env = (Hashtable) environment.clone();
+        env.put(SimpleJndi.SHARED, "true");
+        env.remove(IGNORE_CLOSE);
+        return ((SharedContextHandle) new SimpleJndiContextFactory().getInitialContext(env)).pin();
     }
 }
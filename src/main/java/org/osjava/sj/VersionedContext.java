@@ -0,0 +1,262 @@
+package org.osjava.sj;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.util.Hashtable;
+import java.util.NoSuchElementException;
+
+/**
+ * A subcontext read from a {@link NamespaceVersion} by a {@link SharedContextHandle}. Pins the version until closed or garbage collected, so it still reads the version after a reload replaced it. Subcontexts and enumerations read from it pin the version in turn.
+ */
+final class VersionedContext implements Context {
+
+    private final Context target;
+    private final NamespaceVersion.Pin pin;
+
+    private VersionedContext(@NotNull Context target, @NotNull NamespaceVersion version) {
+        this.target = target;
+        pin = version.pin(this);
+    }
+
+    /**
+     * @param version Entered by the caller.
+     * @return object, pinning version if it is a {@link Context}.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T wrap(@NotNull NamespaceVersion version, T object) {
+        // A context may pin a version of another shared context loaded by the one of version.
+        if (object instanceof Context && !(object instanceof VersionedContext && ((VersionedContext) object).pin.getVersion() == version)) {
+            return (T) new VersionedContext((Context) object, version);
+        }
+        return object;
+    }
+
+    /**
+     * @param version Entered by the caller.
+     * @return enumeration, pinning version until closed or enumerated to the end.
+     */
+    @NotNull
+    static <T> NamingEnumeration<T> enumerate(@NotNull NamespaceVersion version, @NotNull NamingEnumeration<T> enumeration) {
+        return new VersionedEnumeration<T>(enumeration, version);
+    }
+
+    @NotNull
+    private NamespaceVersion version() throws NamingException {
+        if (pin.isReleased()) {
+            throw new NamingException("Context was closed.");
+        }
+        return pin.getVersion();
+    }
+
+    public Object lookup(Name name) throws NamingException {
+        return wrap(version(), target.lookup(name));
+    }
+
+    public Object lookup(String name) throws NamingException {
+        return wrap(version(), target.lookup(name));
+    }
+
+    public void bind(Name name, Object obj) throws NamingException {
+        version();
+        target.bind(name, obj);
+    }
+
+    public void bind(String name, Object obj) throws NamingException {
+        version();
+        target.bind(name, obj);
+    }
+
+    public void rebind(Name name, Object obj) throws NamingException {
+        version();
+        target.rebind(name, obj);
+    }
+
+    public void rebind(String name, Object obj) throws NamingException {
+        version();
+        target.rebind(name, obj);
+    }
+
+    public void unbind(Name name) throws NamingException {
+        version();
+        target.unbind(name);
+    }
+
+    public void unbind(String name) throws NamingException {
+        version();
+        target.unbind(name);
+    }
+
+    public void rename(Name oldName, Name newName) throws NamingException {
+        version();
+        target.rename(oldName, newName);
+    }
+
+    public void rename(String oldName, String newName) throws NamingException {
+        version();
+        target.rename(oldName, newName);
+    }
+
+    public NamingEnumeration list(Name name) throws NamingException {
+        return enumerate(version(), target.list(name));
+    }
+
+    public NamingEnumeration list(String name) throws NamingException {
+        return enumerate(version(), target.list(name));
+    }
+
+    public NamingEnumeration listBindings(Name name) throws NamingException {
+        return enumerate(version(), target.listBindings(name));
+    }
+
+    public NamingEnumeration listBindings(String name) throws NamingException {
+        return enumerate(version(), target.listBindings(name));
+    }
+
+    public void destroySubcontext(Name name) throws NamingException {
+        version();
+        target.destroySubcontext(name);
+    }
+
+    public void destroySubcontext(String name) throws NamingException {
+        version();
+        target.destroySubcontext(name);
+    }
+
+    public Context createSubcontext(Name name) throws NamingException {
+        return wrap(version(), target.createSubcontext(name));
+    }
+
+    public Context createSubcontext(String name) throws NamingException {
+        return wrap(version(), target.createSubcontext(name));
+    }
+
+    public Object lookupLink(Name name) throws NamingException {
+        return wrap(version(), target.lookupLink(name));
+    }
+
+    public Object lookupLink(String name) throws NamingException {
+        return wrap(version(), target.lookupLink(name));
+    }
+
+    public NameParser getNameParser(Name name) throws NamingException {
+        version();
+        return target.getNameParser(name);
+    }
+
+    public NameParser getNameParser(String name) throws NamingException {
+        version();
+        return target.getNameParser(name);
+    }
+
+    public Name composeName(Name name, Name prefix) throws NamingException {
+        version();
+        return target.composeName(name, prefix);
+    }
+
+    public String composeName(String name, String prefix) throws NamingException {
+        version();
+        return target.composeName(name, prefix);
+    }
+
+    public Object addToEnvironment(String propName, Object propVal) throws NamingException {
+        version();
+        return target.addToEnvironment(propName, propVal);
+    }
+
+    public Object removeFromEnvironment(String propName) throws NamingException {
+        version();
+        return target.removeFromEnvironment(propName);
+    }
+
+    public Hashtable getEnvironment() throws NamingException {
+        version();
+        return target.getEnvironment();
+    }
+
+    public String getNameInNamespace() throws NamingException {
+        version();
+        return target.getNameInNamespace();
+    }
+
+    /**
+     * Releases the version. The subcontext itself is part of the shared namespace and is not closed, like the namespace is not closed by {@link SharedContextHandle#close()} while other handles are open.
+     */
+    public void close() {
+        pin.release();
+    }
+
+    @Override
+    public String toString() {
+        return target.toString();
+    }
+
+    /**
+     * An enumeration read from a {@link NamespaceVersion}. Pins the version until closed or enumerated to the end. Contexts of {@link Binding}s are pinned in turn.
+     */
+    private static final class VersionedEnumeration<T> implements NamingEnumeration<T> {
+        private final NamingEnumeration<T> target;
+        private final NamespaceVersion.Pin pin;
+
+        private VersionedEnumeration(@NotNull NamingEnumeration<T> target, @NotNull NamespaceVersion version) {
+            this.target = target;
+            pin = version.pin(this);
+        }
+
+        @SuppressWarnings("unchecked")
+        public T next() throws NamingException {
+            if (pin.isReleased()) {
+                throw new NamingException("Enumeration was closed.");
+            }
+            final T next = target.next();
+            if (next instanceof Binding && ((Binding) next).getObject() instanceof Context) {
+                final Binding binding = (Binding) next;
+                return (T) new Binding(binding.getName(), binding.getClassName(), wrap(pin.getVersion(), binding.getObject()), binding.isRelative());
+            }
+            return next;
+        }
+
+        public boolean hasMore() throws NamingException {
+            if (pin.isReleased()) {
+                return false;
+            }
+            final boolean hasMore = target.hasMore();
+            if (!hasMore) {
+                pin.release();
+            }
+            return hasMore;
+        }
+
+        public void close() throws NamingException {
+            try {
+                target.close();
+            }
+            finally {
+                pin.release();
+            }
+        }
+
+        public boolean hasMoreElements() {
+            try {
+                return hasMore();
+            }
+            catch (NamingException e) {
+                return false;
+            }
+        }
+
+        public T nextElement() {
+            try {
+                return next();
+            }
+            catch (NamingException e) {
+                throw new NoSuchElementException(e.getMessage());
+            }
+        }
+    }
+}
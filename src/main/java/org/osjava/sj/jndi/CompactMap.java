@@ -0,0 +1,261 @@
+package org.osjava.sj.jndi;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map for the bindings of a {@link MemoryContext}, which mostly are few: The entries are stored in a single flat array of alternating keys and values with linear probing, which is grown when half full and shrunk when less than an eighth full. An empty map allocates no array.
+ * <p>
+ * Large maps are not promoted to a {@link java.util.HashMap}: The flat array needs less memory than a HashMap with its entry objects at any size, and it can be probed by {@link #getRegion(String, int, int)} without cutting the key out of the name.
+ * <p>
+ * Thread safe like {@link java.util.Collections#synchronizedMap(java.util.Map)}: Every method synchronizes on the map. Iterating it requires holding its lock. Keys must not be null.
+ */
+class CompactMap<K, V> extends AbstractMap<K, V> implements RegionLookup {
+
+    /* Keys at even, values at odd indices. null: Empty. */
+    private Object[] table;
+    private int size;
+
+    static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return The slot of key or -1.
+     */
+    private int slotOf(Object key) {
+        final Object[] table = this.table;
+        if (table == null || key == null) {
+            return -1;
+        }
+        final int mask = (table.length >> 1) - 1;
+        int i = spread(key.hashCode()) & mask;
+        Object k;
+        while ((k = table[i << 1]) != null) {
+            if (k.equals(key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * The hash of name.substring(from, to) as specified by {@link String#hashCode()}.
+     */
+    static int hashRegion(String name, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + name.charAt(i);
+        }
+        return h;
+    }
+
+    static boolean regionEquals(Object key, String name, int from, int to) {
+        return key instanceof String && ((String) key).length() == to - from
+                && name.regionMatches(from, (String) key, 0, to - from);
+    }
+
+    @Override
+    public synchronized Object getRegion(String name, int from, int to) {
+        final Object[] table = this.table;
+        if (table == null) {
+            return ABSENT;
+        }
+        final int mask = (table.length >> 1) - 1;
+        int i = spread(hashRegion(name, from, to)) & mask;
+        Object k;
+        while ((k = table[i << 1]) != null) {
+            if (regionEquals(k, name, from, to)) {
+                return table[(i << 1) + 1];
+            }
+            i = (i + 1) & mask;
+        }
+        return ABSENT;
+    }
+
+    @Override
+    public synchronized V get(Object key) {
+        final int i = slotOf(key);
+        return i < 0 ? null : value(i);
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return slotOf(key) >= 0;
+    }
+
+    @Override
+    public synchronized V put(K key, V value) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        final int i = slotOf(key);
+        if (i >= 0) {
+            final V previous = value(i);
+            table[(i << 1) + 1] = value;
+            return previous;
+        }
+        // At most half of the slots are used.
+        if (table == null || (size + 1) << 2 > table.length) {
+            resize(table == null ? 4 : table.length);
+        }
+        insert(table, key, value);
+        size++;
+        return null;
+    }
+
+    /**
+     * @param slots A power of two.
+     */
+    private void resize(int slots) {
+        final Object[] old = table;
+        table = new Object[slots << 1];
+        if (old != null) {
+            for (int i = 0; i < old.length; i += 2) {
+                if (old[i] != null) {
+                    insert(table, old[i], old[i + 1]);
+                }
+            }
+        }
+    }
+
+    private static void insert(Object[] table, Object key, Object value) {
+        final int mask = (table.length >> 1) - 1;
+        int i = spread(key.hashCode()) & mask;
+        while (table[i << 1] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i << 1] = key;
+        table[(i << 1) + 1] = value;
+    }
+
+    @Override
+    public synchronized V remove(Object key) {
+        int i = slotOf(key);
+        if (i < 0) {
+            return null;
+        }
+        final V previous = value(i);
+        // Shift back the following entries of the probe sequence, so no lookup stops at the emptied slot.
+        final int mask = (table.length >> 1) - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            final Object k = table[j << 1];
+            if (k == null) {
+                break;
+            }
+            final int home = spread(k.hashCode()) & mask;
+            // Move the entry unless its home slot lies cyclically in (i, j].
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                table[i << 1] = k;
+                table[(i << 1) + 1] = table[(j << 1) + 1];
+                i = j;
+            }
+        }
+        table[i << 1] = null;
+        table[(i << 1) + 1] = null;
+        if (--size == 0) {
+            table = null;
+        }
+        else if (size << 4 < table.length && table.length > 8) {
+            resize(table.length >> 2);
+        }
+        return previous;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public synchronized void clear() {
+        table = null;
+        size = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return super.toString();
+    }
+
+    /**
+     * @return The number of slots.
+     */
+    synchronized int capacity() {
+        return table == null ? 0 : table.length >> 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int slot) {
+        return (V) table[(slot << 1) + 1];
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new Iterator<Entry<K, V>>() {
+                    /* The table, copied by the first remove(), which may move entries. */
+                    private Object[] entries = table == null ? new Object[0] : table;
+                    private boolean copied;
+                    private int next = advance(0);
+                    private Object lastKey;
+
+                    private int advance(int i) {
+                        while (i < entries.length && entries[i] == null) {
+                            i += 2;
+                        }
+                        return i;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < entries.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Entry<K, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        lastKey = entries[next];
+                        final Entry<K, V> entry = new SimpleImmutableEntry<K, V>((K) lastKey, (V) entries[next + 1]);
+                        next = advance(next + 2);
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (lastKey == null) {
+                            throw new IllegalStateException();
+                        }
+                        if (!copied) {
+                            entries = entries.clone();
+                            copied = true;
+                        }
+                        CompactMap.this.remove(lastKey);
+                        lastKey = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CompactMap.this.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package org.osjava.sj.jndi;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The bindings of a context forked from a frozen template, see {@link MemoryContext#fork()}: Reads go to the template's map until the first write copies it. Thus forks of a large namespace share the bindings of all contexts never modified.
+ * <p>
+ * Writes synchronize on the map like {@link CompactMap}. Iterating the map requires holding its lock unless it is concurrent.
+ */
+class CopyOnWriteMap<K, V> extends AbstractMap<K, V> implements RegionLookup {
+
+    /* Never modified. */
+    private final Map<K, V> shared;
+    private final boolean concurrent;
+    /* null: Not written yet. */
+    private volatile Map<K, V> own;
+
+    /**
+     * @param shared Not to be modified anymore.
+     * @param concurrent The copy is a {@link NullableConcurrentHashMap} instead of a {@link CompactMap}.
+     */
+    CopyOnWriteMap(Map<K, V> shared, boolean concurrent) {
+        this.shared = shared;
+        this.concurrent = concurrent;
+    }
+
+    private Map<K, V> current() {
+        final Map<K, V> own = this.own;
+        return own != null ? own : shared;
+    }
+
+    private Map<K, V> writable() {
+        if (own == null) {
+            final Map<K, V> copy = concurrent ? new NullableConcurrentHashMap<K, V>() : new CompactMap<K, V>();
+            copy.putAll(shared);
+            own = copy;
+        }
+        return own;
+    }
+
+    /**
+     * @return false: The map still reads the template's map.
+     */
+    boolean isCopied() {
+        return own != null;
+    }
+
+    @Override
+    public Object getRegion(String name, int from, int to) {
+        final Map<K, V> map = current();
+        if (map instanceof RegionLookup) {
+            return ((RegionLookup) map).getRegion(name, from, to);
+        }
+        final String key = name.substring(from, to);
+        final V value = map.get(key);
+        return value != null || map.containsKey(key) ? value : ABSENT;
+    }
+
+    @Override
+    public V get(Object key) {
+        return current().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return current().containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return current().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return current().isEmpty();
+    }
+
+    @Override
+    public synchronized V put(K key, V value) {
+        return writable().put(key, value);
+    }
+
+    @Override
+    public synchronized V remove(Object key) {
+        return containsKey(key) ? writable().remove(key) : null;
+    }
+
+    @Override
+    public synchronized boolean replace(K key, V oldValue, V newValue) {
+        return writable().replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public synchronized void clear() {
+        own = concurrent ? new NullableConcurrentHashMap<K, V>() : new CompactMap<K, V>();
+    }
+
+    /**
+     * Read-only.
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return Collections.unmodifiableMap(current()).entrySet();
+    }
+}
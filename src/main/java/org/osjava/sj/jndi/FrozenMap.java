@@ -0,0 +1,186 @@
+package org.osjava.sj.jndi;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Immutable map compiled from the bindings of a frozen {@link MemoryContext}: An open addressing hash table in flat arrays with linear probing. Lookups take no lock and allocate nothing.
+ * <p>
+ * The keys are fixed. Only {@link #replace(Object, Object)} and {@link #replace(Object, Object, Object)} may change the value of an existing key, so a {@link javax.naming.Reference} can be replaced by the object created from it.
+ */
+class FrozenMap<K, V> extends AbstractMap<K, V> implements RegionLookup {
+
+    private final Object[] keys;
+    private final AtomicReferenceArray<V> values;
+    private final int mask;
+    private final int size;
+
+    FrozenMap(Map<? extends K, ? extends V> map) {
+        int capacity = 2;
+        while (capacity < map.size() * 2) {
+            capacity <<= 1;
+        }
+        keys = new Object[capacity];
+        values = new AtomicReferenceArray<V>(capacity);
+        mask = capacity - 1;
+        for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            int i = spread(entry.getKey().hashCode()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = entry.getKey();
+            values.set(i, entry.getValue());
+        }
+        size = map.size();
+    }
+
+    private static int spread(int h) {
+        return CompactMap.spread(h);
+    }
+
+    private int indexOf(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        int i = spread(key.hashCode()) & mask;
+        Object k;
+        while ((k = keys[i]) != null) {
+            if (k.equals(key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Probes the String key contextKey + separator + name, or name if contextKey is "", without concatenating it. The hash is continued from contextKey's as specified by {@link String#hashCode()}.
+     *
+     * @return -1: Not found.
+     */
+    int indexOf(String contextKey, String separator, String name) {
+        if (contextKey.isEmpty()) {
+            return indexOf(name);
+        }
+        int h = contextKey.hashCode();
+        for (int j = 0; j < separator.length(); j++) {
+            h = 31 * h + separator.charAt(j);
+        }
+        for (int j = 0; j < name.length(); j++) {
+            h = 31 * h + name.charAt(j);
+        }
+        final int length = contextKey.length() + separator.length() + name.length();
+        int i = spread(h) & mask;
+        Object k;
+        while ((k = keys[i]) != null) {
+            if (k instanceof String) {
+                final String key = (String) k;
+                if (key.length() == length && key.startsWith(contextKey)
+                        && key.startsWith(separator, contextKey.length())
+                        && key.startsWith(name, length - name.length())) {
+                    return i;
+                }
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public Object getRegion(String name, int from, int to) {
+        int i = spread(CompactMap.hashRegion(name, from, to)) & mask;
+        Object k;
+        while ((k = keys[i]) != null) {
+            if (CompactMap.regionEquals(k, name, from, to)) {
+                return values.get(i);
+            }
+            i = (i + 1) & mask;
+        }
+        return ABSENT;
+    }
+
+    V valueAt(int i) {
+        return values.get(i);
+    }
+
+    @Override
+    public V get(Object key) {
+        final int i = indexOf(key);
+        return i < 0 ? null : values.get(i);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        final int i = indexOf(key);
+        return i < 0 ? null : values.getAndSet(i, value);
+    }
+
+    /**
+     * Compares the values by identity.
+     */
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        final int i = indexOf(key);
+        return i >= 0 && values.compareAndSet(i, oldValue, newValue);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new Iterator<Entry<K, V>>() {
+                    private int next = advance(0);
+
+                    private int advance(int i) {
+                        while (i < keys.length && keys[i] == null) {
+                            i++;
+                        }
+                        return i;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < keys.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Entry<K, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final Entry<K, V> entry = new SimpleImmutableEntry<K, V>((K) keys[next], values.get(next));
+                        next = advance(next + 1);
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
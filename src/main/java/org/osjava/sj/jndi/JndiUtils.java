@@ -52,5 +52,14 @@ public class JndiUtils {
         return new CompoundName(objName, envCopy);
     }
 
+    /**
+     * @param name A name listed by context, see {@link Context#listBindings(String)}. {@link MemoryContext} lists names of one component with separators escaped.
+     * @return The component name stands for. name itself, if it does not parse to one component, as listed by contexts not escaping separators.
+     */
+    @NotNull
+    public static String toComponent(@NotNull Context context, @NotNull String name) throws NamingException {
+        final Name parsed = context.getNameParser("").parse(name);
+        return parsed.size() == 1 ? parsed.get(0) : name;
+    }
 
 }
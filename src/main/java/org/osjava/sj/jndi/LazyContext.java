@@ -0,0 +1,260 @@
+package org.osjava.sj.jndi;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.jetbrains.annotations.NotNull;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameClassPair;
+import javax.naming.NameParser;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.util.Hashtable;
+
+/**
+ * A subcontext whose bindings are loaded by the first operation reaching into it, e.g. the subcontext of a directory whose files are not parsed before one of its names is looked up. The bindings are loaded exactly once: Concurrent callers wait for the loading thread. If loading fails, the caller gets the exception and the next operation tries again.
+ * <p>
+ * The bindings are kept in a {@link MemoryContext} of their own, which is frozen after loading if {@link MemoryContext#FROZEN} is set in the environment. Listeners and the index of the enclosing namespace do not cover them.
+ */
+public abstract class LazyContext implements Context {
+
+    private final Hashtable environment;
+    private final Name nameInNamespace;
+    private volatile MemoryContext context;
+    /* Guarded by this. */
+    private boolean closed;
+
+    /**
+     * @param environment The environment of the enclosing context.
+     * @param nameInNamespace The full name of this context.
+     */
+    protected LazyContext(@NotNull Hashtable environment, @NotNull Name nameInNamespace) {
+        this.environment = new Hashtable(environment);
+        this.nameInNamespace = nameInNamespace;
+    }
+
+    /**
+     * Binds the objects and subcontexts of this context to context. Called once, or again after it failed.
+     */
+    protected abstract void load(@NotNull Context context) throws NamingException;
+
+    /**
+     * @return true: The bindings were loaded.
+     */
+    public boolean isLoaded() {
+        return context != null;
+    }
+
+    @NotNull
+    private Context context() throws NamingException {
+        MemoryContext context = this.context;
+        if (context != null) {
+            return context;
+        }
+        synchronized (this) {
+            context = this.context;
+            if (context == null) {
+                if (closed) {
+                    throw new NamingException("Context was closed.");
+                }
+                final MemoryContext loaded = new MemoryContext(environment);
+                loaded.setNameInNamespace((Name) nameInNamespace.clone());
+                boolean done = false;
+                try {
+                    load(loaded);
+                    done = true;
+                }
+                finally {
+                    if (!done) {
+                        loaded.forceClose();
+                    }
+                }
+                if (BooleanUtils.toBoolean(String.valueOf(environment.get(MemoryContext.FROZEN)))) {
+                    loaded.freeze();
+                }
+                this.context = context = loaded;
+            }
+            return context;
+        }
+    }
+
+    @Override
+    public Object lookup(Name name) throws NamingException {
+        return context().lookup(name);
+    }
+
+    @Override
+    public Object lookup(String name) throws NamingException {
+        return context().lookup(name);
+    }
+
+    @Override
+    public void bind(Name name, Object obj) throws NamingException {
+        context().bind(name, obj);
+    }
+
+    @Override
+    public void bind(String name, Object obj) throws NamingException {
+        context().bind(name, obj);
+    }
+
+    @Override
+    public void rebind(Name name, Object obj) throws NamingException {
+        context().rebind(name, obj);
+    }
+
+    @Override
+    public void rebind(String name, Object obj) throws NamingException {
+        context().rebind(name, obj);
+    }
+
+    @Override
+    public void unbind(Name name) throws NamingException {
+        context().unbind(name);
+    }
+
+    @Override
+    public void unbind(String name) throws NamingException {
+        context().unbind(name);
+    }
+
+    @Override
+    public void rename(Name oldName, Name newName) throws NamingException {
+        context().rename(oldName, newName);
+    }
+
+    @Override
+    public void rename(String oldName, String newName) throws NamingException {
+        context().rename(oldName, newName);
+    }
+
+    @Override
+    public NamingEnumeration<NameClassPair> list(Name name) throws NamingException {
+        return context().list(name);
+    }
+
+    @Override
+    public NamingEnumeration<NameClassPair> list(String name) throws NamingException {
+        return context().list(name);
+    }
+
+    @Override
+    public NamingEnumeration<Binding> listBindings(Name name) throws NamingException {
+        return context().listBindings(name);
+    }
+
+    @Override
+    public NamingEnumeration<Binding> listBindings(String name) throws NamingException {
+        return context().listBindings(name);
+    }
+
+    @Override
+    public void destroySubcontext(Name name) throws NamingException {
+        context().destroySubcontext(name);
+    }
+
+    @Override
+    public void destroySubcontext(String name) throws NamingException {
+        context().destroySubcontext(name);
+    }
+
+    @Override
+    public Context createSubcontext(Name name) throws NamingException {
+        return context().createSubcontext(name);
+    }
+
+    @Override
+    public Context createSubcontext(String name) throws NamingException {
+        return context().createSubcontext(name);
+    }
+
+    @Override
+    public Object lookupLink(Name name) throws NamingException {
+        return context().lookupLink(name);
+    }
+
+    @Override
+    public Object lookupLink(String name) throws NamingException {
+        return context().lookupLink(name);
+    }
+
+    @Override
+    public NameParser getNameParser(Name name) throws NamingException {
+        return context().getNameParser(name);
+    }
+
+    @Override
+    public NameParser getNameParser(String name) throws NamingException {
+        return context().getNameParser(name);
+    }
+
+    @Override
+    public Name composeName(Name name, Name prefix) throws NamingException {
+        return context().composeName(name, prefix);
+    }
+
+    @Override
+    public String composeName(String name, String prefix) throws NamingException {
+        return context().composeName(name, prefix);
+    }
+
+    @Override
+    public Object addToEnvironment(String propName, Object propVal) throws NamingException {
+        synchronized (this) {
+            if (context == null) {
+                return environment.put(propName, propVal);
+            }
+        }
+        return context.addToEnvironment(propName, propVal);
+    }
+
+    @Override
+    public Object removeFromEnvironment(String propName) throws NamingException {
+        synchronized (this) {
+            if (context == null) {
+                return environment.remove(propName);
+            }
+        }
+        return context.removeFromEnvironment(propName);
+    }
+
+    @Override
+    public Hashtable<?, ?> getEnvironment() throws NamingException {
+        final MemoryContext context = this.context;
+        if (context != null) {
+            return context.getEnvironment();
+        }
+        synchronized (this) {
+            return (Hashtable<?, ?>) environment.clone();
+        }
+    }
+
+    /**
+     * Closes the loaded bindings. If they were not loaded yet, they will not be loaded anymore, unless {@link MemoryContext#IGNORE_CLOSE} is set.
+     */
+    @Override
+    public void close() throws NamingException {
+        final MemoryContext context;
+        synchronized (this) {
+            context = this.context;
+            if (context == null) {
+                if (!BooleanUtils.toBoolean(String.valueOf(environment.get(MemoryContext.IGNORE_CLOSE)))) {
+                    closed = true;
+                }
+                return;
+            }
+        }
+        context.close();
+    }
+
+    @Override
+    public String getNameInNamespace() {
+        return nameInNamespace.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "LazyContext{nameInNamespace=" + nameInNamespace + ", loaded=" + isLoaded() + "}";
+    }
+}
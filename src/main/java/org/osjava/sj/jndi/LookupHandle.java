@@ -0,0 +1,106 @@
+package org.osjava.sj.jndi;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+
+/**
+ * A name resolved once by {@link MemoryContext#handle(String)}, for frameworks looking up the same names again and again. {@link #get()} returns the bound object by a single volatile read, without walking the context tree.
+ * <p>
+ * The handle follows its name: When the name is rebound, get() returns the new object. When it is unbound or the context holding it or any context on its path is destroyed, closed, unbound or replaced by rebind(), get() throws {@link NameNotFoundException}. Every change increments the {@link #getVersion() version} of the handle. A handle of such a context is never bound again, even if a context of the same name is created later: Get a new handle then.
+ */
+public final class LookupHandle {
+
+    private final MemoryContext context;
+    /* The key of the name in context. */
+    private final String key;
+    private final String name;
+    private volatile State state;
+
+    /**
+     * Immutable, so get() needs to read a single volatile field.
+     */
+    private static final class State {
+        private final Object value;
+        private final long version;
+        private final boolean bound;
+        /* false: value is a Reference still to be resolved. */
+        private final boolean resolved;
+
+        private State(@Nullable Object value, long version, boolean bound) {
+            this.value = value;
+            this.version = version;
+            this.bound = bound;
+            resolved = bound && !(value instanceof Reference);
+        }
+    }
+
+    LookupHandle(@NotNull MemoryContext context, @NotNull String key, @NotNull String name, @Nullable Object value) {
+        this.context = context;
+        this.key = key;
+        this.name = name;
+        state = new State(value, 0, true);
+    }
+
+    /**
+     * @return The object currently bound to the name. A {@link Reference} is resolved like by {@link MemoryContext#lookup(String)}.
+     * @throws NameNotFoundException The name was unbound or its context destroyed.
+     */
+    @Nullable
+    public Object get() throws NamingException {
+        final State state = this.state;
+        if (state.resolved) {
+            return state.value;
+        }
+        if (!state.bound) {
+            throw new NameNotFoundException(name + " is no longer bound.");
+        }
+        return context.resolve(key, (Reference) state.value);
+    }
+
+    /**
+     * @return false: {@link #get()} throws {@link NameNotFoundException}.
+     */
+    public boolean isBound() {
+        return state.bound;
+    }
+
+    /**
+     * @return Incremented on every rebind, unbind or resolution of the name since the handle was created.
+     */
+    public long getVersion() {
+        return state.version;
+    }
+
+    /**
+     * @return The name passed to {@link MemoryContext#handle(String)} when the handle was created.
+     */
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Caller must hold the write lock of the context.
+     */
+    void bound(@Nullable Object value) {
+        state = new State(value, state.version + 1, true);
+    }
+
+    /**
+     * Caller must hold the write lock of the context.
+     */
+    void unbound() {
+        if (state.bound) {
+            state = new State(null, state.version + 1, false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LookupHandle{" + name + ", version=" + state.version + "}";
+    }
+}
@@ -39,21 +39,57 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.naming.*;
+import javax.naming.event.EventContext;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingListener;
 import javax.naming.spi.NamingManager;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * @author Robert M. Zigweid
  * @since Simple-JNDI 0.11
  */
-public class MemoryContext implements Cloneable, Context  {
+public class MemoryContext implements Cloneable, EventContext {
 
     public static final String IGNORE_CLOSE = "org.osjava.sj.jndi.ignoreClose";
-    private Properties envAsProperties;
-
-    private Map<Name, Object> namesToObjects = Collections.synchronizedMap(new HashMap<Name, Object>());
-    private Map<Name, Context> subContexts = Collections.synchronizedMap(new HashMap<Name, Context>());
-    private Hashtable env = new Hashtable();
+    /**
+     * "true": Bindings are stored in concurrent maps, so lookups and list operations never block. Writes are serialized per context. Default is "false": Bindings are stored in synchronized maps.
+     */
+    public static final String CONCURRENT = "org.osjava.sj.jndi.concurrent";
+    /**
+     * "true": The root context maintains an index from the full name of every object and subcontext in the namespace to the bound object. Then {@link #lookup(String)} of a deeply nested name costs a single hash probe. Default is "false".
+     */
+    public static final String INDEX = "org.osjava.sj.jndi.index";
+    /**
+     * "true": {@link org.osjava.sj.SimpleJndi} freezes the namespace after loading it, see {@link #freeze()}. Adding this property with "true" to the environment of a MemoryContext freezes it at once. Default is "false".
+     */
+    public static final String FROZEN = "org.osjava.sj.jndi.frozen";
+    /* Keyed by name component, see keyOf(). */
+    private Map<String, Object> namesToObjects;
+    private Map<String, Context> subContexts;
+    /* The name components as bound, by key, where they differ from their key, see NamespaceConfig#keyOf(String). Listed instead of the key. Written under writeLock. Created on first use. */
+    private volatile ConcurrentHashMap<String, String> boundNames;
+    private boolean concurrent;
+    /* See freeze(). */
+    private volatile boolean frozen;
+    /* Makes the read-then-act sequences in bind(), rebind() and unbind() atomic. Readers do not take it. */
+    private final Object writeLock = new Object();
+    /* References currently resolved by lookup(). See resolve(). Created on first use, most contexts never hold a Reference. */
+    private volatile ConcurrentHashMap<String, FutureTask<Object>> resolutions;
+    /* The handles of names in this context, see handle(). Guarded by writeLock. Created on first use. */
+    private Map<String, LookupHandle> handles;
+    /* The listeners of the namespace, shared by the root context and all subcontexts created by createSubcontext(). */
+    private NamespaceEvents events;
+    /* Shared by all contexts of the namespace. null: Not enabled (see INDEX) or detached from the namespace. */
+    private volatile NamespaceIndex index;
+    /* The key of this context in index. "" in the root context. */
+    private String indexKey;
+    /* Shared with the subcontexts created by this context. Replaced by a copy on addToEnvironment() and removeFromEnvironment(). null: Closed. */
+    private NamespaceConfig config;
     private NameParser nameParser;
     /* The full name of this context. */
     private Name nameInNamespace = null;
@@ -87,27 +123,38 @@ public class MemoryContext implements Cloneable, Context  {
      * @param parser the NameParser being used by the Context.
      */
     protected MemoryContext(Hashtable env, NameParser parser) {
-        if(env != null) {
-            this.env = (Hashtable)env.clone();
-            Properties props = new Properties();
-            props.putAll(env);
-            envAsProperties = props;
-        }
+        this(NamespaceConfig.create(env), parser, true);
+    }
 
-        if(parser == null) {
-            try {
-                nameParser = new SimpleNameParser(this);
-            } catch (NamingException e) {
-                /*
-                 * XXX: This should never really occur.  If it does, there is
-                 * a severe problem.  I also don't want to throw the exception
-                 * right now because that would break compatability, even
-                 * though it is probably the right thing to do.  This might
-                 * get upgraded to a fixme.
-                 */
-                e.printStackTrace();
+    /**
+     * @param isRoot false: Created by {@link #createSubcontext(Name)}.
+     */
+    private MemoryContext(NamespaceConfig config, NameParser parser, boolean isRoot) {
+        this.config = config;
+        final Hashtable env = config.getEnvironment();
+        concurrent = config.isConcurrent();
+        if (concurrent) {
+            namesToObjects = new NullableConcurrentHashMap<String, Object>();
+            subContexts = new NullableConcurrentHashMap<String, Context>();
+        }
+        else {
+            namesToObjects = new CompactMap<String, Object>();
+            subContexts = new CompactMap<String, Context>();
+        }
+        if (isRoot && BooleanUtils.toBoolean(String.valueOf(env.get(INDEX)))) {
+            if (config.getPlainSyntax() != null) {
+                index = new NamespaceIndex(config.getPlainSyntax());
+                indexKey = "";
+            }
+            else {
+                LOGGER.warn("{} ignored: Name syntax not supported.", INDEX);
             }
         }
+
+        nameParser = parser != null ? parser : config.getNameParser();
+        if (isRoot) {
+            events = new NamespaceEvents(this);
+        }
         try {
             nameInNamespace = nameParser.parse("");
         } catch (NamingException e) {
@@ -125,7 +172,7 @@ public class MemoryContext implements Cloneable, Context  {
         return "MemoryContext{" +
                 "namesToObjects=" + namesToObjects +
                 ", subContexts=" + subContexts +
-                ", env=" + env +
+                ", env=" + (config != null ? config.getEnvironment() : null) +
                 ", nameParser=" + nameParser +
                 ", nameInNamespace=" + nameInNamespace +
                 ", nameLock=" + nameLock +
@@ -144,37 +191,32 @@ public class MemoryContext implements Cloneable, Context  {
         }
         else {
             Name objName = name.getPrefix(1);
-            objName = JndiUtils.toCompoundName(objName, envAsProperties);
+            objName = config.toCompoundName(objName);
             if (name.size() > 1) { // A subcontext is lookuped.
-                if (subContexts.containsKey(objName)) {
-                    return subContexts.get(objName).lookup(name.getSuffix(1));
+                final Context subContext = objName.size() == 1 ? subContexts.get(keyOf(objName)) : null;
+                if (subContext != null) {
+                    return subContext.lookup(name.getSuffix(1));
                 }
                 String msg = "MemoryContext#lookup(\"{}\"): Invalid subcontext '{}' in context '{}': {}";
                 LOGGER.error(msg, name, objName, getNameInNamespace(), this);
                 throw new NamingException();
             }
             else { // Can be a subcontext or an object.
-                name = JndiUtils.toCompoundName(name, envAsProperties);
-                if (namesToObjects.containsKey(name)) {
-                    Object o = namesToObjects.get(objName);
-                    if (o instanceof Reference) {
-                        Object instance;
-                        try {
-                            instance = NamingManager.getObjectInstance(o, null, null, getEnvironment());
+                name = config.toCompoundName(name);
+                if (name.size() == 1) {
+                    final String key = keyOf(name);
+                    Object o = namesToObjects.get(key);
+                    // Probe a second time only for null bindings.
+                    if (o != null || namesToObjects.containsKey(key)) {
+                        if (o instanceof Reference) {
+                            o = resolve(key, (Reference) o);
                         }
-                        catch (Exception e) {
-                            LOGGER.error("", e);
-                            NamingException namingException = new NamingException();
-                            namingException.setRootCause(e);
-                            throw namingException;
-                        }
-                        o = instance == o ? null : instance;
-                        namesToObjects.put(objName, o);
+                        return o;
+                    }
+                    final Context subContext = subContexts.get(key);
+                    if (subContext != null) {
+                        return subContext;
                     }
-                    return o;
-                }
-                if (subContexts.containsKey(name)) {
-                    return subContexts.get(name);
                 }
                 LOGGER.debug("MemoryContext#lookup() {} not found in {}", name, this);
                 throw new NameNotFoundException(name.toString());
@@ -182,6 +224,194 @@ public class MemoryContext implements Cloneable, Context  {
         }
     }
 
+    /**
+     * Replaces reference by the object created from it. Concurrent lookups of the same name wait for a single thread creating the object. If creation fails, all of them get the exception and the next lookup tries again.
+     *
+     * @param name The key of reference in this context.
+     * @return null: The reference could not be resolved to an object.
+     */
+    @Nullable
+    Object resolve(@NotNull final String name, @NotNull final Reference reference) throws NamingException {
+        final FutureTask<Object> resolution = new FutureTask<Object>(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                Reference target = reference;
+                final Object current = namesToObjects.get(name);
+                if (current != reference && namesToObjects.containsKey(name)) {
+                    // Resolved meanwhile by another thread or rebound.
+                    if (!(current instanceof Reference)) {
+                        return current;
+                    }
+                    target = (Reference) current;
+                }
+                Object instance = NamingManager.getObjectInstance(target, null, null, getEnvironment());
+                instance = instance == target ? null : instance;
+                synchronized (writeLock) {
+                    // Do not overwrite a rebound name. replace() also works on the maps of a frozen context.
+                    if (namesToObjects.replace(name, target, instance)) {
+                        indexBound(name, instance);
+                        handleBound(name, instance);
+                    }
+                }
+                return instance;
+            }
+        });
+        ConcurrentHashMap<String, FutureTask<Object>> resolutions = this.resolutions;
+        if (resolutions == null) {
+            synchronized (writeLock) {
+                if (this.resolutions == null) {
+                    this.resolutions = new ConcurrentHashMap<String, FutureTask<Object>>();
+                }
+                resolutions = this.resolutions;
+            }
+        }
+        FutureTask<Object> running = resolutions.putIfAbsent(name, resolution);
+        if (running == null) {
+            running = resolution;
+            try {
+                resolution.run();
+            }
+            finally {
+                resolutions.remove(name, resolution);
+            }
+        }
+        try {
+            return running.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final InterruptedNamingException namingException = new InterruptedNamingException("Interrupted while waiting for " + name + " to be resolved.");
+            namingException.setRootCause(e);
+            throw namingException;
+        }
+        catch (ExecutionException e) {
+            LOGGER.error("", e.getCause());
+            NamingException namingException = new NamingException();
+            namingException.setRootCause(e.getCause());
+            throw namingException;
+        }
+    }
+
+    /**
+     * @param name The name of an object bound in this context or one of its subcontexts.
+     * @return Whether the object bound to name is a {@link Reference} not resolved yet by a lookup.
+     * @throws NameNotFoundException name is not bound.
+     * @throws NotContextException A subcontext in name is not a MemoryContext.
+     */
+    @NotNull
+    public ResolutionState getResolutionState(@NotNull Name name) throws NamingException {
+        if (name.isEmpty()) {
+            return ResolutionState.RESOLVED;
+        }
+        if (name.size() > 1) {
+            final Object context = lookup(name.getPrefix(name.size() - 1));
+            if (!(context instanceof MemoryContext)) {
+                throw new NotContextException(name.getPrefix(name.size() - 1) + " is not a MemoryContext.");
+            }
+            return ((MemoryContext) context).getResolutionState(name.getSuffix(name.size() - 1));
+        }
+        name = config.toCompoundName(name);
+        final String key = name.size() == 1 ? keyOf(name) : null;
+        if (key == null) {
+            throw new NameNotFoundException(name.toString());
+        }
+        final ConcurrentHashMap<String, FutureTask<Object>> resolutions = this.resolutions;
+        if (resolutions != null && resolutions.containsKey(key)) {
+            return ResolutionState.RESOLVING;
+        }
+        final Object o = namesToObjects.get(key);
+        if (o instanceof Reference) {
+            return ResolutionState.UNRESOLVED;
+        }
+        if (o == null && !namesToObjects.containsKey(key) && !subContexts.containsKey(key)) {
+            throw new NameNotFoundException(name.toString());
+        }
+        return ResolutionState.RESOLVED;
+    }
+
+    /**
+     * @see #getResolutionState(Name)
+     */
+    @NotNull
+    public ResolutionState getResolutionState(@NotNull String name) throws NamingException {
+        return getResolutionState(nameParser.parse(name));
+    }
+
+    /**
+     * See {@link #getResolutionState(Name)}.
+     */
+    public enum ResolutionState {
+        /** A {@link Reference} not looked up yet, or whose resolution failed. */
+        UNRESOLVED,
+        /** A {@link Reference} just being resolved by a lookup. */
+        RESOLVING,
+        /** An object or subcontext, possibly created from a Reference. */
+        RESOLVED
+    }
+
+    /**
+     * Resolves name once for repeated lookups. The handle of a name is the same for all callers and follows rebind(), unbind() and the destruction of the context holding the name, see {@link LookupHandle}.
+     *
+     * @param name The name of an object or subcontext, bound in this context or one of its MemoryContext subcontexts.
+     * @throws NameNotFoundException name is not bound.
+     * @throws OperationNotSupportedException name is bound in a context other than a MemoryContext.
+     */
+    @NotNull
+    public LookupHandle handle(@NotNull Name name) throws NamingException {
+        if (name.isEmpty()) {
+            throw new InvalidNameException("Cannot create a handle for the empty name.");
+        }
+        return handle(name, name.toString());
+    }
+
+    /**
+     * @param fullName The name passed to {@link #handle(Name)}.
+     */
+    @NotNull
+    private LookupHandle handle(@NotNull Name name, @NotNull String fullName) throws NamingException {
+        if (name.size() > 1) {
+            final Name objName = config.toCompoundName(name.getPrefix(1));
+            final Context subContext = objName.size() == 1 ? subContexts.get(keyOf(objName)) : null;
+            if (subContext instanceof MemoryContext) {
+                return ((MemoryContext) subContext).handle(name.getSuffix(1), fullName);
+            }
+            if (subContext == null) {
+                throw new NameNotFoundException(fullName);
+            }
+            throw new OperationNotSupportedException("Handles are not supported by " + subContext.getClass().getName());
+        }
+        // Resolves a Reference, so the handle need not.
+        lookup(name);
+        final Name compoundName = config.toCompoundName(name);
+        final String key = keyOf(compoundName);
+        synchronized (writeLock) {
+            if (handles == null) {
+                handles = new HashMap<String, LookupHandle>();
+            }
+            LookupHandle handle = handles.get(key);
+            if (handle == null) {
+                Object value = namesToObjects.get(key);
+                if (value == null && !namesToObjects.containsKey(key)) {
+                    value = subContexts.get(key);
+                    if (value == null) { // Unbound meanwhile.
+                        throw new NameNotFoundException(fullName);
+                    }
+                }
+                handle = new LookupHandle(this, key, fullName, value);
+                handles.put(key, handle);
+            }
+            return handle;
+        }
+    }
+
+    /**
+     * See {@link #handle(Name)}.
+     */
+    @NotNull
+    public LookupHandle handle(@NotNull String name) throws NamingException {
+        return handle(nameParser.parse(name));
+    }
+
     /**
      * IMPROVE To be implemented? See {@link OperationNotSupportedException}.
      */
@@ -202,9 +432,127 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public Object lookup(@NotNull String name) throws NamingException {
+        final NamespaceIndex index = this.index;
+        if (index != null && index.isPlainName(name)) {
+            final Object o = index.get(indexKey, name);
+            if (o != null) {
+                if (!(o instanceof Reference)) {
+                    return o;
+                }
+            }
+            else if (index.containsKey(indexKey, name)) {
+                return null;
+            }
+        }
+        final NamespaceConfig config = this.config;
+        final PlainSyntax syntax = config != null ? config.getPlainSyntax() : null;
+        if (syntax != null && syntax.isPlainName(name)) {
+            return lookupPlain(name, syntax);
+        }
         return lookup(nameParser.parse(name));
     }
 
+    /**
+     * Like {@link #lookup(Name)}, but returns null instead of throwing {@link NameNotFoundException} if name or one of its intermediate subcontexts is not bound. Use it to probe for optional names. A name bound to null can only be told from an unbound name by {@link #lookup(Name)}.
+     *
+     * @throws NamingException A {@link Reference} bound to name could not be resolved.
+     */
+    @Nullable
+    public Object tryLookup(@NotNull Name name) throws NamingException {
+        if (name.isEmpty()) {
+            return lookup(name);
+        }
+        if (name.size() > 1) {
+            final Name objName = config.toCompoundName(name.getPrefix(1));
+            final Context subContext = objName.size() == 1 ? subContexts.get(keyOf(objName)) : null;
+            if (subContext instanceof MemoryContext) {
+                return ((MemoryContext) subContext).tryLookup(name.getSuffix(1));
+            }
+            if (subContext == null) {
+                return null;
+            }
+            try {
+                return subContext.lookup(name.getSuffix(1));
+            }
+            catch (NameNotFoundException e) {
+                return null;
+            }
+        }
+        name = config.toCompoundName(name);
+        if (name.size() != 1) {
+            return null;
+        }
+        final String key = keyOf(name);
+        final Object o = namesToObjects.get(key);
+        if (o instanceof Reference) {
+            return resolve(key, (Reference) o);
+        }
+        return o != null ? o : subContexts.get(key);
+    }
+
+    /**
+     * See {@link #tryLookup(Name)}.
+     */
+    @Nullable
+    public Object tryLookup(@NotNull String name) throws NamingException {
+        return tryLookup(nameParser.parse(name));
+    }
+
+    /**
+     * Walks the components of name by scanning it for the separator, without parsing it into a {@link Name} or cutting out the components: Allocates nothing if the maps support {@link RegionLookup}. References, misses and other kinds of contexts are left to {@link #lookup(Name)}.
+     *
+     * @param name A plain name, see {@link PlainSyntax#isPlainName(String)}.
+     */
+    private Object lookupPlain(@NotNull String name, @NotNull PlainSyntax syntax) throws NamingException {
+        final String separator = syntax.getSeparator();
+        MemoryContext context = this;
+        int from = 0;
+        int to;
+        while ((to = name.indexOf(separator, from)) >= 0) {
+            final Object subContext = getRegion(context.subContexts, name, from, to);
+            if (!(subContext instanceof MemoryContext) || ((MemoryContext) subContext).getPlainSyntax() != syntax) {
+                return context.lookup(context.nameParser.parse(name.substring(from)));
+            }
+            context = (MemoryContext) subContext;
+            from = to + separator.length();
+        }
+        Object o = getRegion(context.namesToObjects, name, from, name.length());
+        if (o == RegionLookup.ABSENT) {
+            o = getRegion(context.subContexts, name, from, name.length());
+        }
+        if (o == RegionLookup.ABSENT || o instanceof Reference) {
+            return context.lookup(context.nameParser.parse(name.substring(from)));
+        }
+        return o;
+    }
+
+    @Nullable
+    private PlainSyntax getPlainSyntax() {
+        final NamespaceConfig config = this.config;
+        return config != null ? config.getPlainSyntax() : null;
+    }
+
+    /**
+     * @return The value of the key name.substring(from, to) in map or {@link RegionLookup#ABSENT}.
+     */
+    private static Object getRegion(@NotNull Map<String, ?> map, @NotNull String name, int from, int to) {
+        if (map instanceof RegionLookup) {
+            return ((RegionLookup) map).getRegion(name, from, to);
+        }
+        final String key = name.substring(from, to);
+        final Object o = map.get(key);
+        return o != null || map.containsKey(key) ? o : RegionLookup.ABSENT;
+    }
+
+    /**
+     * @param name A single component name.
+     * @return The key of name in namesToObjects and subContexts.
+     */
+    @NotNull
+    private String keyOf(@NotNull Name name) {
+        return config.keyOf(name.get(0));
+    }
+
     /**
      * @see javax.naming.Context#bind(javax.naming.Name, java.lang.Object)
      */
@@ -215,8 +563,9 @@ public class MemoryContext implements Cloneable, Context  {
         }
         else if(name.size() > 1) {
             Name prefix = name.getPrefix(1);
-            if(subContexts.containsKey(prefix)) {
-                subContexts.get(prefix).bind(name.getSuffix(1), object);
+            final Context subContext = subContexts.get(keyOf(prefix));
+            if(subContext != null) {
+                subContext.bind(name.getSuffix(1), object);
             }
             else {
                 LOGGER.error("No such subcontext: {} in {}", prefix, this);
@@ -224,18 +573,285 @@ public class MemoryContext implements Cloneable, Context  {
             }
         }
         else {
-            /* Determine if the name is already bound */
-            if(namesToObjects.containsKey(name) ||
-                    subContexts.containsKey(name)) {
-                LOGGER.error("bind() {} already bound in {}", name, this);
-                throw new NameAlreadyBoundException("Name " + name.toString()
-                    + " already bound.  Use rebind() to override");
+            synchronized (writeLock) {
+                checkNotFrozen();
+                final String key = keyOf(name);
+                /* Determine if the name is already bound */
+                if(namesToObjects.containsKey(key) ||
+                        subContexts.containsKey(key)) {
+                    LOGGER.error("bind() {} already bound in {}", name, this);
+                    throw new NameAlreadyBoundException("Name " + name.toString()
+                        + " already bound.  Use rebind() to override");
+                }
+                nameBound(key, name.get(0));
+                putBinding(key, object);
             }
-            if (object instanceof Context) {
-                subContexts.put(name, (Context) object);
+        }
+    }
+
+    /**
+     * Caller must hold {@link #writeLock}.
+     */
+    private void putBinding(@NotNull String name, @Nullable Object object) {
+        if (object instanceof Context) {
+            subContexts.put(name, (Context) object);
+        }
+        else {
+            namesToObjects.put(name, object);
+        }
+        indexBound(name, object);
+        handleBound(name, object);
+        fireEvent(name, NamingEvent.OBJECT_ADDED, object, null);
+    }
+
+    /**
+     * Caller must hold {@link #writeLock}. Keeps the first component bound to key as it was bound, to list it.
+     */
+    private void nameBound(@NotNull String key, @NotNull String component) {
+        if (!key.equals(component)) {
+            if (boundNames == null) {
+                boundNames = new ConcurrentHashMap<String, String>();
             }
-            else {
-                namesToObjects.put(name, object);
+            boundNames.putIfAbsent(key, component);
+        }
+    }
+
+    /**
+     * Caller must hold {@link #writeLock}.
+     */
+    private void nameUnbound(@NotNull String key) {
+        if (boundNames != null) {
+            boundNames.remove(key);
+        }
+    }
+
+    /**
+     * @param name The key of a name bound in this context. The index requires a syntax in which it is the name component itself.
+     * @return null: Not indexed.
+     */
+    @Nullable
+    private String indexKeyOf(@NotNull String name) {
+        final NamespaceIndex index = this.index;
+        if (index == null) {
+            return null;
+        }
+        return index.isPlainComponent(name) ? index.childKey(indexKey, name) : null;
+    }
+
+    /**
+     * Caller must hold {@link #writeLock}.
+     */
+    private void indexBound(@NotNull String name, @Nullable Object object) {
+        final String key = indexKeyOf(name);
+        if (key != null) {
+            index.put(key, object);
+        }
+    }
+
+    /**
+     * Caller must hold {@link #writeLock}.
+     *
+     * @param removed The subcontext formerly bound to name or null.
+     */
+    private void indexUnbound(@NotNull String name, @Nullable Context removed) {
+        final NamespaceIndex index = this.index;
+        if (index != null) {
+            final String key = indexKeyOf(name);
+            if (key != null) {
+                index.remove(key);
+            }
+            if (removed instanceof MemoryContext) {
+                ((MemoryContext) removed).detachFromIndex(index);
+            }
+        }
+    }
+
+    /**
+     * Caller must hold {@link #writeLock}.
+     */
+    private void handleBound(@NotNull String name, @Nullable Object object) {
+        final LookupHandle handle = handles != null ? handles.get(name) : null;
+        if (handle != null) {
+            handle.bound(object);
+        }
+    }
+
+    /**
+     * Caller must hold {@link #writeLock}.
+     *
+     * @param removed The subcontext formerly bound to name or null.
+     */
+    private void handleUnbound(@NotNull String name, @Nullable Context removed) {
+        final LookupHandle handle = handles != null ? handles.get(name) : null;
+        if (handle != null) {
+            handle.unbound();
+        }
+        if (removed instanceof MemoryContext) {
+            ((MemoryContext) removed).detachHandles();
+        }
+    }
+
+    /**
+     * Unbinds the handles of the names in this context and all its subcontexts, which are no longer reachable by their names. Like {@link #detachFromIndex(NamespaceIndex)}.
+     */
+    private void detachHandles() {
+        synchronized (writeLock) {
+            if (handles != null) {
+                for (LookupHandle handle : handles.values()) {
+                    handle.unbound();
+                }
+                handles = null;
+            }
+            if (subContexts == null) { // closed
+                return;
+            }
+            for (Object binding : copyBindings().values()) {
+                if (binding instanceof MemoryContext) {
+                    ((MemoryContext) binding).detachHandles();
+                }
+            }
+        }
+    }
+
+    private boolean hasListeners() {
+        return events.hasListeners();
+    }
+
+    /**
+     * @return The object or subcontext bound to name or {@link RegionLookup#ABSENT}.
+     */
+    @Nullable
+    private Object getBinding(@NotNull String name) {
+        final Object o = getRegion(namesToObjects, name, 0, name.length());
+        return o != RegionLookup.ABSENT ? o : getRegion(subContexts, name, 0, name.length());
+    }
+
+    /**
+     * Caller must hold {@link #writeLock}. Costs a single volatile read if nobody listens.
+     *
+     * @param name The key of the changed name in this context.
+     */
+    private void fireEvent(@NotNull String name, int type, @Nullable Object newValue, @Nullable Object oldValue) {
+        if (!events.hasListeners()) {
+            return;
+        }
+        final String[] path = pathOf(name);
+        if (path != null) {
+            events.fire(path, type, newValue, oldValue);
+        }
+    }
+
+    /**
+     * @param name null: The path of this context.
+     * @return The keys of the components of the full name of name from the root of the namespace. null: This context is no longer part of the namespace.
+     */
+    @Nullable
+    private String[] pathOf(@Nullable String name) {
+        final int depth = nameInNamespace.size();
+        final String[] path = new String[name != null ? depth + 1 : depth];
+        MemoryContext context = events.getRoot();
+        for (int i = 0; i < depth; i++) {
+            path[i] = config.keyOf(nameInNamespace.get(i));
+            final Map<String, Context> subContexts = context.subContexts;
+            final Context subContext = subContexts != null ? subContexts.get(path[i]) : null;
+            if (!(subContext instanceof MemoryContext)) {
+                return null;
+            }
+            context = (MemoryContext) subContext;
+        }
+        // Compares the maps, because a clone shares them.
+        if (context.subContexts != subContexts) {
+            return null;
+        }
+        if (name != null) {
+            path[depth] = name;
+        }
+        return path;
+    }
+
+    /**
+     * @param from The length of the path of this context.
+     * @return The name of path relative to this context.
+     */
+    @NotNull
+    String composeName(@NotNull String[] path, int from) {
+        try {
+            final Name name = nameParser.parse("");
+            for (int i = from; i < path.length; i++) {
+                name.add(path[i]);
+            }
+            return name.toString();
+        }
+        catch (NamingException e) {
+            // Not thrown by a CompoundName.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Events are delivered asynchronously by a single thread in the order of the changes. bind() and createSubcontext() fire {@link NamingEvent#OBJECT_ADDED}, rebind() fires {@link NamingEvent#OBJECT_CHANGED} or OBJECT_ADDED, unbind() and destroySubcontext() fire {@link NamingEvent#OBJECT_REMOVED}. rename() fires OBJECT_REMOVED and OBJECT_ADDED. The creation of an object from a {@link Reference} on lookup is no change. Only changes in this context and subcontexts created by createSubcontext() of the namespace's root context or its subcontexts are reported.
+     *
+     * @see EventContext#addNamingListener(Name, int, NamingListener)
+     */
+    @Override
+    public void addNamingListener(@NotNull Name target, int scope, @NotNull NamingListener l) throws NamingException {
+        final String[] path = pathOf(null);
+        if (path == null) {
+            throw new OperationNotSupportedException("Context " + nameInNamespace + " is no longer part of its namespace.");
+        }
+        final Name targetName = config.toCompoundName(target);
+        final String[] targetPath = Arrays.copyOf(path, path.length + targetName.size());
+        for (int i = 0; i < targetName.size(); i++) {
+            targetPath[path.length + i] = config.keyOf(targetName.get(i));
+        }
+        events.add(this, path.length, targetPath, scope, l);
+    }
+
+    /**
+     * @see EventContext#addNamingListener(String, int, NamingListener)
+     */
+    @Override
+    public void addNamingListener(@NotNull String target, int scope, @NotNull NamingListener l) throws NamingException {
+        addNamingListener(nameParser.parse(target), scope, l);
+    }
+
+    /**
+     * @see EventContext#removeNamingListener(NamingListener)
+     */
+    @Override
+    public void removeNamingListener(@NotNull NamingListener l) throws NamingException {
+        events.remove(this, l);
+    }
+
+    /**
+     * @return false: Listeners may be registered for names not bound yet.
+     */
+    @Override
+    public boolean targetMustExist() {
+        return false;
+    }
+
+    /**
+     * Removes the names of this context and all its subcontexts from index. Thereafter this context and its subcontexts are no longer maintained in index.
+     */
+    private void detachFromIndex(@NotNull NamespaceIndex index) {
+        synchronized (writeLock) {
+            if (this.index != index) {
+                return;
+            }
+            this.index = null;
+            if (namesToObjects == null) { // closed
+                return;
+            }
+            final Map<String, Object> bindings = copyBindings();
+            for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+                final String component = binding.getKey();
+                if (index.isPlainComponent(component)) {
+                    index.remove(index.childKey(indexKey, component));
+                }
+                if (binding.getValue() instanceof MemoryContext) {
+                    ((MemoryContext) binding.getValue()).detachFromIndex(index);
+                }
             }
         }
     }
@@ -256,13 +872,48 @@ public class MemoryContext implements Cloneable, Context  {
         if(name.isEmpty()) {
             throw new InvalidNameException("Cannot bind to empty name");
         }
-        /* Look up the target context first. */
-        Object targetContext = lookup(name.getPrefix(name.size() - 1));
-        if(targetContext == null || !(targetContext instanceof Context)) {
-            throw new NamingException("Cannot bind object.  Target context does not exist.");
+        else if(name.size() == 1) {
+            synchronized (writeLock) {
+                checkNotFrozen();
+                final String key = keyOf(name);
+                final Object old = hasListeners() ? getBinding(key) : RegionLookup.ABSENT;
+                if (!key.equals(name.get(0)) && !namesToObjects.containsKey(key) && !subContexts.containsKey(key)) {
+                    nameBound(key, name.get(0));
+                }
+                // Put before remove, so readers never see the name unbound.
+                Context removed;
+                if (object instanceof Context) {
+                    removed = subContexts.put(key, (Context) object);
+                    namesToObjects.remove(key);
+                }
+                else {
+                    namesToObjects.put(key, object);
+                    removed = subContexts.remove(key);
+                }
+                if (removed != object) {
+                    indexUnbound(key, removed);
+                    if (removed instanceof MemoryContext) {
+                        ((MemoryContext) removed).detachHandles();
+                    }
+                }
+                indexBound(key, object);
+                handleBound(key, object);
+                if (old != RegionLookup.ABSENT) {
+                    fireEvent(key, NamingEvent.OBJECT_CHANGED, object, old);
+                }
+                else {
+                    fireEvent(key, NamingEvent.OBJECT_ADDED, object, null);
+                }
+            }
+        }
+        else {
+            /* Look up the target context first. */
+            Object targetContext = lookup(name.getPrefix(name.size() - 1));
+            if(targetContext == null || !(targetContext instanceof Context)) {
+                throw new NamingException("Cannot bind object.  Target context does not exist.");
+            }
+            ((Context) targetContext).rebind(name.getSuffix(name.size() - 1), object);
         }
-        unbind(name);
-        bind(name, object);
     }
 
     /**
@@ -282,8 +933,19 @@ public class MemoryContext implements Cloneable, Context  {
             throw new InvalidNameException("Cannot unbind to empty name");
         }
         else if(name.size() == 1) {
-            namesToObjects.remove(name);
-            subContexts.remove(name);
+            synchronized (writeLock) {
+                checkNotFrozen();
+                final String key = keyOf(name);
+                final Object old = hasListeners() ? getBinding(key) : RegionLookup.ABSENT;
+                namesToObjects.remove(key);
+                final Context removed = subContexts.remove(key);
+                nameUnbound(key);
+                indexUnbound(key, removed);
+                handleUnbound(key, removed);
+                if (old != RegionLookup.ABSENT) {
+                    fireEvent(key, NamingEvent.OBJECT_REMOVED, null, old);
+                }
+            }
         }
         else {
             Object targetContext = lookup(name.getPrefix(name.size() - 1));
@@ -312,6 +974,7 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public void rename(@NotNull Name oldName, @NotNull Name newName) throws NamingException {
+        checkNotFrozen();
         /* Confirm that this works.  We might have to catch the exception */
         Object old = lookup(oldName);
         if(newName.isEmpty()) {
@@ -359,20 +1022,18 @@ public class MemoryContext implements Cloneable, Context  {
              * create a new mapping and add the two maps to it.  This also 
              * adds the safety of cloning the two maps so the original is
              * unharmed. */
-            Map enumStore = new HashMap();
-            enumStore.putAll(namesToObjects);
-            enumStore.putAll(subContexts);
-            NamingEnumeration enumerator = new ContextNames(enumStore);
+            NamingEnumeration enumerator = new ContextNames(listing());
             return enumerator;
         }
         /* Look for a subcontext */
-        Name subName = name.getPrefix(1);
+        String subName = keyOf(name.getPrefix(1));
         if(namesToObjects.containsKey(subName)) {
             /* Nope, actual object */
             throw new NotContextException(name + " cannot be listed");
         }
-        if(subContexts.containsKey(subName)) {
-            return subContexts.get(subName).list(name.getSuffix(1));
+        final Context subContext = subContexts.get(subName);
+        if(subContext != null) {
+            return subContext.list(name.getSuffix(1));
         }
         /* Couldn't find the subcontext and it wasn't pointing at us, throw
          * an exception. */
@@ -399,15 +1060,13 @@ public class MemoryContext implements Cloneable, Context  {
              * create a new mapping and add the two maps to it.  This also 
              * adds the safety of cloning the two maps so the original is
              * unharmed. */
-            Map enumStore = new HashMap();
-            enumStore.putAll(namesToObjects);
-            enumStore.putAll(subContexts);
-            return new ContextBindings(enumStore);
+            return new ContextBindings(listing());
         }
         /* Look for a subcontext */
-        Name subName = name.getPrefix(1);
-        if(subContexts.containsKey(subName)) {
-            return subContexts.get(subName).listBindings(name.getSuffix(1));
+        String subName = keyOf(name.getPrefix(1));
+        final Context subContext = subContexts.get(subName);
+        if(subContext != null) {
+            return subContext.listBindings(name.getSuffix(1));
         }
         else {
         /* Couldn't find the subcontext and it wasn't pointing at us, throw an exception. */
@@ -415,6 +1074,53 @@ public class MemoryContext implements Cloneable, Context  {
         }
     }
 
+    /**
+     * Iterating a synchronized map needs its lock. The concurrent and frozen maps are iterated without locking.
+     */
+    @NotNull
+    private Map<String, Object> copyBindings() {
+        Map<String, Object> enumStore = new HashMap<String, Object>();
+        if (concurrent || frozen) {
+            enumStore.putAll(namesToObjects);
+            enumStore.putAll(subContexts);
+        }
+        else {
+            synchronized (namesToObjects) {
+                enumStore.putAll(namesToObjects);
+            }
+            synchronized (subContexts) {
+                enumStore.putAll(subContexts);
+            }
+        }
+        return enumStore;
+    }
+
+    /**
+     * @return The bindings of this context keyed by objects whose toString() is the name listed: The component as bound if it needs no escaping, else a single component name.
+     */
+    @NotNull
+    private Map<Object, Object> listing() throws NamingException {
+        final Map<String, Object> bindings = copyBindings();
+        final Map<Object, Object> listing = new HashMap<Object, Object>();
+        final PlainSyntax syntax = getPlainSyntax();
+        final Map<String, String> boundNames = this.boundNames;
+        for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+            String component = boundNames != null ? boundNames.get(binding.getKey()) : null;
+            if (component == null) {
+                component = binding.getKey();
+            }
+            if (syntax != null && syntax.isPlainComponent(component)) {
+                listing.put(component, binding.getValue());
+            }
+            else {
+                final Name name = nameParser.parse("");
+                name.add(component);
+                listing.put(name, binding.getValue());
+            }
+        }
+        return listing;
+    }
+
     /**
      * @see javax.naming.Context#listBindings(java.lang.String)
      */
@@ -429,30 +1135,63 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public void destroySubcontext(Name name) throws NamingException {
+        checkNotFrozen();
         if(name.size() > 1) {
-            if(subContexts.containsKey(name.getPrefix(1))) {
-                Context subContext = subContexts.get(name.getPrefix(1));
+            if(subContexts.containsKey(keyOf(name.getPrefix(1)))) {
+                Context subContext = subContexts.get(keyOf(name.getPrefix(1)));
                 destroySubcontexts(subContext);
                 return;
             } 
             /* IMPROVE: Better message might be necessary */
             throw new NameNotFoundException();
         }
+        final String key = keyOf(name);
         /* Look at the contextStore to see if the name is bound there */
-        if(namesToObjects.containsKey(name)) {
+        if(namesToObjects.containsKey(key)) {
             throw new NotContextException();
         }
         /* Look for the subcontext */
-        if(!subContexts.containsKey(name)) {
+        Context subContext = subContexts.get(key);
+        if(subContext == null) {
             throw new NameNotFoundException();
         }
-        Context subContext = subContexts.get(name);
         destroySubcontexts(subContext);
         subContext.close();
-        subContexts.remove(name);
+        synchronized (writeLock) {
+            // Do not remove a context bound meanwhile by rebind().
+            if (subContexts.get(key) == subContext) {
+                subContexts.remove(key);
+                nameUnbound(key);
+                indexUnbound(key, subContext);
+                handleUnbound(key, subContext);
+                fireEvent(key, NamingEvent.OBJECT_REMOVED, null, subContext);
+            }
+        }
+    }
+
+    /**
+     * A frozen namespace can not be destroyed by unbinding its names, so its subcontexts are closed only.
+     */
+    private void closeFrozenSubcontexts() throws NamingException {
+        final Map<String, Context> subContexts = this.subContexts;
+        if (subContexts == null) { // closed
+            return;
+        }
+        for (Context subContext : subContexts.values()) {
+            if (subContext instanceof MemoryContext) {
+                ((MemoryContext) subContext).forceClose();
+            }
+            else if (subContext != null) {
+                subContext.close();
+            }
+        }
     }
 
     private void destroySubcontexts(Context context) throws NamingException {
+        if (context instanceof LazyContext && !((LazyContext) context).isLoaded()) {
+            // Nothing to destroy, and not to be loaded for it.
+            return;
+        }
         NamingEnumeration<Binding> bindings = context.listBindings("");
         while (bindings.hasMore()) {
             final Binding binding = bindings.next();
@@ -487,11 +1226,12 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public Context createSubcontext(Name name) throws NamingException {
+        checkNotFrozen();
         Context newContext;
 
         if(name.size() > 1) {
-            if(subContexts.containsKey(name.getPrefix(1))) {
-                Context subContext = subContexts.get(name.getPrefix(1));
+            Context subContext = subContexts.get(keyOf(name.getPrefix(1)));
+            if(subContext != null) {
                 newContext = subContext.createSubcontext(name.getSuffix(1));
                 return newContext;
             }
@@ -499,17 +1239,85 @@ public class MemoryContext implements Cloneable, Context  {
                 throw new NameNotFoundException("The subcontext " + name.getPrefix(1) + " was not found (" + name + ").");
             }
         }
-        try {
-            lookup(name);
+        MemoryContext memoryContext = newSubcontext(name);
+        bind(name, memoryContext);
+        return memoryContext;
+    }
+
+    /**
+     * Like {@link #createSubcontext(Name)}, but returns the subcontext already bound to name instead of throwing {@link NameAlreadyBoundException}. Missing intermediate subcontexts are created too. Does not throw to report that a name is not bound yet, so it is cheap for loading many names into the same subcontexts.
+     *
+     * @throws NotContextException A component of name is bound to an object other than a context.
+     */
+    @NotNull
+    public Context getOrCreateSubcontext(@NotNull Name name) throws NamingException {
+        if (name.isEmpty()) {
+            throw new InvalidNameException("Cannot bind to an empty name.");
+        }
+        final Name prefix = name.getPrefix(1);
+        final String key = keyOf(prefix);
+        Context subContext;
+        synchronized (writeLock) {
+            subContext = subContexts.get(key);
+            if (subContext == null) {
+                if (namesToObjects.containsKey(key)) {
+                    throw new NotContextException(prefix + " already occupied by " + namesToObjects.get(key));
+                }
+                checkNotFrozen();
+                subContext = newSubcontext(prefix);
+                nameBound(key, prefix.get(0));
+                putBinding(key, subContext);
+            }
+        }
+        if (name.size() == 1) {
+            return subContext;
+        }
+        if (subContext instanceof MemoryContext) {
+            return ((MemoryContext) subContext).getOrCreateSubcontext(name.getSuffix(1));
         }
-        catch (NameNotFoundException ignore) { }
+        Context currentCtx = subContext;
+        for (int i = 1; i < name.size(); i++) {
+            final Name component = name.getSuffix(i).getPrefix(1);
+            Object obj;
+            try {
+                obj = currentCtx.lookup(component);
+            }
+            catch (NameNotFoundException e) {
+                obj = currentCtx.createSubcontext(component);
+            }
+            if (!(obj instanceof Context)) {
+                throw new NotContextException(component + " already occupied by " + obj);
+            }
+            currentCtx = (Context) obj;
+        }
+        return currentCtx;
+    }
 
+    /**
+     * See {@link #getOrCreateSubcontext(Name)}.
+     */
+    @NotNull
+    public Context getOrCreateSubcontext(@NotNull String name) throws NamingException {
+        return getOrCreateSubcontext(nameParser.parse(name));
+    }
+
+    /**
+     * @param name A single component name.
+     * @return A new subcontext of the namespace, not bound yet.
+     */
+    @NotNull
+    private MemoryContext newSubcontext(@NotNull Name name) throws NamingException {
         Name contextName = getNameParser((Name)null).parse(getNameInNamespace());
         contextName.addAll(name);
-        newContext = new MemoryContext(this.env);
-        ((MemoryContext)newContext).setNameInNamespace(contextName);
-        bind(name, newContext);
-        return newContext;
+        MemoryContext memoryContext = new MemoryContext(config, null, false);
+        memoryContext.setNameInNamespace(contextName);
+        final String key = indexKeyOf(keyOf(name));
+        if (key != null) {
+            memoryContext.index = index;
+            memoryContext.indexKey = key;
+        }
+        memoryContext.events = events;
+        return memoryContext;
     }
 
     /**
@@ -547,7 +1355,7 @@ public class MemoryContext implements Cloneable, Context  {
            (name.size() == 1 && name.toString().equals(getNameInNamespace()))) {
             return nameParser;
         }
-        Name subName = name.getPrefix(1); 
+        String subName = keyOf(name.getPrefix(1));
         if(subContexts.containsKey(subName)) {
             return subContexts.get(subName).getNameParser(name.getSuffix(1));
         }
@@ -591,10 +1399,15 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public Object addToEnvironment(String name, Object object) {
-        if(this.env == null) {
+        if(this.config == null) {
             return null;
         }
-        return this.env.put(name, object);
+        final Object previous = config.getEnvironment().get(name);
+        config = config.with(name, object);
+        if (FROZEN.equals(name) && BooleanUtils.toBoolean(String.valueOf(object))) {
+            freeze();
+        }
+        return previous;
     }
 
     /**
@@ -602,10 +1415,14 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public Object removeFromEnvironment(String name) {
-        if(this.env == null) {
+        if(this.config == null) {
             return null;
         }
-        return this.env.remove(name);
+        final Object previous = config.getEnvironment().get(name);
+        if (previous != null) {
+            config = config.without(name);
+        }
+        return previous;
     }
 
     /**
@@ -613,10 +1430,10 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public Hashtable getEnvironment() {
-        if(this.env == null) {
+        if(this.config == null) {
             return new Hashtable();
         }
-        return (Hashtable)this.env.clone();
+        return (Hashtable)this.config.getEnvironment().clone();
     }
 
     /**
@@ -624,8 +1441,8 @@ public class MemoryContext implements Cloneable, Context  {
      */
     @Override
     public void close() throws NamingException {
-        String ignoreClose = (String) env.get(IGNORE_CLOSE);
-        if (!BooleanUtils.toBoolean(ignoreClose)) {
+        final NamespaceConfig config = this.config;
+        if (config != null && !config.isIgnoreClose()) {
             forceClose();
         }
     }
@@ -653,6 +1470,132 @@ public class MemoryContext implements Cloneable, Context  {
         return (namesToObjects.size() > 0 || subContexts.size() > 0);
     }
 
+    /**
+     * Makes this context and all its subcontexts read-only: The bindings are compiled into immutable hash tables read without locking, and if the name syntax allows, {@link #lookup(String)} of a plain name is answered from a table of all full names without parsing the name or allocating. Thereafter bind(), rebind(), unbind(), rename(), createSubcontext() and destroySubcontext() throw {@link OperationNotSupportedException}. A {@link Reference} is still replaced by the object created from it on first lookup. See {@link #FROZEN}.
+     */
+    public void freeze() {
+        final PlainSyntax syntax = index != null ? index.getSyntax() : getPlainSyntax();
+        // A subcontext of an indexed namespace keeps the namespace's index.
+        final boolean reindex = syntax != null && (index == null || indexKey.isEmpty());
+        final Map<String, Object> fullNames = new HashMap<String, Object>();
+        final Map<MemoryContext, String> contextKeys = new IdentityHashMap<MemoryContext, String>();
+        freezeBindings(reindex ? syntax : null, "", fullNames, contextKeys);
+        if (reindex) {
+            final NamespaceIndex frozenIndex = NamespaceIndex.frozen(syntax, fullNames);
+            for (Map.Entry<MemoryContext, String> contextKey : contextKeys.entrySet()) {
+                if (contextKey.getValue() != null) {
+                    contextKey.getKey().indexKey = contextKey.getValue();
+                    contextKey.getKey().index = frozenIndex;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param syntax null: Do not collect fullNames.
+     * @param key The key of this context in fullNames. null: Not indexed.
+     */
+    private void freezeBindings(@Nullable PlainSyntax syntax, @Nullable String key, @NotNull Map<String, Object> fullNames, @NotNull Map<MemoryContext, String> contextKeys) {
+        final Map<String, Object> objects;
+        final Map<String, Context> contexts;
+        synchronized (writeLock) {
+            if (frozen || namesToObjects == null) { // Already frozen or closed
+                return;
+            }
+            objects = new FrozenMap<String, Object>(copy(namesToObjects));
+            contexts = new FrozenMap<String, Context>(copy(subContexts));
+            namesToObjects = objects;
+            subContexts = contexts;
+            frozen = true;
+        }
+        contextKeys.put(this, key);
+        if (syntax != null && key != null) {
+            collectFullNames(syntax, key, objects, fullNames);
+            collectFullNames(syntax, key, contexts, fullNames);
+        }
+        for (Map.Entry<String, Context> binding : contexts.entrySet()) {
+            if (binding.getValue() instanceof MemoryContext) {
+                final String component = binding.getKey();
+                final String childKey = syntax != null && key != null && syntax.isPlainComponent(component)
+                        ? syntax.childKey(key, component)
+                        : null;
+                ((MemoryContext) binding.getValue()).freezeBindings(syntax, childKey, fullNames, contextKeys);
+            }
+        }
+    }
+
+    private static void collectFullNames(@NotNull PlainSyntax syntax, @NotNull String key, @NotNull Map<String, ?> bindings, @NotNull Map<String, Object> fullNames) {
+        for (Map.Entry<String, ?> binding : bindings.entrySet()) {
+            final String component = binding.getKey();
+            if (syntax.isPlainComponent(component)) {
+                fullNames.put(syntax.childKey(key, component), binding.getValue());
+            }
+        }
+    }
+
+    @NotNull
+    private <V> Map<String, V> copy(@NotNull Map<String, V> map) {
+        if (concurrent) {
+            return new HashMap<String, V>(map);
+        }
+        synchronized (map) {
+            return new HashMap<String, V>(map);
+        }
+    }
+
+    /**
+     * Creates a new namespace with the names and objects of this frozen context and its subcontexts. The fork is not frozen. The bindings of each context are shared with this namespace until the first write to that context of the fork, so forking costs time and memory per context, not per binding. Bound objects are shared, not copied, and so are subcontexts other than MemoryContexts.
+     *
+     * @throws IllegalStateException Not frozen, see {@link #freeze()}.
+     */
+    @NotNull
+    public MemoryContext fork() throws NamingException {
+        if (!frozen) {
+            throw new IllegalStateException("Context " + nameInNamespace + " is not frozen.");
+        }
+        final MemoryContext fork = new MemoryContext(config, nameParser, true);
+        fork.forkBindings(this);
+        return fork;
+    }
+
+    private void forkBindings(@NotNull MemoryContext template) throws NamingException {
+        synchronized (writeLock) {
+            if (template.boundNames != null) {
+                boundNames = new ConcurrentHashMap<String, String>(template.boundNames);
+            }
+            namesToObjects = new CopyOnWriteMap<String, Object>(template.namesToObjects, concurrent);
+            for (Map.Entry<String, Object> binding : template.namesToObjects.entrySet()) {
+                indexBound(binding.getKey(), binding.getValue());
+            }
+            for (Map.Entry<String, Context> binding : template.subContexts.entrySet()) {
+                Context subContext = binding.getValue();
+                if (subContext instanceof MemoryContext && ((MemoryContext) subContext).events == template.events) {
+                    final String component = boundNames != null ? boundNames.get(binding.getKey()) : null;
+                    final Name name = nameParser.parse("");
+                    name.add(component != null ? component : binding.getKey());
+                    final MemoryContext child = newSubcontext(name);
+                    child.forkBindings((MemoryContext) subContext);
+                    subContext = child;
+                }
+                subContexts.put(binding.getKey(), subContext);
+                indexBound(binding.getKey(), subContext);
+            }
+        }
+    }
+
+    /**
+     * @return true: {@link #freeze()} was called on this context or one of its parents.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() throws OperationNotSupportedException {
+        if (frozen) {
+            throw new OperationNotSupportedException("Context " + nameInNamespace + " is frozen.");
+        }
+    }
+
     /**
      * Set the name of the Context.  This is only used from createSubcontext. 
      * It might get replaced by adding more constructors, but there is really
@@ -661,7 +1604,7 @@ public class MemoryContext implements Cloneable, Context  {
      * @param name the Name of the context.
      * @throws NamingException if the subContext already has a name.
      */
-    private void setNameInNamespace(Name name) throws NamingException {
+    void setNameInNamespace(Name name) throws NamingException {
         if(nameLock) {
             if(nameInNamespace != null || !nameInNamespace.isEmpty()) {
                 LOGGER.error("Name already set: name={} nameInNamespace={} this={}", name, nameInNamespace, this);
@@ -673,8 +1616,25 @@ public class MemoryContext implements Cloneable, Context  {
     }
 
     public void forceClose() throws NamingException {
-        destroySubcontexts(this);
-        env = null;
+        if (frozen) {
+            closeFrozenSubcontexts();
+        }
+        else {
+            destroySubcontexts(this);
+        }
+        synchronized (writeLock) {
+            if (handles != null) {
+                for (LookupHandle handle : handles.values()) {
+                    handle.unbound();
+                }
+                handles = null;
+            }
+        }
+        if (events.getRoot() == this) {
+            events.close();
+        }
+        index = null;
+        config = null;
         namesToObjects = null;
         subContexts = null;
     }
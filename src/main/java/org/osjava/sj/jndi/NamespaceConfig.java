@@ -0,0 +1,143 @@
+package org.osjava.sj.jndi;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osjava.sj.loader.JndiLoader;
+
+import javax.naming.CompositeName;
+import javax.naming.CompoundName;
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import java.util.Hashtable;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * The environment, name syntax and name parser of a {@link MemoryContext}, shared by all its subcontexts instead of copied into each of them. Immutable: {@link MemoryContext#addToEnvironment(String, Object)} and {@link MemoryContext#removeFromEnvironment(String)} replace the config of that single context by a modified copy.
+ * <p>
+ * The name syntax is fixed when the root context is created. Later changes of the environment do not change how names are parsed, as before.
+ */
+final class NamespaceConfig {
+
+    private final Hashtable env;
+    /* The environment as Properties, used as CompoundName syntax. null: The context was created without environment. */
+    private final Properties syntax;
+    /* syntax with org.osjava.sj.delimiter as separator to convert CompositeNames. null: No delimiter configured. */
+    private final Properties delimiterSyntax;
+    private final SimpleNameParser nameParser;
+    /* null: Names must always be parsed. */
+    private final PlainSyntax plainSyntax;
+    private final boolean ignoreCase;
+    private final boolean trimBlanks;
+    private final boolean concurrent;
+    private final boolean ignoreClose;
+
+    private NamespaceConfig(@NotNull Hashtable env, @Nullable Properties syntax, @Nullable Properties delimiterSyntax, @NotNull SimpleNameParser nameParser, @Nullable PlainSyntax plainSyntax) {
+        this.env = env;
+        this.syntax = syntax;
+        this.delimiterSyntax = delimiterSyntax;
+        this.nameParser = nameParser;
+        this.plainSyntax = plainSyntax;
+        ignoreCase = syntax != null && BooleanUtils.toBoolean(syntax.getProperty("jndi.syntax.ignorecase"));
+        trimBlanks = syntax != null && BooleanUtils.toBoolean(syntax.getProperty("jndi.syntax.trimblanks"));
+        concurrent = BooleanUtils.toBoolean(String.valueOf(env.get(MemoryContext.CONCURRENT)));
+        ignoreClose = BooleanUtils.toBoolean(String.valueOf(env.get(MemoryContext.IGNORE_CLOSE)));
+    }
+
+    /**
+     * @param env Copied.
+     */
+    @NotNull
+    static NamespaceConfig create(@Nullable Hashtable env) {
+        if (env == null) {
+            return new NamespaceConfig(new Hashtable(), null, null, new SimpleNameParser(new Properties()), null);
+        }
+        final Hashtable copy = (Hashtable) env.clone();
+        final Properties syntax = new Properties();
+        syntax.putAll(copy);
+        Properties delimiterSyntax = null;
+        final String delimiter = syntax.getProperty(JndiLoader.DELIMITER);
+        final String direction = syntax.getProperty("jndi.syntax.direction");
+        if (delimiter != null && direction != null) {
+            delimiterSyntax = new Properties(syntax);
+            delimiterSyntax.setProperty("jndi.syntax.separator", delimiter);
+            delimiterSyntax.setProperty("jndi.syntax.direction", direction);
+        }
+        return new NamespaceConfig(copy, syntax, delimiterSyntax, new SimpleNameParser(syntax), PlainSyntax.create(copy));
+    }
+
+    /**
+     * @return A copy with name set to value in its environment.
+     */
+    @NotNull
+    NamespaceConfig with(@NotNull String name, @Nullable Object value) {
+        final Hashtable copy = (Hashtable) env.clone();
+        copy.put(name, value);
+        return new NamespaceConfig(copy, syntax, delimiterSyntax, nameParser, plainSyntax);
+    }
+
+    /**
+     * @return A copy without name in its environment.
+     */
+    @NotNull
+    NamespaceConfig without(@NotNull String name) {
+        final Hashtable copy = (Hashtable) env.clone();
+        copy.remove(name);
+        return new NamespaceConfig(copy, syntax, delimiterSyntax, nameParser, plainSyntax);
+    }
+
+    /**
+     * Not to be modified.
+     */
+    @NotNull
+    Hashtable getEnvironment() {
+        return env;
+    }
+
+    @NotNull
+    SimpleNameParser getNameParser() {
+        return nameParser;
+    }
+
+    /**
+     * @return null: The name syntax does not allow to split names without parsing them.
+     */
+    @Nullable
+    PlainSyntax getPlainSyntax() {
+        return plainSyntax;
+    }
+
+    /**
+     * @param component A name component.
+     * @return The key of component in the bindings of a context: Names equal by the name syntax have the same key.
+     */
+    @NotNull
+    String keyOf(@NotNull String component) {
+        if (trimBlanks) {
+            component = component.trim();
+        }
+        return ignoreCase ? component.toLowerCase(Locale.ENGLISH) : component;
+    }
+
+    boolean isConcurrent() {
+        return concurrent;
+    }
+
+    boolean isIgnoreClose() {
+        return ignoreClose;
+    }
+
+    /**
+     * Same as {@link JndiUtils#toCompoundName(Name, Properties)} without copying the syntax on every call.
+     */
+    @NotNull
+    Name toCompoundName(@NotNull Name name) throws InvalidNameException {
+        if (name instanceof CompositeName) {
+            return delimiterSyntax != null
+                    ? new CompoundName(name.toString(), delimiterSyntax)
+                    : JndiUtils.toCompoundName(name, syntax);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,190 @@
+package org.osjava.sj.jndi;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Binding;
+import javax.naming.event.EventContext;
+import javax.naming.event.NamespaceChangeListener;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingListener;
+import javax.naming.event.ObjectChangeListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The {@link NamingListener}s registered in a namespace of {@link MemoryContext}s, shared by the root context and all subcontexts created by it. Events are delivered in the order of the changes by a single daemon thread, which is started with the first registration and stopped when the last one is removed.
+ * <p>
+ * Names are identified by their paths: The keys of their components from the root context on.
+ */
+final class NamespaceEvents {
+
+    private static final Registration[] NONE = new Registration[0];
+    private static Logger LOGGER = LoggerFactory.getLogger(NamespaceEvents.class);
+
+    private final MemoryContext root;
+    /* Replaced on every change, so the bind path can check for listeners by a single volatile read. */
+    private volatile Registration[] registrations = NONE;
+    /* Guarded by this. null: No listeners. */
+    private ExecutorService dispatcher;
+
+    private static final class Registration {
+        private final MemoryContext source;
+        /* The length of the path of source. */
+        private final int sourceDepth;
+        private final String[] target;
+        private final int scope;
+        private final NamingListener listener;
+
+        private Registration(MemoryContext source, int sourceDepth, String[] target, int scope, NamingListener listener) {
+            this.source = source;
+            this.sourceDepth = sourceDepth;
+            this.target = target;
+            this.scope = scope;
+            this.listener = listener;
+        }
+
+        private boolean matches(@NotNull String[] path) {
+            final int depth = path.length - target.length;
+            switch (scope) {
+                case EventContext.OBJECT_SCOPE:
+                    if (depth != 0) {
+                        return false;
+                    }
+                    break;
+                case EventContext.ONELEVEL_SCOPE:
+                    if (depth != 1) {
+                        return false;
+                    }
+                    break;
+                default:
+                    if (depth < 0) {
+                        return false;
+                    }
+            }
+            for (int i = 0; i < target.length; i++) {
+                if (!target[i].equals(path[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean accepts(int type) {
+            return type == NamingEvent.OBJECT_CHANGED
+                    ? listener instanceof ObjectChangeListener
+                    : listener instanceof NamespaceChangeListener;
+        }
+    }
+
+    NamespaceEvents(@NotNull MemoryContext root) {
+        this.root = root;
+    }
+
+    @NotNull
+    MemoryContext getRoot() {
+        return root;
+    }
+
+    boolean hasListeners() {
+        return registrations.length != 0;
+    }
+
+    /**
+     * @param source The context the listener is registered with.
+     * @param sourceDepth The length of the path of source.
+     * @param target The path of the target name.
+     * @param scope One of the scopes defined by {@link EventContext}.
+     */
+    synchronized void add(@NotNull MemoryContext source, int sourceDepth, @NotNull String[] target, int scope, @NotNull NamingListener listener) {
+        final Registration[] registrations = Arrays.copyOf(this.registrations, this.registrations.length + 1);
+        registrations[registrations.length - 1] = new Registration(source, sourceDepth, target, scope, listener);
+        if (dispatcher == null) {
+            dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NotNull Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Simple-JNDI event dispatcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        this.registrations = registrations;
+    }
+
+    /**
+     * Removes all registrations of listener with source.
+     */
+    synchronized void remove(@NotNull MemoryContext source, @NotNull NamingListener listener) {
+        final List<Registration> remaining = new ArrayList<Registration>();
+        for (Registration registration : registrations) {
+            if (registration.source != source || registration.listener != listener) {
+                remaining.add(registration);
+            }
+        }
+        registrations = remaining.toArray(NONE);
+        if (registrations.length == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Removes all registrations. Events already fired are still delivered.
+     */
+    synchronized void close() {
+        registrations = NONE;
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+            dispatcher = null;
+        }
+    }
+
+    /**
+     * Queues an event for every listener interested in path. Callers must hold the write lock of the changed context, so that events are queued in the order of the changes.
+     *
+     * @param path The path of the changed name.
+     * @param type {@link NamingEvent#OBJECT_ADDED}, {@link NamingEvent#OBJECT_REMOVED} or {@link NamingEvent#OBJECT_CHANGED}.
+     * @param newValue Ignored with OBJECT_REMOVED.
+     * @param oldValue Ignored with OBJECT_ADDED.
+     */
+    void fire(@NotNull String[] path, int type, @Nullable Object newValue, @Nullable Object oldValue) {
+        final List<NamingEvent> events = new ArrayList<NamingEvent>();
+        final List<NamingListener> listeners = new ArrayList<NamingListener>();
+        for (Registration registration : registrations) {
+            if (registration.accepts(type) && registration.matches(path)) {
+                final String name = registration.source.composeName(path, registration.sourceDepth);
+                final Binding newBinding = type != NamingEvent.OBJECT_REMOVED ? new Binding(name, newValue) : null;
+                final Binding oldBinding = type != NamingEvent.OBJECT_ADDED ? new Binding(name, oldValue) : null;
+                events.add(new NamingEvent(registration.source, type, newBinding, oldBinding, null));
+                listeners.add(registration.listener);
+            }
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (dispatcher == null) { // Closed meanwhile.
+                return;
+            }
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < events.size(); i++) {
+                        try {
+                            events.get(i).dispatch(listeners.get(i));
+                        }
+                        catch (RuntimeException e) {
+                            LOGGER.error("Listener {} failed on {}", listeners.get(i), events.get(i), e);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
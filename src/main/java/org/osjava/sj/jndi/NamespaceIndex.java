@@ -0,0 +1,87 @@
+package org.osjava.sj.jndi;
+
+import java.util.Map;
+
+/**
+ * Maps the full name of every object and subcontext in a namespace to the bound object, so a lookup of a deeply nested name costs a single hash probe. Maintained by all {@link MemoryContext}s of the namespace on every bind(), rebind(), unbind(), createSubcontext() and destroySubcontext(). See {@link MemoryContext#INDEX}.
+ * <p>
+ * Keys are the name's components joined by jndi.syntax.separator. Names containing escape or quote characters are not indexed. Lookups of such names are resolved component by component as usual.
+ * <p>
+ * A frozen namespace (see {@link MemoryContext#freeze()}) is indexed by a {@link FrozenMap}, probed without building the key.
+ */
+class NamespaceIndex {
+
+    private final Map<String, Object> bindings;
+    /* null: Not frozen. Same as bindings otherwise. */
+    private final FrozenMap<String, Object> frozenBindings;
+    private final PlainSyntax syntax;
+
+    NamespaceIndex(PlainSyntax syntax) {
+        this(syntax, null);
+    }
+
+    private NamespaceIndex(PlainSyntax syntax, FrozenMap<String, Object> frozenBindings) {
+        this.syntax = syntax;
+        this.frozenBindings = frozenBindings;
+        bindings = frozenBindings != null ? frozenBindings : new NullableConcurrentHashMap<String, Object>();
+    }
+
+    /**
+     * @param bindings Full names in syntax.
+     * @return An index with fixed keys. Only the values of existing keys can be changed by {@link #put(String, Object)}.
+     */
+    static NamespaceIndex frozen(PlainSyntax syntax, Map<String, Object> bindings) {
+        return new NamespaceIndex(syntax, new FrozenMap<String, Object>(bindings));
+    }
+
+    PlainSyntax getSyntax() {
+        return syntax;
+    }
+
+    boolean isPlainName(String name) {
+        return syntax.isPlainName(name);
+    }
+
+    boolean isPlainComponent(String component) {
+        return syntax.isPlainComponent(component);
+    }
+
+    String childKey(String contextKey, String name) {
+        return syntax.childKey(contextKey, name);
+    }
+
+    /**
+     * @param name A plain name relative to the context with contextKey.
+     */
+    Object get(String contextKey, String name) {
+        if (frozenBindings != null) {
+            final int i = frozenBindings.indexOf(contextKey, syntax.getSeparator(), name);
+            return i < 0 ? null : frozenBindings.valueAt(i);
+        }
+        return bindings.get(childKey(contextKey, name));
+    }
+
+    boolean containsKey(String contextKey, String name) {
+        if (frozenBindings != null) {
+            return frozenBindings.indexOf(contextKey, syntax.getSeparator(), name) >= 0;
+        }
+        return bindings.containsKey(childKey(contextKey, name));
+    }
+
+    void put(String key, Object object) {
+        if (frozenBindings != null) {
+            frozenBindings.replace(key, object);
+        }
+        else {
+            bindings.put(key, object);
+        }
+    }
+
+    void remove(String key) {
+        bindings.remove(key);
+    }
+
+    int size() {
+        return bindings.size();
+    }
+}
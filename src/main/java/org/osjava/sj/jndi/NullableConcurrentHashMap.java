@@ -0,0 +1,91 @@
+package org.osjava.sj.jndi;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link ConcurrentHashMap} that accepts null values, as {@link javax.naming.Context#bind(String, Object)} does. Reads never block. Iteration is weakly consistent.
+ */
+class NullableConcurrentHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final Object NULL = new Object();
+
+    private final ConcurrentHashMap<K, Object> map = new ConcurrentHashMap<K, Object>();
+
+    private final Set<Entry<K, V>> entrySet = new AbstractSet<Entry<K, V>>() {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            final Iterator<Entry<K, Object>> iterator = map.entrySet().iterator();
+            return new Iterator<Entry<K, V>>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Entry<K, V> next() {
+                    final Entry<K, Object> entry = iterator.next();
+                    return new SimpleImmutableEntry<K, V>(entry.getKey(), unmask(entry.getValue()));
+                }
+
+                @Override
+                public void remove() {
+                    iterator.remove();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+    };
+
+    @Override
+    public V get(Object key) {
+        return unmask(map.get(key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return unmask(map.put(key, value == null ? NULL : value));
+    }
+
+    @Override
+    public V remove(Object key) {
+        return unmask(map.remove(key));
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return entrySet;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V unmask(Object value) {
+        return value == NULL ? null : (V) value;
+    }
+}
@@ -0,0 +1,82 @@
+package org.osjava.sj.jndi;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Hashtable;
+
+/**
+ * A left to right name syntax, in which names without escape and quote characters can be split into their components at the separator, without parsing them into a {@link javax.naming.Name}. Used by the {@link NamespaceIndex}, by {@link MemoryContext#lookup(String)} and by {@link org.osjava.sj.loader.JndiLoader} to split property keys.
+ */
+public final class PlainSyntax {
+
+    private final String separator;
+    private final String[] specialChars;
+
+    private PlainSyntax(String separator, String[] specialChars) {
+        this.separator = separator;
+        this.specialChars = specialChars;
+    }
+
+    /**
+     * @return null: The name syntax in env is not supported, e.g. "jndi.syntax.ignorecase" or "jndi.syntax.direction" other than "left_to_right".
+     */
+    @Nullable
+    public static PlainSyntax create(Hashtable env) {
+        final Object separator = env.get("jndi.syntax.separator");
+        if (!(separator instanceof String) || ((String) separator).isEmpty()
+                || !"left_to_right".equals(env.get("jndi.syntax.direction"))
+                || BooleanUtils.toBoolean(String.valueOf(env.get("jndi.syntax.ignorecase")))
+                || BooleanUtils.toBoolean(String.valueOf(env.get("jndi.syntax.trimblanks")))
+                || env.containsKey("jndi.syntax.separator.ava")
+                || env.containsKey("jndi.syntax.separator.typeval")) {
+            return null;
+        }
+        return new PlainSyntax((String) separator, new String[]{
+                getOrDefault(env, "jndi.syntax.escape", "\\"),
+                getOrDefault(env, "jndi.syntax.beginquote", "\""),
+                getOrDefault(env, "jndi.syntax.endquote", "\""),
+                getOrDefault(env, "jndi.syntax.beginquote2", "'"),
+                getOrDefault(env, "jndi.syntax.endquote2", "'")});
+    }
+
+    private static String getOrDefault(Hashtable env, String key, String defaultValue) {
+        final Object value = env.get(key);
+        return value instanceof String ? (String) value : defaultValue;
+    }
+
+    public String getSeparator() {
+        return separator;
+    }
+
+    /**
+     * @return true: name is parsed into its components by splitting at the separator only.
+     */
+    public boolean isPlainName(String name) {
+        if (name.isEmpty() || name.startsWith(separator) || name.endsWith(separator)) {
+            return false;
+        }
+        for (int i = name.indexOf(separator); i >= 0; i = name.indexOf(separator, i + 1)) {
+            if (name.startsWith(separator, i + separator.length())) {
+                return false;
+            }
+        }
+        for (String specialChar : specialChars) {
+            if (name.contains(specialChar)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean isPlainComponent(String component) {
+        return isPlainName(component) && !component.contains(separator);
+    }
+
+    /**
+     * @param contextKey "" for the root context.
+     */
+    String childKey(String contextKey, String name) {
+        return contextKey.isEmpty() ? name : contextKey + separator + name;
+    }
+}
@@ -0,0 +1,17 @@
+package org.osjava.sj.jndi;
+
+/**
+ * A map with String keys that can be probed with a region of a longer String, so {@link MemoryContext#lookup(String)} needs not cut the components out of the name.
+ */
+interface RegionLookup {
+
+    /**
+     * Returned by {@link #getRegion(String, int, int)} if the key is not contained.
+     */
+    Object ABSENT = new Object();
+
+    /**
+     * @return The value of the key name.substring(from, to) or {@link #ABSENT}.
+     */
+    Object getRegion(String name, int from, int to);
+}
@@ -80,6 +80,15 @@ public class SimpleNameParser implements NameParser {
         props.putAll(this.parent.getEnvironment());
     }
 
+    /**
+     * Creates a SimpleNameParser shared by all contexts of a namespace.
+     *
+     * @param props The name syntax. Not copied, so it must not be modified thereafter.
+     */
+    SimpleNameParser(Properties props) {
+        this.props = props;
+    }
+
     /** 
      * Parses a name into its components.<br>
      * (Copied from {@link javax.naming.NameParser#parse(java.lang.String)}
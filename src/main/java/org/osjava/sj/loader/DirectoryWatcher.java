@@ -0,0 +1,560 @@
+package org.osjava.sj.loader;
+
+import org.apache.commons.io.FilenameUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osjava.sj.jndi.JndiUtils;
+import org.osjava.sj.jndi.MemoryContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.NotContextException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a context in sync with the directory loaded into it, see {@link NioBasedJndiLoader#watch(File, Context, long)}. A {@link WatchService} reports added, modified and removed .properties, .ini and .xml files. Changes are collected until none was reported for the debounce time, but no longer than {@link #MAX_DEBOUNCES} debounce times after the first of them, so files written continuously don't hold back other changes. Then every changed file is parsed again and only the bindings defined differently than before are rebound or unbound. Subcontexts left empty by removed files are destroyed.
+ * <p>
+ * A binding counts as unchanged if the properties defining it are unchanged, e.g. "ds.type", "ds.url" and so on for a DataSource "ds". Replaced objects are not closed. A name no longer defined by a changed file but still defined by another file, e.g. by default.properties of the same directory, is bound to the object of that file instead of being unbound.
+ */
+public final class DirectoryWatcher implements Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(DirectoryWatcher.class);
+    private static final String NO_DEFINITION = "{}";
+    /* Changes are applied at the latest this many debounce times after the first of them was reported. */
+    static final int MAX_DEBOUNCES = 10;
+
+    private final NioBasedJndiLoader loader;
+    private final Path root;
+    private final Context context;
+    private final long debounceMillis;
+    private final Hashtable scratchEnvironment;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+    /* Accessed by the watching thread only, after start. */
+    private final Map<Path, FileState> files = new HashMap<Path, FileState>();
+    /* The files defining a binding, keyed by its name components relative to the root directory's context. */
+    private final Map<List<String>, Set<Path>> definers = new HashMap<List<String>, Set<Path>>();
+    private volatile boolean closed;
+
+    /**
+     * The bindings a file contributed to the context of its directory, keyed by their name components relative to that context.
+     */
+    private static final class FileState {
+        private final Map<List<String>, Object> bindings;
+        /* The properties defining each binding. */
+        private final Map<List<String>, String> definitions;
+        /* The subcontexts created for the bindings. */
+        private final Set<List<String>> contexts;
+
+        private FileState(Map<List<String>, Object> bindings, Map<List<String>, String> definitions, Set<List<String>> contexts) {
+            this.bindings = bindings;
+            this.definitions = definitions;
+            this.contexts = contexts;
+        }
+    }
+
+    DirectoryWatcher(@NotNull NioBasedJndiLoader loader, @NotNull File directory, @NotNull Context context, long debounceMillis) throws IOException, NamingException {
+        this.loader = loader;
+        this.root = directory.getAbsoluteFile().toPath();
+        this.context = context;
+        this.debounceMillis = debounceMillis;
+        scratchEnvironment = new Hashtable(loader.environment);
+        scratchEnvironment.remove(MemoryContext.IGNORE_CLOSE);
+        scratchEnvironment.remove(MemoryContext.FROZEN);
+        scratchEnvironment.remove(MemoryContext.INDEX);
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            for (Path file : register(root)) {
+                final FileState state = parse(file);
+                files.put(file, state);
+                define(file, state, true);
+            }
+        }
+        catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        catch (NamingException e) {
+            watchService.close();
+            throw e;
+        }
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "Simple-JNDI directory watcher " + root);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching. Changes not applied yet are discarded.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+    }
+
+    /**
+     * Registers directory and its subdirectories.
+     *
+     * @return The supported files found.
+     */
+    @NotNull
+    private List<Path> register(@NotNull Path directory) throws IOException {
+        final List<Path> found = new ArrayList<Path>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                final String name = dir.getFileName() != null ? dir.getFileName().toString() : "";
+                if (name.equals(".svn") || name.equals("CVS")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                final WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && loader.isSupportedFile(file.toFile())) {
+                    found.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return found;
+    }
+
+    private void watch() {
+        final Set<Path> changed = new LinkedHashSet<Path>();
+        long deadline = 0;
+        try {
+            while (!closed) {
+                final WatchKey key;
+                if (changed.isEmpty()) {
+                    key = watchService.take();
+                }
+                else {
+                    final long wait = Math.min(debounceMillis, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                    key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+                }
+                if (key == null) { // Quiet for debounceMillis, or changes pending for MAX_DEBOUNCES of them.
+                    apply(changed);
+                    changed.clear();
+                    continue;
+                }
+                if (changed.isEmpty()) {
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis * MAX_DEBOUNCES);
+                }
+                final Path dir = directories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        changed.add(root);
+                    }
+                    else if (dir != null) {
+                        changed.add(dir.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    directories.remove(key);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Brings the context in line with the changed paths. A directory stands for all files below it.
+     */
+    private void apply(@NotNull Set<Path> changed) {
+        final Set<Path> paths = new LinkedHashSet<Path>();
+        for (Path path : changed) {
+            if (Files.isDirectory(path)) {
+                try {
+                    paths.addAll(register(path));
+                }
+                catch (IOException e) {
+                    LOGGER.error("Unable to watch {}", path, e);
+                }
+            }
+            // Files known below a removed or rescanned directory.
+            for (Path file : files.keySet()) {
+                if (!file.equals(path) && file.startsWith(path)) {
+                    paths.add(file);
+                }
+            }
+            if (!Files.isDirectory(path)) {
+                paths.add(path);
+            }
+        }
+        for (Path path : paths) {
+            if (closed) {
+                return;
+            }
+            try {
+                apply(path);
+            }
+            catch (Exception e) {
+                LOGGER.error("Unable to apply changes of {}", path, e);
+            }
+        }
+    }
+
+    private void apply(@NotNull Path path) throws IOException, NamingException {
+        final boolean exists = Files.isRegularFile(path) && loader.isSupportedFile(path.toFile());
+        final FileState previous = files.get(path);
+        if (!exists && previous == null) {
+            return;
+        }
+        final FileState current = exists ? parse(path) : new FileState(
+                Collections.<List<String>, Object>emptyMap(), Collections.<List<String>, String>emptyMap(), Collections.<List<String>>emptySet());
+        final FileState before = previous != null ? previous : new FileState(
+                Collections.<List<String>, Object>emptyMap(), Collections.<List<String>, String>emptyMap(), Collections.<List<String>>emptySet());
+        final List<String> directory = directoryOf(path);
+        final Context dirContext = exists ? getOrCreate(context, directory) : lookupContext(context, directory);
+        if (dirContext != null) {
+            for (Map.Entry<List<String>, Object> binding : current.bindings.entrySet()) {
+                final List<String> name = binding.getKey();
+                if (before.bindings.containsKey(name) && isUnchanged(name, before, current)) {
+                    // Keep the object bound, e.g. a DataSource in use.
+                    current.bindings.put(name, before.bindings.get(name));
+                    continue;
+                }
+                LOGGER.debug("Rebind {} from {}", name, path);
+                final Context parent = getOrCreate(dirContext, name.subList(0, name.size() - 1));
+                parent.rebind(toName(parent, name.subList(name.size() - 1, name.size())), binding.getValue());
+            }
+            for (List<String> name : before.bindings.keySet()) {
+                if (!current.bindings.containsKey(name)) {
+                    if (rebindFromOtherFile(path, directory, name)) {
+                        continue;
+                    }
+                    LOGGER.debug("Unbind {} from {}", name, path);
+                    final Context parent = lookupContext(dirContext, name.subList(0, name.size() - 1));
+                    if (parent != null) {
+                        try {
+                            parent.unbind(toName(parent, name.subList(name.size() - 1, name.size())));
+                        }
+                        catch (NameNotFoundException e) {
+                            // Unbound meanwhile.
+                        }
+                    }
+                }
+            }
+            final List<List<String>> abandoned = new ArrayList<List<String>>();
+            for (List<String> name : before.contexts) {
+                if (!current.contexts.contains(name)) {
+                    abandoned.add(name);
+                }
+            }
+            destroyIfEmpty(dirContext, abandoned);
+        }
+        define(path, before, false);
+        if (exists) {
+            files.put(path, current);
+            define(path, current, true);
+        }
+        else {
+            files.remove(path);
+            removeEmptyDirectories(path, directory);
+        }
+    }
+
+    /**
+     * Adds path to or removes it from the definers of the bindings of state.
+     */
+    private void define(@NotNull Path path, @NotNull FileState state, boolean add) {
+        final List<String> directory = directoryOf(path);
+        for (List<String> name : state.bindings.keySet()) {
+            final List<String> absolute = new ArrayList<String>(directory);
+            absolute.addAll(name);
+            Set<Path> paths = definers.get(absolute);
+            if (add) {
+                if (paths == null) {
+                    paths = new LinkedHashSet<Path>();
+                    definers.put(absolute, paths);
+                }
+                paths.add(path);
+            }
+            else if (paths != null) {
+                paths.remove(path);
+                if (paths.isEmpty()) {
+                    definers.remove(absolute);
+                }
+            }
+        }
+    }
+
+    /**
+     * Binds name, no longer defined by path, to the object another file defines for it.
+     *
+     * @param name Relative to the context of directory.
+     * @return false: No other file defines name.
+     */
+    private boolean rebindFromOtherFile(@NotNull Path path, @NotNull List<String> directory, @NotNull List<String> name) throws NamingException {
+        final List<String> absolute = new ArrayList<String>(directory);
+        absolute.addAll(name);
+        final Set<Path> paths = definers.get(absolute);
+        if (paths == null) {
+            return false;
+        }
+        for (Path other : paths) {
+            if (other.equals(path)) {
+                continue;
+            }
+            final FileState state = files.get(other);
+            final List<String> relative = absolute.subList(directoryOf(other).size(), absolute.size());
+            LOGGER.debug("Rebind {} from {}, no longer defined by {}", absolute, other, path);
+            final Context parent = getOrCreate(context, absolute.subList(0, absolute.size() - 1));
+            parent.rebind(toName(parent, absolute.subList(absolute.size() - 1, absolute.size())), state.bindings.get(relative));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Judged by the properties defining the binding, or if none were found, by equals() of the objects.
+     */
+    private static boolean isUnchanged(@NotNull List<String> name, @NotNull FileState before, @NotNull FileState current) {
+        final String definition = current.definitions.get(name);
+        if (!definition.equals(before.definitions.get(name))) {
+            return false;
+        }
+        if (!definition.equals(NO_DEFINITION)) {
+            return true;
+        }
+        final Object object = current.bindings.get(name);
+        return object != null ? object.equals(before.bindings.get(name)) : before.bindings.get(name) == null;
+    }
+
+    /**
+     * Parses path once and loads it into a scratch context like {@link NioBasedJndiLoader} loads it into the context of its directory.
+     */
+    @NotNull
+    private FileState parse(@NotNull Path path) throws IOException, NamingException {
+        final Properties properties = loader.toProperties(path);
+        final MemoryContext scratch = new MemoryContext(scratchEnvironment);
+        try {
+            loader.loadFile(path, properties, scratch, null, true);
+            final Map<List<String>, Object> bindings = new LinkedHashMap<List<String>, Object>();
+            final Set<List<String>> contexts = new HashSet<List<String>>();
+            collect(scratch, new ArrayList<String>(), bindings, contexts);
+            final Map<List<String>, String> definitions = new HashMap<List<String>, String>();
+            final String fileContext = fileContextOf(path, properties);
+            for (List<String> name : bindings.keySet()) {
+                definitions.put(name, definitionOf(name, fileContext, properties));
+            }
+            return new FileState(bindings, definitions, contexts);
+        }
+        finally {
+            scratch.forceClose();
+        }
+    }
+
+    private static void collect(@NotNull Context context, @NotNull List<String> prefix, @NotNull Map<List<String>, Object> bindings, @NotNull Set<List<String>> contexts) throws NamingException {
+        final NamingEnumeration<Binding> enumeration = context.listBindings("");
+        while (enumeration.hasMore()) {
+            final Binding binding = enumeration.next();
+            final List<String> name = new ArrayList<String>(prefix);
+            name.add(JndiUtils.toComponent(context, binding.getName()));
+            if (binding.getObject() instanceof Context) {
+                contexts.add(name);
+                collect((Context) binding.getObject(), name, bindings, contexts);
+            }
+            else {
+                bindings.put(name, binding.getObject());
+            }
+        }
+    }
+
+    /**
+     * @return The first name component of the file's bindings not part of the property keys: The name of the file's subcontext or the name of the object defined by the whole file. null: The file's bindings are loaded into the context of its directory.
+     */
+    @Nullable
+    private String fileContextOf(@NotNull Path path, @NotNull Properties properties) {
+        final String baseName = FilenameUtils.getBaseName(loader.handleColonReplacement(path.getFileName().toString()));
+        return !loader.isNotNamespacedTypeDefinition(properties) && baseName.equals("default") ? null : baseName;
+    }
+
+    /**
+     * @return The properties whose keys are the key of name or start with it, sorted.
+     */
+    @NotNull
+    private String definitionOf(@NotNull List<String> name, @Nullable String fileContext, @NotNull Properties properties) {
+        List<String> components = name;
+        if (fileContext != null && !name.isEmpty() && name.get(0).equals(fileContext)) {
+            components = name.subList(1, name.size());
+        }
+        final String delimiter = (String) loader.environment.get(JndiLoader.DELIMITER);
+        final StringBuilder key = new StringBuilder();
+        for (String component : components) {
+            if (key.length() > 0) {
+                key.append(delimiter);
+            }
+            key.append(component);
+        }
+        final String prefix = key.toString();
+        final TreeMap<String, String> definition = new TreeMap<String, String>();
+        for (Map.Entry<Object, Object> property : properties.entrySet()) {
+            final String propertyKey = String.valueOf(property.getKey());
+            if (prefix.isEmpty() || propertyKey.equals(prefix) || propertyKey.startsWith(prefix + delimiter)) {
+                definition.put(propertyKey, String.valueOf(property.getValue()));
+            }
+        }
+        return definition.toString();
+    }
+
+    /**
+     * @return The names of the contexts from the root directory's context to the context of path's directory.
+     */
+    @NotNull
+    private List<String> directoryOf(@NotNull Path path) {
+        final List<String> names = new ArrayList<String>();
+        final Path relative = root.relativize(path.getParent());
+        for (Path component : relative) {
+            if (!component.toString().isEmpty()) {
+                names.add(loader.handleColonReplacement(component.toString()));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Destroys the contexts of the directories of file removed from disk and left empty.
+     */
+    private void removeEmptyDirectories(@NotNull Path file, @NotNull List<String> directory) throws NamingException {
+        Path dir = file.getParent();
+        for (int i = directory.size(); i > 0; i--) {
+            if (Files.exists(dir) || !destroyIfEmpty(context, Collections.singletonList(directory.subList(0, i)))) {
+                return;
+            }
+            dir = dir.getParent();
+        }
+    }
+
+    /**
+     * Destroys the contexts named, deepest first, if they are empty.
+     *
+     * @return false: A context was not empty.
+     */
+    private static boolean destroyIfEmpty(@NotNull Context context, @NotNull List<List<String>> names) throws NamingException {
+        final List<List<String>> deepestFirst = new ArrayList<List<String>>(names);
+        Collections.sort(deepestFirst, new Comparator<List<String>>() {
+            @Override
+            public int compare(List<String> a, List<String> b) {
+                return b.size() - a.size();
+            }
+        });
+        boolean destroyedAll = true;
+        for (List<String> name : deepestFirst) {
+            final Context parent = lookupContext(context, name.subList(0, name.size() - 1));
+            final Context child = lookupContext(context, name);
+            if (parent == null || child == null) {
+                continue;
+            }
+            if (child.list("").hasMore()) {
+                destroyedAll = false;
+                continue;
+            }
+            parent.destroySubcontext(toName(parent, name.subList(name.size() - 1, name.size())));
+        }
+        return destroyedAll;
+    }
+
+    @NotNull
+    private static Name toName(@NotNull Context context, @NotNull List<String> components) throws NamingException {
+        final Name name = context.getNameParser("").parse("");
+        for (String component : components) {
+            name.add(component);
+        }
+        return name;
+    }
+
+    @NotNull
+    private static Context getOrCreate(@NotNull Context context, @NotNull List<String> names) throws NamingException {
+        Context current = context;
+        for (String component : names) {
+            final Name name = toName(current, Arrays.asList(component));
+            if (current instanceof MemoryContext) {
+                current = ((MemoryContext) current).getOrCreateSubcontext(name);
+                continue;
+            }
+            Object obj;
+            try {
+                obj = current.lookup(name);
+            }
+            catch (NameNotFoundException e) {
+                obj = current.createSubcontext(name);
+            }
+            if (!(obj instanceof Context)) {
+                throw new NotContextException(component + " already occupied by " + obj);
+            }
+            current = (Context) obj;
+        }
+        return current;
+    }
+
+    /**
+     * @return null: A context of names does not exist.
+     */
+    @Nullable
+    private static Context lookupContext(@NotNull Context context, @NotNull List<String> names) throws NamingException {
+        Context current = context;
+        for (String component : names) {
+            final Object obj;
+            try {
+                obj = current.lookup(toName(current, Arrays.asList(component)));
+            }
+            catch (NameNotFoundException e) {
+                return null;
+            }
+            if (!(obj instanceof Context)) {
+                return null;
+            }
+            current = (Context) obj;
+        }
+        return current;
+    }
+}
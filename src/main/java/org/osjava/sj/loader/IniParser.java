@@ -0,0 +1,197 @@
+package org.osjava.sj.loader;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * Reads the entries of an .ini file one after another, see {@link IniSJProperties}. The characters are scanned in a reusable {@link CharBuffer}, which is refilled from the reader and only grows for lines longer than its capacity. No String is created per line: Only keys and values are copied out of the buffer.
+ * <p>
+ * Lines are trimmed. "[block]" starts a block, whose name prefixes the following keys. ';' starts a comment. Other lines are split at the first '='. The key is taken as is, the value up to a comment, e.g. "key =value ;comment" results in "key " and "value ". Lines without '=' are ignored and logged. With unquote set, values in double quotes or apostrophes are taken without the quotes, and may contain ';'.
+ */
+final class IniParser {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IniParser.class);
+
+    private final Reader reader;
+    private final String delimiter;
+    private final boolean unquote;
+    /* In read mode. Holds the lines not parsed yet. */
+    private CharBuffer buffer = CharBuffer.allocate(8192);
+    private boolean eof;
+    /* The previous line ended with '\r', a following '\n' belongs to it. */
+    private boolean skipLineFeed;
+    private int lineNumber;
+    /* The block and the delimiter, followed by the key of the current entry. */
+    private final StringBuilder key = new StringBuilder();
+    private int blockLength;
+    private String value;
+
+    /**
+     * A malformed quoted value. {@link NioBasedJndiLoader} skips the file, like other files it is unable to load.
+     */
+    static final class MalformedIniException extends IOException {
+        MalformedIniException(String message) {
+            super(message);
+        }
+    }
+
+    IniParser(@NotNull Reader reader, @NotNull String delimiter, boolean unquote) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+        this.unquote = unquote;
+        buffer.flip();
+    }
+
+    /**
+     * @return false: No more entries.
+     * @throws MalformedIniException A quoted value without closing quote or with characters after the closing quote. The message starts with the line number.
+     */
+    boolean next() throws IOException {
+        while (true) {
+            int end = lineEnd();
+            while (end < 0 && !eof) {
+                fill();
+                end = lineEnd();
+            }
+            if (end < 0) {
+                if (!buffer.hasRemaining()) {
+                    return false;
+                }
+                end = buffer.limit();
+            }
+            lineNumber++;
+            final boolean entry = parseLine(buffer.array(), buffer.position(), end);
+            if (end < buffer.limit()) {
+                skipLineFeed = buffer.get(end) == '\r';
+                buffer.position(end + 1);
+            }
+            else {
+                buffer.position(end);
+            }
+            if (entry) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return The key of the entry found by {@link #next()}, prefixed with its block and the delimiter.
+     */
+    @NotNull
+    String key() {
+        return key.toString();
+    }
+
+    @NotNull
+    String value() {
+        return value;
+    }
+
+    /**
+     * @return The index of the '\r' or '\n' ending the line at the buffer's position. -1: Not read yet.
+     */
+    private int lineEnd() {
+        final char[] chars = buffer.array();
+        int i = buffer.position();
+        final int limit = buffer.limit();
+        if (skipLineFeed && i < limit) {
+            skipLineFeed = false;
+            if (chars[i] == '\n') {
+                buffer.position(++i);
+            }
+        }
+        for (; i < limit; i++) {
+            if (chars[i] == '\n' || chars[i] == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void fill() throws IOException {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            final CharBuffer larger = CharBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        final int read = reader.read(buffer.array(), buffer.position(), buffer.remaining());
+        if (read < 0) {
+            eof = true;
+        }
+        else {
+            buffer.position(buffer.position() + read);
+        }
+        buffer.flip();
+    }
+
+    /**
+     * @return true: The line is an entry.
+     */
+    private boolean parseLine(char[] chars, int start, int end) throws IOException {
+        while (start < end && chars[start] <= ' ') {
+            start++;
+        }
+        while (end > start && chars[end - 1] <= ' ') {
+            end--;
+        }
+        if (start == end || chars[start] == ';') {
+            return false;
+        }
+        if (chars[start] == '[' && chars[end - 1] == ']' && end - start > 1) {
+            key.setLength(0);
+            if (end - start > 2) {
+                key.append(chars, start + 1, end - start - 2).append(delimiter);
+            }
+            blockLength = key.length();
+            return false;
+        }
+        int separator = start;
+        while (separator < end && chars[separator] != '=' && chars[separator] != ';') {
+            separator++;
+        }
+        if (separator == end || chars[separator] == ';') {
+            LOGGER.warn("Ignoring line {}: No '=' found.", lineNumber);
+            return false;
+        }
+        key.setLength(blockLength);
+        key.append(chars, start, separator - start);
+
+        final int valueStart = separator + 1;
+        int quote = valueStart;
+        while (quote < end && chars[quote] <= ' ') {
+            quote++;
+        }
+        if (unquote && quote < end && (chars[quote] == '"' || chars[quote] == '\'')) {
+            int closing = quote + 1;
+            while (closing < end && chars[closing] != chars[quote]) {
+                closing++;
+            }
+            if (closing == end) {
+                throw new MalformedIniException("Line " + lineNumber + ": Missing closing " + chars[quote]);
+            }
+            int rest = closing + 1;
+            while (rest < end && chars[rest] <= ' ') {
+                rest++;
+            }
+            if (rest < end && chars[rest] != ';') {
+                throw new MalformedIniException("Line " + lineNumber + ": Unexpected characters after quoted value");
+            }
+            value = new String(chars, quote + 1, closing - quote - 1);
+        }
+        else {
+            int valueEnd = valueStart;
+            while (valueEnd < end && chars[valueEnd] != ';') {
+                valueEnd++;
+            }
+            value = new String(chars, valueStart, valueEnd - valueStart);
+        }
+        return true;
+    }
+}
@@ -32,10 +32,10 @@
 
 package org.osjava.sj.loader;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 
 
 /**
@@ -47,56 +47,40 @@ import java.io.InputStreamReader;
  */
 public class IniSJProperties extends SJProperties {
 
+    private Charset charset = Charset.defaultCharset();
+    private boolean unquote;
+
     /**
-     * Load in a .ini file. Semi-colons are comments. Blocks are denoted with square brackets. Values are then key=value pairs, with blocks being prepended to keys.
+     * @param charset The encoding of the .ini files. Default is the platform's default charset.
      */
-    @Override
-    public synchronized void load(InputStream in) throws IOException {
-        try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-            String line = "";
-            String block = "";
-            while ((line = reader.readLine()) != null) {
-
-                line = line.trim();   // important?? bad??
-
-                // handle blocks
-                if (line.startsWith("[") && line.endsWith("]")) {
-                    block = line.substring(1, line.length() - 1);
-                }
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
 
-                int idx = line.indexOf(';');
-                // remove comment
-                if (idx != -1) {
-                    line = line.substring(0, idx);
-                }
+    /**
+     * @param unquote true: Remove double quotes or apostrophes surrounding a value, which then may contain semi-colons. Default is false: Keep values as they are written.
+     */
+    public void setUnquote(boolean unquote) {
+        this.unquote = unquote;
+    }
 
-                // split equals sign
-                idx = line.indexOf('=');
-                if (idx != -1) {
-                    String value = line.substring(idx + 1);
-                    // Quoted values[edit]
-                    // Some implementations allow values to be quoted, typically using
-                    // double quotes and/or apostrophes. This allows for explicit declaration
-                    // of whitespace, and/or for quoting of special characters (equals,
-                    // semicolon, etc.). The standard Windows function GetPrivateProfileString
-                    // supports this, and will remove quotation marks that surround the values.
-                    // https://en.wikipedia.org/wiki/INI_file
-                    if ("".equals(block)) {
-                        setProperty(line.substring(0, idx), value);
-                    }
-                    else {
-                        setProperty(block + getDelimiter() + line.substring(0, idx), value);
-                    }
-                }
-                else {
-                    // Blank line, or just a bad line. We ignore it
-                }
-            }
-            reader.close();
-        }
-        catch (IOException ioe) {
-            ioe.printStackTrace();
+    /**
+     * Load in a .ini file. Semi-colons are comments. Blocks are denoted with square brackets. Values are then key=value pairs, with blocks being prepended to keys. See {@link IniParser}.
+     *
+     * @throws IOException Also on a malformed quoted value, see {@link #setUnquote(boolean)}.
+     */
+    @Override
+    public synchronized void load(InputStream in) throws IOException {
+        // Quoted values[edit]
+        // Some implementations allow values to be quoted, typically using
+        // double quotes and/or apostrophes. This allows for explicit declaration
+        // of whitespace, and/or for quoting of special characters (equals,
+        // semicolon, etc.). The standard Windows function GetPrivateProfileString
+        // supports this, and will remove quotation marks that surround the values.
+        // https://en.wikipedia.org/wiki/INI_file
+        final IniParser parser = new IniParser(new InputStreamReader(in, charset), getDelimiter(), unquote);
+        while (parser.next()) {
+            setProperty(parser.key(), parser.value());
         }
     }
 
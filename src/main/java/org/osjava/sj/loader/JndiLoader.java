@@ -37,6 +37,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.osjava.StringUtils;
 import org.osjava.sj.jndi.JndiUtils;
+import org.osjava.sj.jndi.MemoryContext;
 import org.osjava.sj.loader.convert.ConverterIF;
 import org.osjava.sj.loader.convert.ConverterRegistry;
 import org.slf4j.Logger;
@@ -61,6 +62,9 @@ public class JndiLoader {
 
     private static ConverterRegistry converterRegistry = new ConverterRegistry();
     private final Properties envAsProperties;
+    private final KeyTokenizer tokenizer;
+    /* Finds DELIMITER in keys, see extractDelimiter(). */
+    private final Pattern delimiterPattern;
 
     Hashtable environment = new Hashtable();
     private Logger LOGGER = LoggerFactory.getLogger(this.getClass());
@@ -79,6 +83,12 @@ public class JndiLoader {
         Properties props = new Properties();
         props.putAll(environment);
         envAsProperties = props;
+        tokenizer = new KeyTokenizer(envAsProperties);
+        String delimiter = (String) environment.get(DELIMITER);
+        if (delimiter.length() == 1) { // be downwards compatible
+            delimiter = delimiter.replace(".", "\\.");
+        }
+        delimiterPattern = Pattern.compile("^.+(" + delimiter + ").+");
     }
 
     /**
@@ -116,21 +126,28 @@ public class JndiLoader {
     }
 
     void load(Properties properties, Context subContext, Context parentCtxt, String subName) throws NamingException {
+        load(properties, subContext, parentCtxt, subName, false);
+    }
+
+    /**
+     * @param skipConflicts true: A name already bound, e.g. by a file or root loaded before, is logged and skipped, and the other names are still bound. So the first definition of a name wins. false: Throw.
+     */
+    void load(Properties properties, Context subContext, Context parentCtxt, String subName, boolean skipConflicts) throws NamingException {
 
         // NOTE: "type" effectively turns on pseudo-nodes; if it isn't there then other pseudo-nodes will result in re-bind errors.
 
-        Map typeMap = extractTypedProperties(properties);
-        Iterator iterator;
+        // Every key split into its components once.
+        final Map<String, String[]> keys = tokenize(properties);
+        Map typeMap = extractTypedProperties(properties, keys);
 
         // If it matches a type root, then it should be added to the properties. If not, then it should be placed in the context (jndiPut()).
         // For each type properties call convert: pass a Properties in that contains everything starting with foo, but without the foo.
         // Put objects in context.
-        iterator = properties.keySet().iterator();
-        while(iterator.hasNext()) {
-            String key = (String) iterator.next();
+        for (Map.Entry<String, String[]> entry : keys.entrySet()) {
+            String key = entry.getKey();
             Object value = properties.get(key);
             final String delimiter = extractDelimiter(key);
-            if (!key.equals("type") && extractTypeDeclaration(key) == null) {
+            if (!key.equals("type") && KeyTokenizer.typeDeclaration(entry.getValue()) == null) {
                 if (typeMap.containsKey("datasourceOrBeanProperty")) {
                     // files with a property named "type" without a namespace in the name.
                     ((Properties) typeMap.get("datasourceOrBeanProperty")).put(key, value);
@@ -147,11 +164,11 @@ public class JndiLoader {
                         ((Properties) typeMap.get(pathText)).put(nodeText, value);
                     }
                     else {
-                        jndiPut(subContext, key, value);
+                        jndiPut(subContext, key, entry.getValue(), value, skipConflicts);
                     }
                 }
                 else {
-                    jndiPut(subContext, key, value);
+                    jndiPut(subContext, key, entry.getValue(), value, skipConflicts);
                 }
             }
         }
@@ -163,10 +180,15 @@ public class JndiLoader {
             if (typeKey.equals("datasourceOrBeanProperty")) {
                 // Reached only by datasource and bean declarations? Yes, but not always! Not from org.osjava.sj.memory.JndiLoaderTest.testBeanConverter(). testBeanConverter() enters the "else" branch.  Not reached, when the attributes are prefixed with a namespace as in roots/datasource/ds.properties (used in SimpleJndiNewTest.sharedContextWithDataSource2MatchingDelimiter()).
                 // rebind(): For every file there is already a context created and bound under the file's name. In case of bean or datasource declarations the binding must not be a context but the value (the bean, the datasource) itself. This is true as long as the datasource or bean properties are not namespaced. Then the "else" branch is executed.
-                parentCtxt.rebind(subName, value);
+                if (skipConflicts && isBoundBefore(subName, subContext, parentCtxt)) {
+                    LOGGER.warn("{} not bound in {}: Already bound", subName, parentCtxt);
+                }
+                else {
+                    parentCtxt.rebind(subName, value);
+                }
             }
             else {
-                jndiPut(subContext, typeKey, value);
+                jndiPut(subContext, typeKey, tokenizer.tokenize(typeKey), value, skipConflicts);
             }
         }
 
@@ -178,11 +200,18 @@ public class JndiLoader {
      */
     @NotNull
     Map<String, Properties> extractTypedProperties(Properties properties) throws InvalidNameException {
+        return extractTypedProperties(properties, tokenize(properties));
+    }
+
+    /**
+     * @param keys The keys of properties split by {@link #tokenize(Properties)}.
+     */
+    @NotNull
+    private Map<String, Properties> extractTypedProperties(Properties properties, Map<String, String[]> keys) {
         Map typeMap = new HashMap<String, Properties>();
-        Iterator iterator = properties.keySet().iterator();
-        while(iterator.hasNext()) {
-            String key = (String) iterator.next();
-            final String type = extractTypeDeclaration(key);
+        for (Map.Entry<String, String[]> entry : keys.entrySet()) {
+            String key = entry.getKey();
+            final String type = KeyTokenizer.typeDeclaration(entry.getValue());
             // key.equals("type"): type attribute without namespace
             // type != null: type attribute prefixed with namespace, e.g. "Sybase/type"
             if(key.equals("type") || type != null) {
@@ -312,19 +341,26 @@ public class JndiLoader {
         return JndiUtils.toCompoundName(path, envAsProperties);
     }
 
+    /**
+     * @return The keys of properties in their order, each split into its components by {@link KeyTokenizer}.
+     */
+    @NotNull
+    private Map<String, String[]> tokenize(Properties properties) throws InvalidNameException {
+        final Map<String, String[]> keys = new LinkedHashMap<String, String[]>();
+        for (Object k : properties.keySet()) {
+            final String key = (String) k;
+            keys.put(key, tokenizer.tokenize(key));
+        }
+        return keys;
+    }
+
     /**
      * Incompletely implemented: Let DELIMITER be a regular expression, e.g. "\.|\/".
      *
      * @return delimiter "." or "/" or whatever is found by {@link #DELIMITER}.
      */
     private String extractDelimiter(String key) {
-        String delimiter = (String) environment.get(DELIMITER);
-        if (delimiter.length() == 1) { // be downwards compatible
-            delimiter = delimiter.replace(".", "\\.");
-        }
-        // IMPROVE Compile once
-        final Pattern pattern = Pattern.compile("^.+(" + delimiter + ").+");
-        final Matcher matcher = pattern.matcher(key);
+        final Matcher matcher = delimiterPattern.matcher(key);
         if (matcher.find()) {
             return matcher.group(1);
         }
@@ -332,23 +368,52 @@ public class JndiLoader {
     }
 
     /**
-     *
-     * @return "type" | null
+     * Creates contexts defined by namespaced property names, e.g. "my.namespaced.object=...". The last part (here "object") is the name under which the value is bound.
      */
-    @Nullable
-    private String extractTypeDeclaration(@NotNull String key) throws InvalidNameException {
-        String objName = extractObjectName(key);
-        return objName.equals("type") ? objName : null;
+    private void jndiPut(Context ctxt, String key, Object value) throws NamingException {
+        jndiPut(ctxt, key, tokenizer.tokenize(key), value);
     }
 
     /**
-     * Creates contexts defined by namespaced property names, e.g. "my.namespaced.object=...". The last part (here "object") is the name under which the value is bound.
+     * @param subContext The context created for the file defining subName, or parentCtxt.
+     * @return true: subName was bound in parentCtxt before the file was loaded.
      */
-    private void jndiPut(Context ctxt, String key, Object value) throws NamingException {
-        Name name = extractContextName(key);
-        if (name != null) {
-            Context deepestCtx = createSubContexts(name, ctxt);
-            deepestCtx.bind(extractObjectName(key), value);
+    private static boolean isBoundBefore(String subName, Context subContext, Context parentCtxt) throws NamingException {
+        if (subContext != parentCtxt) {
+            // Only names bound before can be in it.
+            return subContext.list("").hasMore();
+        }
+        try {
+            parentCtxt.lookup(subName);
+            return true;
+        }
+        catch (NameNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param skipConflicts See {@link #load(Properties, Context, Context, String, boolean)}.
+     */
+    private void jndiPut(Context ctxt, String key, String[] components, Object value, boolean skipConflicts) throws NamingException {
+        try {
+            jndiPut(ctxt, key, components, value);
+        }
+        catch (NameAlreadyBoundException | NotContextException e) {
+            if (!skipConflicts) {
+                throw e;
+            }
+            LOGGER.warn("{} not bound in {}: {}", key, ctxt, e.getMessage());
+        }
+    }
+
+    /**
+     * @param components key split by {@link KeyTokenizer}.
+     */
+    private void jndiPut(Context ctxt, String key, String[] components, Object value) throws NamingException {
+        if (components.length > 1) {
+            Context deepestCtx = createSubContexts(components, components.length - 1, ctxt);
+            deepestCtx.bind(KeyTokenizer.objectName(components), value);
         }
         else {
             ctxt.bind(toCompoundName(key), value);
@@ -360,22 +425,38 @@ public class JndiLoader {
      * @param name Name of the contexts to be created in parentContext.
      */
     Context createSubContexts(Name name, Context parentContext) throws NamingException {
+        final String[] components = new String[name.size()];
+        for (int i = 0; i < components.length; i++) {
+            components[i] = name.get(i);
+        }
+        return createSubContexts(components, components.length, parentContext);
+    }
+
+    /**
+     * @param count The number of components naming the contexts to be created in parentContext.
+     */
+    private Context createSubContexts(String[] components, int count, Context parentContext) throws NamingException {
         Context currentCtx = parentContext;
-        for(int i=0; i < name.size(); i++) {
+        for(int i=0; i < count; i++) {
+            if (currentCtx instanceof MemoryContext) {
+                // Does not throw NameNotFoundException for every subcontext not created yet.
+                currentCtx = ((MemoryContext) currentCtx).getOrCreateSubcontext(components[i]);
+                continue;
+            }
             Object obj;
             try {
-                obj = currentCtx.lookup(name.get(i));
+                obj = currentCtx.lookup(components[i]);
                 if (obj instanceof Context) {
                     currentCtx = (Context) obj;
                 }
                 else {
-                    LOGGER.error("createSubContexts() CompoundName={} Name '{}' already occupied by '{}'.", name, name.get(i), obj);
-                    throw new NotContextException(name.get(i) + " already occupied by " + obj);
+                    LOGGER.error("createSubContexts() Name={} Name '{}' already occupied by '{}'.", Arrays.asList(components).subList(0, count), components[i], obj);
+                    throw new NotContextException(components[i] + " already occupied by " + obj);
                 }
             }
             catch (NameNotFoundException e) {
                 // component does not exist
-                currentCtx = currentCtx.createSubcontext(name.get(i));
+                currentCtx = currentCtx.createSubcontext(components[i]);
             }
         }
         return currentCtx;
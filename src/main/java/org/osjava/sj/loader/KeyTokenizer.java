@@ -0,0 +1,79 @@
+package org.osjava.sj.loader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osjava.sj.jndi.JndiUtils;
+import org.osjava.sj.jndi.PlainSyntax;
+
+import javax.naming.CompoundName;
+import javax.naming.InvalidNameException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Splits property keys into their components at the {@link JndiLoader#DELIMITER}, the same way as {@link JndiUtils#toCompoundName(String, Properties)}. Keys without escape or quote characters are split with {@link String#indexOf(String, int)}, only others are parsed into a {@link CompoundName}. The syntax is determined once per loader.
+ */
+final class KeyTokenizer {
+
+    private final Properties syntax;
+    /* null: Every key is parsed into a CompoundName. */
+    private final PlainSyntax plainSyntax;
+
+    /**
+     * @param syntax The loader's environment.
+     */
+    KeyTokenizer(@NotNull Properties syntax) {
+        this.syntax = syntax;
+        final Hashtable delimiterSyntax = new Hashtable(syntax);
+        final String delimiter = syntax.getProperty(JndiLoader.DELIMITER);
+        if (delimiter != null) {
+            delimiterSyntax.put("jndi.syntax.separator", delimiter);
+        }
+        plainSyntax = delimiter != null ? PlainSyntax.create(delimiterSyntax) : null;
+    }
+
+    /**
+     * @return The components of key. Empty for "". The last component is the name of the object, as {@link JndiLoader#extractObjectName(String)} returns it, i.e. escaped and quoted again if it was parsed.
+     */
+    @NotNull
+    String[] tokenize(@NotNull String key) throws InvalidNameException {
+        if (plainSyntax != null && plainSyntax.isPlainName(key)) {
+            final String separator = plainSyntax.getSeparator();
+            final List<String> components = new ArrayList<String>();
+            int start = 0;
+            for (int end = key.indexOf(separator); end >= 0; end = key.indexOf(separator, start)) {
+                components.add(key.substring(start, end));
+                start = end + separator.length();
+            }
+            components.add(key.substring(start));
+            return components.toArray(new String[components.size()]);
+        }
+        final CompoundName name = JndiUtils.toCompoundName(key, syntax);
+        final String[] components = new String[name.size()];
+        for (int i = 0; i < components.length - 1; i++) {
+            components[i] = name.get(i);
+        }
+        if (components.length > 0) {
+            components[components.length - 1] = name.getSuffix(components.length - 1).toString();
+        }
+        return components;
+    }
+
+    /**
+     * @return The last component, e.g. "object" of "my.ctx.object". "" for "".
+     */
+    @NotNull
+    static String objectName(@NotNull String[] components) {
+        return components.length > 0 ? components[components.length - 1] : "";
+    }
+
+    /**
+     * @return "type" | null
+     */
+    @Nullable
+    static String typeDeclaration(@NotNull String[] components) {
+        return objectName(components).equals("type") ? "type" : null;
+    }
+}
@@ -0,0 +1,276 @@
+package org.osjava.sj.loader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The files of a root directory as parsed by {@link NioBasedJndiLoader}, stored in a binary file to load the directory again without parsing the files, see {@link NioBasedJndiLoader#SNAPSHOT}. A snapshot records the walk over the directory: Entering and leaving directories, and every file with its size, modification time, CRC-32 checksum and properties. The properties are stored before ${sj.sys:...} variables are substituted, so they are substituted with the current system properties on every load.
+ * <p>
+ * A snapshot is stale if the files or directories found differ from the walk recorded, if the size of a file differs, or if its modification time and its checksum differ. If the modification time is too close to the time the snapshot was taken to tell later changes apart, the checksum decides alone. Snapshot files are read by mapping them into memory. A checksum over the whole file detects a corrupt snapshot.
+ */
+final class NamespaceSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NamespaceSnapshot.class);
+    /* "SJNS" */
+    private static final int MAGIC = 0x534A4E53;
+    private static final int VERSION = 3;
+    /* Coarsest modification time resolution of common file systems (FAT). */
+    private static final long RACY_MILLIS = 2000;
+    static final byte ENTER = 1;
+    static final byte FILE = 2;
+    static final byte EXIT = 3;
+
+    static final class Entry {
+        final byte kind;
+        /* Relative to the root directory, components separated by "/". "" is the root directory. */
+        final String path;
+        final long size;
+        final long modified;
+        final long checksum;
+        /* Keys and values in the order parsed. A key with more than one value is repeated. */
+        final List<String> properties;
+
+        private Entry(byte kind, String path, long size, long modified, long checksum, List<String> properties) {
+            this.kind = kind;
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.checksum = checksum;
+            this.properties = properties;
+        }
+    }
+
+    private final String root;
+    private final String delimiter;
+    private final String options;
+    /* When the walk recorded was started, before any file was read. */
+    private long taken = System.currentTimeMillis();
+    private boolean complete = true;
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * @param root The absolute path of the root directory.
+     * @param delimiter {@link JndiLoader#DELIMITER}, which the parsed keys depend on.
+     * @param options The other options the parsed properties depend on, see {@link NioBasedJndiLoader#parseOptions()}.
+     */
+    NamespaceSnapshot(@NotNull String root, @NotNull String delimiter, @NotNull String options) {
+        this.root = root;
+        this.delimiter = delimiter;
+        this.options = options;
+    }
+
+    @NotNull
+    List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    void enter(@NotNull Path root, @NotNull Path directory) {
+        entries.add(new Entry(ENTER, relative(root, directory), 0, 0, 0, null));
+    }
+
+    void exit(@NotNull Path root, @NotNull Path directory) {
+        entries.add(new Entry(EXIT, relative(root, directory), 0, 0, 0, null));
+    }
+
+    /**
+     * @param properties Parsed without substitution, see {@link SJProperties#setSubstitution(boolean)}.
+     * @return false: properties cannot be stored, see {@link ParsedFiles#keysAndValues(Properties)}. file is not recorded and the snapshot is no longer {@link #isComplete()}.
+     */
+    boolean file(@NotNull Path root, @NotNull Path file, @NotNull BasicFileAttributes attrs, @NotNull Properties properties) throws IOException {
+        final List<String> keysAndValues = ParsedFiles.keysAndValues(properties);
+        if (keysAndValues == null) {
+            complete = false;
+            return false;
+        }
+        entries.add(new Entry(FILE, relative(root, file), attrs.size(), attrs.lastModifiedTime().toMillis(), ParsedFiles.checksum(file), keysAndValues));
+        return true;
+    }
+
+    /**
+     * @return false: A file could not be recorded. Don't write the snapshot.
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return The properties of a {@link #FILE} entry, with ${sj.sys:...} variables substituted now.
+     */
+    @NotNull
+    Properties toProperties(@NotNull Entry file, @NotNull VariableSubstitutor substitutor) {
+        return ParsedFiles.toProperties(file.properties, delimiter, true, substitutor);
+    }
+
+    /**
+     * @return false: The snapshot was taken of another directory, with another delimiter or other parse options, or root differs from the snapshot. Load root again.
+     */
+    boolean isCurrent(@NotNull Path root, @NotNull String delimiter, @NotNull String options) throws IOException {
+        if (!this.root.equals(root.toAbsolutePath().toString()) || !this.delimiter.equals(delimiter) || !this.options.equals(options)) {
+            return false;
+        }
+        final Verifier verifier = new Verifier(root);
+        Files.walkFileTree(root, verifier);
+        return verifier.current && !verifier.expected.hasNext();
+    }
+
+    private final class Verifier extends SimpleFileVisitor<Path> {
+        private final Path root;
+        private final Iterator<Entry> expected = entries.iterator();
+        private boolean current = true;
+
+        private Verifier(Path root) {
+            this.root = root;
+        }
+
+        @Nullable
+        private Entry next(byte kind, Path path) {
+            final Entry entry = expected.hasNext() ? expected.next() : null;
+            if (entry == null || entry.kind != kind || !entry.path.equals(relative(root, path))) {
+                current = false;
+                return null;
+            }
+            return entry;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            return next(ENTER, dir) != null ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            final Entry entry = next(FILE, file);
+            if (entry == null || entry.size != attrs.size()
+                    || (entry.modified != attrs.lastModifiedTime().toMillis() || entry.modified + RACY_MILLIS > taken)
+                    && entry.checksum != ParsedFiles.checksum(file)) {
+                current = false;
+                return FileVisitResult.TERMINATE;
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+            if (exc != null) {
+                throw exc;
+            }
+            return next(EXIT, dir) != null ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+        }
+    }
+
+    /**
+     * Writes the snapshot with {@link ParsedFiles#write(Path, ByteArrayOutputStream)}, so readers never see a partially written snapshot.
+     */
+    void write(@NotNull Path file) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        ParsedFiles.writeString(out, root);
+        ParsedFiles.writeString(out, delimiter);
+        ParsedFiles.writeString(out, options);
+        out.writeLong(taken);
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            out.writeByte(entry.kind);
+            ParsedFiles.writeString(out, entry.path);
+            if (entry.kind == FILE) {
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                out.writeLong(entry.checksum);
+                ParsedFiles.writeKeysAndValues(out, entry.properties);
+            }
+        }
+        out.flush();
+        ParsedFiles.write(file, bytes);
+    }
+
+    /**
+     * @return null: There is no snapshot, it is corrupt or was written by an incompatible version.
+     */
+    @Nullable
+    static NamespaceSnapshot read(@NotNull Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < 16 || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            final ByteBuffer buffer = ParsedFiles.verified(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            if (buffer == null || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                LOGGER.warn("Ignoring corrupt or incompatible snapshot {}", file);
+                return null;
+            }
+            final NamespaceSnapshot snapshot = new NamespaceSnapshot(ParsedFiles.readString(buffer), ParsedFiles.readString(buffer), ParsedFiles.readString(buffer));
+            snapshot.taken = buffer.getLong();
+            final int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                final byte kind = buffer.get();
+                final String path = ParsedFiles.readString(buffer);
+                if (kind == FILE) {
+                    final long fileSize = buffer.getLong();
+                    final long modified = buffer.getLong();
+                    final long checksum = buffer.getLong();
+                    snapshot.entries.add(new Entry(kind, path, fileSize, modified, checksum, ParsedFiles.readKeysAndValues(buffer)));
+                }
+                else {
+                    snapshot.entries.add(new Entry(kind, path, 0, 0, 0, null));
+                }
+            }
+            return snapshot;
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        catch (IOException | BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            LOGGER.warn("Ignoring unreadable snapshot {}", file, e);
+            return null;
+        }
+    }
+
+    @NotNull
+    private static String relative(@NotNull Path root, @NotNull Path path) {
+        final StringBuilder relative = new StringBuilder();
+        for (Path component : root.relativize(path)) {
+            if (relative.length() > 0) {
+                relative.append('/');
+            }
+            relative.append(component.toString());
+        }
+        return relative.toString();
+    }
+
+    /**
+     * @param relative The path of an {@link Entry}.
+     */
+    @NotNull
+    static Path resolve(@NotNull Path root, @NotNull String relative) {
+        Path path = root;
+        if (!relative.isEmpty()) {
+            for (String component : relative.split("/")) {
+                path = path.resolve(component);
+            }
+        }
+        return path;
+    }
+}
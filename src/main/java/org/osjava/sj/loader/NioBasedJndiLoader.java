@@ -1,20 +1,39 @@
 package org.osjava.sj.loader;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.jetbrains.annotations.NotNull;
+import org.osjava.sj.jndi.LazyContext;
+import org.osjava.sj.jndi.MemoryContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.naming.Context;
+import javax.naming.Name;
 import javax.naming.NamingException;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * @author Holger Thurow (thurow.h@gmail.com)
@@ -23,6 +42,21 @@ import java.util.Properties;
 public class NioBasedJndiLoader extends JndiLoader {
 
     private static Logger LOGGER = LoggerFactory.getLogger(NioBasedJndiLoader.class);
+    /** Number of threads parsing the files of a root directory concurrently. The parsed files are still bound one after another in the order they are found, so the resulting namespace is the same. Default is 1: Parse every file on the calling thread just before binding it. See {@link org.osjava.sj.SimpleJndi#ROOT_PARALLELISM} to load several roots concurrently. */
+    public static final String PARALLELISM = "org.osjava.sj.loader.parallelism";
+    /** true: Bind a {@link LazyContext} for every subdirectory of a root directory, which parses the directory's files when a lookup, list or bind first reaches into it. Default is false: Parse all files while loading. */
+    public static final String LAZY = "org.osjava.sj.loader.lazy";
+    /** A directory to keep a binary snapshot of every root directory in. A root directory is loaded from its snapshot without parsing its files as long as they did not change, see {@link NamespaceSnapshot}. Otherwise the files are parsed and the snapshot is written again. Not used with {@link #LAZY}. */
+    public static final String SNAPSHOT = "org.osjava.sj.loader.snapshot";
+    /** A directory to cache the properties parsed from every file in, shared by all JVMs configured with the same directory. A file is parsed again only when it changed, see {@link ParseCache}. Objects are still created from the cached properties on every load. */
+    public static final String PARSE_CACHE = "org.osjava.sj.loader.parseCache";
+    /** The charset of .ini files, e.g. "UTF-8". Default is the platform's default charset. */
+    public static final String INI_CHARSET = "org.osjava.sj.loader.ini.charset";
+    /** true: Remove double quotes or apostrophes surrounding values in .ini files, see {@link IniSJProperties#setUnquote(boolean)}. Default is false. */
+    public static final String INI_UNQUOTE = "org.osjava.sj.loader.ini.unquote";
+
+    /* One snapshot of the environment variables for ${sj.env:...} per load. */
+    private final VariableSubstitutor substitutor = new VariableSubstitutor(System.getenv());
 
     public NioBasedJndiLoader(final Hashtable env) {
         super(env);
@@ -43,6 +77,15 @@ public class NioBasedJndiLoader extends JndiLoader {
         }
     }
 
+    /**
+     * Keeps ctxt in sync with directory, after directory was loaded into ctxt by {@link #load(File, Context, boolean)}: Added, modified and removed .properties, .ini and .xml files are loaded again when no further change was seen for debounceMillis, and only the bindings defined differently are rebound or unbound. See {@link DirectoryWatcher}.
+     *
+     * @return The started watcher. Close it to stop watching.
+     */
+    public DirectoryWatcher watch(File directory, Context ctxt, long debounceMillis) throws IOException, NamingException {
+        return new DirectoryWatcher(this, new File(directory.getAbsolutePath()), ctxt, debounceMillis);
+    }
+
     /**
      *
      * @param rootDir name-separator has to be platform independent always "/"
@@ -59,13 +102,20 @@ public class NioBasedJndiLoader extends JndiLoader {
      *
      * @param preserveFileNameAsContextName Siehe {@link #load(File, Context, boolean)}. Can be false in case of root files.
      */
-    private void loadFile(final Path path, final Context ctxt, Context parentCtxt
+    void loadFile(final Path path, final Context ctxt, Context parentCtxt
             , final boolean preserveFileNameAsContextName) throws IOException, NamingException {
+        loadFile(path, toProperties(path), ctxt, parentCtxt, preserveFileNameAsContextName);
+    }
+
+    /**
+     * @param properties path parsed by {@link #toProperties(Path)}.
+     */
+    void loadFile(final Path path, final Properties properties, final Context ctxt, Context parentCtxt
+            , final boolean preserveFileNameAsContextName) throws NamingException {
         LOGGER.debug("Loading {}", path);
         String parentName  = path.getFileName().toString();
         parentName = handleColonReplacement(parentName);
         Context subContext = ctxt;
-        Properties properties = toProperties(path);
         String subName = null;
         if (isNotNamespacedTypeDefinition(properties)) {
             // preserve the file name as object name.
@@ -75,42 +125,232 @@ public class NioBasedJndiLoader extends JndiLoader {
         else if (!FilenameUtils.getBaseName(parentName).equals("default")) {
             parentName = FilenameUtils.getBaseName(parentName);
             if (preserveFileNameAsContextName) {
-                subContext = ctxt.createSubcontext(parentName);
+                // Merged with a subcontext of the same name loaded before, e.g. by another root.
+                subContext = ctxt instanceof MemoryContext
+                        ? ((MemoryContext) ctxt).getOrCreateSubcontext(parentName)
+                        : ctxt.createSubcontext(parentName);
                 parentCtxt = ctxt;
             }
             subName = parentName;
         }
-        load(properties, subContext, parentCtxt, subName);
+        load(properties, subContext, parentCtxt, subName, true);
     }
 
     // IMPROVE Diese Methode auch in FileBasedJndiLoader verwenden.
     public Properties toProperties(Path path) throws IOException {
+        return toProperties(path, true);
+    }
+
+    /**
+     * @param substitution See {@link SJProperties#setSubstitution(boolean)}.
+     */
+    private Properties toProperties(Path path, boolean substitution) throws IOException {
+        final String cacheDirectory = (String) environment.get(PARSE_CACHE);
+        if (cacheDirectory == null || path.getFileSystem() != FileSystems.getDefault()) {
+            try (InputStream stream = Files.newInputStream(path)){
+                return parse(path, stream, substitution);
+            }
+        }
+        final String delimiter = (String) environment.get(DELIMITER);
+        final ParseCache cache = new ParseCache(Paths.get(cacheDirectory), delimiter, parseOptions());
+        final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        List<String> keysAndValues = cache.get(path, attrs);
+        if (keysAndValues == null) {
+            final byte[] content = Files.readAllBytes(path);
+            final SJProperties properties = parse(path, new ByteArrayInputStream(content), false);
+            keysAndValues = ParsedFiles.keysAndValues(properties);
+            if (keysAndValues == null) {
+                LOGGER.debug("Not caching {}: Values other than Strings", path);
+                return substitution ? parse(path, new ByteArrayInputStream(content), true) : properties;
+            }
+            try {
+                cache.put(path, attrs, content, keysAndValues);
+            }
+            catch (IOException e) {
+                LOGGER.warn("Unable to cache {}", path, e);
+            }
+        }
+        else {
+            LOGGER.debug("Loading {} from parse cache", path);
+        }
+        return ParsedFiles.toProperties(keysAndValues, delimiter, substitution, substitutor);
+    }
+
+    /**
+     * @return The options besides {@link #DELIMITER} that what a file parses to depends on, to tell apart cached parse results. Add new parse options here.
+     */
+    String parseOptions() {
+        return INI_CHARSET + "=" + StringUtils.defaultString((String) environment.get(INI_CHARSET))
+                + "\n" + INI_UNQUOTE + "=" + BooleanUtils.toBoolean((String) environment.get(INI_UNQUOTE));
+    }
+
+    /**
+     * Override to parse files with custom {@link SJProperties}. Files parsed to keys or values other than Strings and Lists of Strings are neither cached with {@link #PARSE_CACHE} nor loaded from a {@link #SNAPSHOT}.
+     *
+     * @param substitution See {@link SJProperties#setSubstitution(boolean)}.
+     */
+    protected SJProperties parse(Path path, InputStream stream, boolean substitution) throws IOException {
         SJProperties properties;
 
         if(path.getFileName().toString().endsWith(".xml")) {
             properties = new XmlSJProperties();
         }
         else if(path.getFileName().toString().endsWith(".ini")) {
-            properties = new IniSJProperties();
+            final IniSJProperties ini = new IniSJProperties();
+            final String charset = (String) environment.get(INI_CHARSET);
+            if (charset != null) {
+                ini.setCharset(Charset.forName(charset));
+            }
+            ini.setUnquote(BooleanUtils.toBoolean((String) environment.get(INI_UNQUOTE)));
+            properties = ini;
         }
         else {
             properties = new CustomSJProperties();
         }
 
         properties.setDelimiter( (String) environment.get(DELIMITER) );
+        properties.setSubstitutor(substitutor);
+        properties.setSubstitution(substitution);
+        properties.load(stream);
+        return properties;
+    }
+
+    /**
+     * Loads all .properties", .ini, .xml files in a directory into a context. With {@link #LAZY} the files in subdirectories are loaded later, see {@link #bindLazy(Path, Context)}.
+     */
+    private void loadDirectory(final File directory, final String platformSpecificRootDir, final Context ctxt, final Context parentCtxt, final String subName) throws NamingException, IOException {
+
+        final MySimpleFileVisitor visitor = new MySimpleFileVisitor(platformSpecificRootDir, ctxt, "", false);
+        final boolean lazy = BooleanUtils.toBoolean((String) environment.get(LAZY));
+        final Path snapshotFile = lazy ? null : snapshotFile(directory);
+        if (snapshotFile != null) {
+            final String delimiter = (String) environment.get(DELIMITER);
+            final NamespaceSnapshot snapshot = NamespaceSnapshot.read(snapshotFile);
+            if (snapshot != null && snapshot.isCurrent(directory.toPath(), delimiter, parseOptions())) {
+                LOGGER.debug("Loading {} from snapshot {}", directory, snapshotFile);
+                replay(snapshot, directory.toPath(), visitor);
+                return;
+            }
+            visitor.recording = new NamespaceSnapshot(directory.getAbsolutePath(), delimiter, parseOptions());
+        }
+        // Subdirectories are passed to visitFile() then.
+        final int maxDepth = lazy ? 1 : Integer.MAX_VALUE;
+        final int parallelism = NumberUtils.toInt((String) environment.get(PARALLELISM), 1);
+        if (parallelism > 1) {
+            final ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NotNull Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Simple-JNDI parser " + directory.getName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                visitor.parsed = parse(directory.toPath(), maxDepth, visitor.recording == null, executor);
+                walk(directory.toPath(), maxDepth, visitor);
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+        else {
+            walk(directory.toPath(), maxDepth, visitor);
+        }
+        if (visitor.recording != null && visitor.recording.isComplete()) {
+            try {
+                visitor.recording.write(snapshotFile);
+            }
+            catch (IOException e) {
+                LOGGER.warn("Unable to write snapshot {}", snapshotFile, e);
+            }
+        }
+    }
+
+    /**
+     * @return null: {@link #SNAPSHOT} is not set.
+     */
+    private Path snapshotFile(File directory) {
+        final String snapshots = (String) environment.get(SNAPSHOT);
+        if (snapshots == null) {
+            return null;
+        }
+        final String path = directory.getAbsolutePath();
+        return Paths.get(snapshots, directory.getName() + "-" + Integer.toHexString(path.hashCode()) + ".snapshot");
+    }
 
-        try (InputStream stream = Files.newInputStream(path)){
-            properties.load(stream);
-            return properties;
+    /**
+     * Loads the files of root as recorded by snapshot, in the order they were found when the snapshot was taken.
+     */
+    private void replay(NamespaceSnapshot snapshot, Path root, MySimpleFileVisitor visitor) {
+        for (NamespaceSnapshot.Entry entry : snapshot.getEntries()) {
+            final Path path = NamespaceSnapshot.resolve(root, entry.path);
+            switch (entry.kind) {
+                case NamespaceSnapshot.ENTER:
+                    visitor.enterDirectory(path);
+                    break;
+                case NamespaceSnapshot.FILE:
+                    visitor.loadFile(path, snapshot.toProperties(entry, substitutor));
+                    break;
+                default:
+                    visitor.exitDirectory(path);
+            }
         }
     }
 
+    private static void walk(Path directory, int maxDepth, FileVisitor<Path> visitor) throws IOException {
+        Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), maxDepth, visitor);
+    }
+
     /**
-     * Loads all .properties", .ini, .xml files in a directory into a context.
+     * Binds a {@link LazyContext} for directory, which loads directory by {@link #loadDirectory(File, String, Context, Context, String)} on first use.
      */
-    private void loadDirectory(File directory, final String platformSpecificRootDir, final Context ctxt, final Context parentCtxt, final String subName) throws NamingException, IOException {
+    private void bindLazy(final Path directory, final Context ctxt) throws NamingException {
+        String subCtxName = directory.getFileName().toString();
+        if (subCtxName.equals(".svn") || subCtxName.equals("CVS")) {
+            return;
+        }
+        subCtxName = handleColonReplacement(subCtxName);
+        final Name nameInNamespace = ctxt.getNameParser("").parse(ctxt.getNameInNamespace());
+        nameInNamespace.add(subCtxName);
+        ctxt.bind(subCtxName, new LazyContext(ctxt.getEnvironment(), nameInNamespace) {
+            @Override
+            protected void load(@NotNull Context context) throws NamingException {
+                LOGGER.debug("Loading {} lazily", directory);
+                try {
+                    loadDirectory(directory.toFile(), directory.toString(), context, null, "");
+                }
+                catch (IOException e) {
+                    final NamingException namingException = new NamingException("Unable to load: " + directory);
+                    namingException.setRootCause(e);
+                    throw namingException;
+                }
+            }
+        });
+    }
 
-        Files.walkFileTree(directory.toPath(), new MySimpleFileVisitor(platformSpecificRootDir, ctxt, "", false));
+    /**
+     * Submits every file below directory to executor for parsing by {@link #toProperties(Path)}.
+     *
+     * @return The parsed files by path.
+     */
+    private Map<Path, Future<Properties>> parse(Path directory, int maxDepth, final boolean substitution, final ExecutorService executor) throws IOException {
+        final Map<Path, Future<Properties>> parsed = new HashMap<>();
+        walk(directory, maxDepth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+                if (attrs.isDirectory()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                parsed.put(path, executor.submit(new Callable<Properties>() {
+                    @Override
+                    public Properties call() throws IOException {
+                        return toProperties(path, substitution);
+                    }
+                }));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return parsed;
     }
 
     class MySimpleFileVisitor extends SimpleFileVisitor<Path> {
@@ -120,6 +360,10 @@ public class NioBasedJndiLoader extends JndiLoader {
         private final String subName;
         private final ArrayList<Context> contexts = new ArrayList<>();
         private final boolean preserveRootFileNameAsContextName;
+        /* Files already submitted for parsing in parallel. */
+        private Map<Path, Future<Properties>> parsed;
+        /* Not null: Records the walk. The files are parsed without substitution then. */
+        private NamespaceSnapshot recording;
 
         MySimpleFileVisitor(String platformSpecificRootDir, final Context ctxt, final String subName, final boolean preserveRootFileNameAsContextName) {
             if (StringUtils.endsWith(platformSpecificRootDir, File.separator)) {
@@ -135,43 +379,124 @@ public class NioBasedJndiLoader extends JndiLoader {
         @Override
         public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
             LOGGER.debug("preVisitDirectory: {}", dir);
+            if (recording != null) {
+                recording.enter(Paths.get(platformSpecificRootDir), dir);
+            }
+            enterDirectory(dir);
+            return super.preVisitDirectory(dir, attrs);
+        }
+
+        void enterDirectory(final Path dir) {
             String dirString = dir.toString(); // dirString is platform specific
             if (StringUtils.endsWith(dirString, File.separator)) {
                 dirString = dirString.substring(0, dirString.length() - 1);
             }
             if (!platformSpecificRootDir.equals(dirString)) {
+                final Context parent = contexts.get(contexts.size() - 1);
+                Context subContext = null;
                 try {
 //                    CompoundName compoundName = toCompoundName(dirString);
 //                    String subCtxName = compoundName.get(compoundName.size() - 1);
                     String[] parts = StringUtils.split(dirString, File.separatorChar);
                     String subCtxName = parts[parts.length - 1];
-                    if (!subCtxName.equals(".svn") && !subCtxName.equals("CVS")) {
+                    if (parent != null && !subCtxName.equals(".svn") && !subCtxName.equals("CVS")) {
                         subCtxName = handleColonReplacement(subCtxName);
-                        contexts.add(contexts.get(contexts.size() - 1).createSubcontext(subCtxName));
+                        // Merged with a subcontext of the same name loaded before, e.g. by another root.
+                        subContext = parent instanceof MemoryContext
+                                ? ((MemoryContext) parent).getOrCreateSubcontext(subCtxName)
+                                : parent.createSubcontext(subCtxName);
                     }
                 }
                 catch (NamingException e) {
                     LOGGER.error("", e);
                 }
+                // null: The files below dir are skipped. Pushed anyway, as exitDirectory() pops it.
+                contexts.add(subContext);
             }
-            return super.preVisitDirectory(dir, attrs);
         }
 
         @Override
         public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) throws IOException {
+            if (attrs.isDirectory()) {
+                if (contexts.get(contexts.size() - 1) == null) {
+                    return FileVisitResult.CONTINUE;
+                }
+                try {
+                    bindLazy(path, contexts.get(contexts.size() - 1));
+                }
+                catch (NamingException e) {
+                    LOGGER.error("path: {} ctxt: {} subName: {}", path, ctxt, subName);
+                    LOGGER.error("", e);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            Properties properties;
+            try {
+                properties = toParsedProperties(path);
+            }
+            catch (IniParser.MalformedIniException e) {
+                LOGGER.error("Skipping {}: {}", path, e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+            if (recording != null) {
+                if (recording.file(Paths.get(platformSpecificRootDir), path, attrs, properties)) {
+                    final List<NamespaceSnapshot.Entry> entries = recording.getEntries();
+                    // Substituted like when loaded from the snapshot.
+                    properties = recording.toProperties(entries.get(entries.size() - 1), substitutor);
+                }
+                else {
+                    LOGGER.warn("Not writing a snapshot of {}: {} has values other than Strings", platformSpecificRootDir, path);
+                    properties = toProperties(path, true);
+                }
+            }
+            loadFile(path, properties);
+            return super.visitFile(path, attrs);
+        }
+
+        void loadFile(final Path path, final Properties properties) {
+            if (contexts.get(contexts.size() - 1) == null) {
+                LOGGER.debug("Skipping {}: Directory not loaded", path);
+                return;
+            }
             try {
                 if (path.toString().equals(platformSpecificRootDir)) {
-                    loadFile(path, contexts.get(contexts.size() - 1), null, preserveRootFileNameAsContextName);
+                    NioBasedJndiLoader.this.loadFile(path, properties, contexts.get(contexts.size() - 1), null, preserveRootFileNameAsContextName);
                 }
                 else {
-                    loadFile(path, contexts.get(contexts.size() - 1), null, true);
+                    NioBasedJndiLoader.this.loadFile(path, properties, contexts.get(contexts.size() - 1), null, true);
                 }
             }
             catch (NamingException e) {
                 LOGGER.error("path: {} ctxt: {} subName: {}", path, ctxt, subName);
                 LOGGER.error("", e);
             }
-            return super.visitFile(path, attrs);
+        }
+
+        /**
+         * @return The properties parsed in parallel, if path was found when the parsing was started. Otherwise path is parsed now.
+         */
+        private Properties toParsedProperties(Path path) throws IOException {
+            final Future<Properties> future = parsed != null ? parsed.remove(path) : null;
+            if (future == null) {
+                return toProperties(path, recording == null);
+            }
+            try {
+                return future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while parsing " + path);
+            }
+            catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw (Error) cause;
+            }
         }
 
         @Override
@@ -183,10 +508,17 @@ public class NioBasedJndiLoader extends JndiLoader {
         @Override
         public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
             LOGGER.debug("postVisitDirectory: {}", dir);
+            if (recording != null) {
+                recording.exit(Paths.get(platformSpecificRootDir), dir);
+            }
+            exitDirectory(dir);
+            return super.postVisitDirectory(dir, exc);
+        }
+
+        void exitDirectory(final Path dir) {
             if (!platformSpecificRootDir.equals(dir.toString())) {
                 contexts.remove(contexts.size() - 1);
             }
-            return super.postVisitDirectory(dir, exc);
         }
     }
 }
@@ -0,0 +1,138 @@
+package org.osjava.sj.loader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The properties parsed from single files, kept in a directory shared by all JVMs configured with the same {@link NioBasedJndiLoader#PARSE_CACHE}. Every file parsed gets an entry of its own, named by the SHA-256 hash of the file's absolute path, the {@link JndiLoader#DELIMITER} and the other options the parsed properties depend on, see {@link NioBasedJndiLoader#parseOptions()}. The entry holds the file's size, modification time, CRC-32 checksum and its properties as parsed without substitution.
+ * <p>
+ * An entry is valid while the file has the same size and modification time, which costs reading the file's attributes only. If the modification time differs, or is too close to the time the entry was written to tell later changes apart, the file's checksum decides. Entries are replaced atomically, see {@link ParsedFiles}. Concurrent JVMs may parse the same file and write the same entry, the last one wins. A corrupt entry is treated like a missing one.
+ */
+final class ParseCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParseCache.class);
+    /* "SJPC" */
+    private static final int MAGIC = 0x534A5043;
+    private static final int VERSION = 2;
+    /* Coarsest modification time resolution of common file systems (FAT). */
+    private static final long RACY_MILLIS = 2000;
+
+    private final Path directory;
+    private final String delimiter;
+    private final String options;
+
+    /**
+     * @param options See {@link NioBasedJndiLoader#parseOptions()}.
+     */
+    ParseCache(@NotNull Path directory, @NotNull String delimiter, @NotNull String options) {
+        this.directory = directory;
+        this.delimiter = delimiter;
+        this.options = options;
+    }
+
+    /**
+     * @param attrs The attributes of file, read before its content.
+     * @return The keys and values parsed from file, see {@link ParsedFiles#keysAndValues(java.util.Properties)}. null: Not cached or file changed since.
+     */
+    @Nullable
+    List<String> get(@NotNull Path file, @NotNull BasicFileAttributes attrs) throws IOException {
+        final Path entry = entry(file);
+        final ByteBuffer buffer;
+        try {
+            buffer = ParsedFiles.verified(ByteBuffer.wrap(Files.readAllBytes(entry)));
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        if (buffer == null) {
+            LOGGER.warn("Ignoring corrupt parse cache entry {}", entry);
+            return null;
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || !ParsedFiles.readString(buffer).equals(file.toAbsolutePath().toString())
+                    || !ParsedFiles.readString(buffer).equals(delimiter)
+                    || !ParsedFiles.readString(buffer).equals(options)) {
+                return null;
+            }
+            final long size = buffer.getLong();
+            final long modified = buffer.getLong();
+            final long written = buffer.getLong();
+            final long checksum = buffer.getLong();
+            if (size != attrs.size()) {
+                return null;
+            }
+            if ((modified != attrs.lastModifiedTime().toMillis() || modified + RACY_MILLIS > written)
+                    && checksum != ParsedFiles.checksum(file)) {
+                return null;
+            }
+            return ParsedFiles.readKeysAndValues(buffer);
+        }
+        catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            LOGGER.warn("Ignoring unreadable parse cache entry {}", entry, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param attrs The attributes of file, read before content.
+     * @param content The content of file, keysAndValues were parsed from.
+     */
+    void put(@NotNull Path file, @NotNull BasicFileAttributes attrs, @NotNull byte[] content, @NotNull List<String> keysAndValues) throws IOException {
+        final CRC32 checksum = new CRC32();
+        checksum.update(content);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        ParsedFiles.writeString(out, file.toAbsolutePath().toString());
+        ParsedFiles.writeString(out, delimiter);
+        ParsedFiles.writeString(out, options);
+        out.writeLong(attrs.size());
+        out.writeLong(attrs.lastModifiedTime().toMillis());
+        out.writeLong(System.currentTimeMillis());
+        out.writeLong(checksum.getValue());
+        ParsedFiles.writeKeysAndValues(out, keysAndValues);
+        out.flush();
+        ParsedFiles.write(entry(file), bytes);
+    }
+
+    @NotNull
+    Path entry(@NotNull Path file) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256.
+            throw new IllegalStateException(e);
+        }
+        digest.update(file.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(delimiter.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(options.getBytes(StandardCharsets.UTF_8));
+        final StringBuilder name = new StringBuilder();
+        for (byte b : digest.digest()) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return directory.resolve(name.append(".parsed").toString());
+    }
+}
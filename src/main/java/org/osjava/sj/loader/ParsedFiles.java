@@ -0,0 +1,154 @@
+package org.osjava.sj.loader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Stores parsed files for {@link NamespaceSnapshot} and {@link ParseCache}. Properties are stored as they were parsed without substitution, see {@link SJProperties#setSubstitution(boolean)}, as a flat list of keys and values. Files written end with a CRC-32 of their content and are replaced atomically, so readers in other JVMs see either the previous or the new file, and a file written otherwise is detected as corrupt.
+ */
+final class ParsedFiles {
+
+    private ParsedFiles() { }
+
+    /**
+     * @param properties Parsed without substitution.
+     * @return Keys and values in the order parsed. A key with more than one value is repeated. null: properties contains keys or values other than Strings and Lists of Strings, e.g. parsed by a custom {@link SJProperties}, which cannot be stored.
+     */
+    @Nullable
+    static List<String> keysAndValues(@NotNull Properties properties) {
+        final List<String> keysAndValues = new ArrayList<String>();
+        for (Object key : properties.keySet()) {
+            final Object value = properties.get(key);
+            final List values = value instanceof List ? (List) value : Collections.singletonList(value);
+            for (Object v : values) {
+                if (!(key instanceof String) || !(v instanceof String)) {
+                    return null;
+                }
+                keysAndValues.add((String) key);
+                keysAndValues.add((String) v);
+            }
+        }
+        return keysAndValues;
+    }
+
+    /**
+     * @param keysAndValues See {@link #keysAndValues(Properties)}.
+     * @param substitution true: Substitute ${sj.sys:...} and ${sj.env:...} variables now.
+     */
+    @NotNull
+    static Properties toProperties(@NotNull List<String> keysAndValues, @NotNull String delimiter, boolean substitution, @NotNull VariableSubstitutor substitutor) {
+        final SJProperties properties = new CustomSJProperties();
+        properties.setDelimiter(delimiter);
+        properties.setSubstitutor(substitutor);
+        properties.setSubstitution(substitution);
+        for (int i = 0; i < keysAndValues.size(); i += 2) {
+            properties.put(keysAndValues.get(i), keysAndValues.get(i + 1));
+        }
+        return properties;
+    }
+
+    static void writeKeysAndValues(@NotNull DataOutputStream out, @NotNull List<String> keysAndValues) throws IOException {
+        out.writeInt(keysAndValues.size());
+        for (String s : keysAndValues) {
+            writeString(out, s);
+        }
+    }
+
+    @NotNull
+    static List<String> readKeysAndValues(@NotNull ByteBuffer buffer) {
+        final int n = buffer.getInt();
+        final List<String> keysAndValues = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) {
+            keysAndValues.add(readString(buffer));
+        }
+        return keysAndValues;
+    }
+
+    static void writeString(@NotNull DataOutputStream out, @NotNull String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @NotNull
+    static String readString(@NotNull ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends the CRC-32 of bytes and writes them to a temporary file first, which is then moved to file.
+     */
+    static void write(@NotNull Path file, @NotNull ByteArrayOutputStream bytes) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        final Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream stream = Files.newOutputStream(temp)) {
+                bytes.writeTo(stream);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @param buffer The content of a file written by {@link #write(Path, ByteArrayOutputStream)}.
+     * @return buffer without the CRC-32 at its end. null: The CRC-32 does not match.
+     */
+    @Nullable
+    static ByteBuffer verified(@NotNull ByteBuffer buffer) {
+        final int size = buffer.limit();
+        if (size < 8) {
+            return null;
+        }
+        final ByteBuffer content = buffer.duplicate();
+        content.limit(size - 8);
+        final CRC32 crc = new CRC32();
+        crc.update(content.duplicate());
+        return crc.getValue() == buffer.getLong(size - 8) ? content : null;
+    }
+
+    static long checksum(@NotNull Path file) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+}
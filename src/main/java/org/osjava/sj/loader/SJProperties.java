@@ -32,8 +32,6 @@
 
 package org.osjava.sj.loader;
 
-import org.apache.commons.lang3.text.StrLookup;
-import org.apache.commons.lang3.text.StrSubstitutor;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
@@ -44,10 +42,11 @@ import java.util.*;
 public class SJProperties extends Properties {
 
     private String delimiter = ".";
-    // our index for the ordering
-    protected ArrayList index = new ArrayList();
+    // our index for the ordering. Hash based to put and look up keys in constant time, also in files with many keys.
+    protected final LinkedHashSet index = new LinkedHashSet();
     
-    private final StrSubstitutor substitutor;
+    private VariableSubstitutor substitutor;
+    private boolean substitution = true;
 
     SJProperties() {
         this(null);
@@ -60,8 +59,13 @@ public class SJProperties extends Properties {
      */
     SJProperties(Properties defaults) {
         super(defaults);
-        substitutor = new StrSubstitutor(StrLookup.systemPropertiesLookup());
-        substitutor.setVariablePrefix("${sj.sys:");
+    }
+
+    /**
+     * @param substitutor Shared by all properties of a load, see {@link NioBasedJndiLoader}. Default is a substitutor of its own, with the environment as it is on the first value substituted.
+     */
+    void setSubstitutor(@NotNull VariableSubstitutor substitutor) {
+        this.substitutor = substitutor;
     }
 
     public void setDelimiter(String delimiter) {
@@ -72,12 +76,22 @@ public class SJProperties extends Properties {
         return this.delimiter;
     }
 
+    /**
+     * @param substitution false: Keep ${sj.sys:...} and ${sj.env:...} variables in values, e.g. to store the values and substitute them when loading them again.
+     */
+    void setSubstitution(boolean substitution) {
+        this.substitution = substitution;
+    }
+
     @Override
     public synchronized Object put(Object key, Object value) {
-        if (value instanceof String) {
-            value = substitutor.replace(value);
+        if (substitution && value instanceof String) {
+            if (substitutor == null) {
+                substitutor = new VariableSubstitutor(System.getenv());
+            }
+            value = substitutor.replace((String) value);
         }
-        if(index.contains(key)) {
+        if(!index.add(key)) {
             Object obj = get(key);
             if( !(obj instanceof List)) {
                 List list = new LinkedList();
@@ -87,9 +101,6 @@ public class SJProperties extends Properties {
             ((List)obj).add(value);
             value = obj;
         }
-        if(!index.contains(key)) {
-            index.add(key);
-        }
         return super.put(key, value);
     }
 
@@ -103,6 +114,12 @@ public class SJProperties extends Properties {
         index.remove(key);
         return super.remove(key);
     }
+
+    @Override
+    public synchronized void clear() {
+        index.clear();
+        super.clear();
+    }
     
     // simple implementation that depends on keySet.
     @Override
@@ -114,10 +131,13 @@ public class SJProperties extends Properties {
         return propertyNames();
     }
 
+    /**
+     * @return A copy of the keys in insertion order, so the properties may be changed while iterating it.
+     */
     @NotNull
     @Override
     public synchronized Set keySet() {
-        return new OrderedSet(index);
+        return new LinkedHashSet(index);
     }
  
 }
@@ -0,0 +1,171 @@
+package org.osjava.sj.loader;
+
+import org.apache.commons.lang3.text.StrLookup;
+import org.apache.commons.lang3.text.StrSubstitutor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Substitutes ${sj.sys:name} with the system property "name" and ${sj.env:name} with the environment variable "name" in values of {@link SJProperties}. Variables without value are kept.
+ * <p>
+ * Values without "${sj." are returned after a single scan. Others are compiled into a {@link Template} of literal text and variables once, which is cached for all values alike. The cache keeps the templates used last, up to a fixed number. One instance serves all files of a load, see {@link NioBasedJndiLoader}, and may be used by several threads. Values using escapes ($${sj.sys:name}), default values (${sj.sys:name:-default}), nested variables or resolving to other variables are substituted by {@link StrSubstitutor} instead.
+ */
+final class VariableSubstitutor {
+
+    static final String SYS_PREFIX = "${sj.sys:";
+    static final String ENV_PREFIX = "${sj.env:";
+    private static final String MARKER = "${sj.";
+    static final int MAX_TEMPLATES = 4096;
+    /* Cached for values not to compile. */
+    private static final Template NOT_COMPILED = new Template(new String[0], new String[0], new boolean[0]);
+
+    private final Map<String, String> environment;
+    private final Map<String, Template> templates = Collections.synchronizedMap(new LinkedHashMap<String, Template>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+            return size() > MAX_TEMPLATES;
+        }
+    });
+    private StrSubstitutor sysSubstitutor;
+    private StrSubstitutor envSubstitutor;
+
+    /**
+     * @param environment The environment variables ${sj.env:...} is resolved from, e.g. {@link System#getenv()}.
+     */
+    VariableSubstitutor(@NotNull Map<String, String> environment) {
+        this.environment = environment;
+    }
+
+    @NotNull
+    String replace(@NotNull String value) {
+        if (!value.contains(MARKER)) {
+            return value;
+        }
+        Template template = templates.get(value);
+        if (template == null) {
+            template = compile(value);
+            if (template == null) {
+                template = NOT_COMPILED;
+            }
+            templates.put(value, template);
+        }
+        if (template != NOT_COMPILED) {
+            final String replaced = template.replace(environment);
+            if (replaced != null) {
+                return replaced;
+            }
+        }
+        return substitute(value);
+    }
+
+    /**
+     * @return The number of templates cached.
+     */
+    int cachedTemplates() {
+        return templates.size();
+    }
+
+    /**
+     * Substitutes value with {@link StrSubstitutor}, the way values were substituted before templates.
+     */
+    @NotNull
+    private synchronized String substitute(@NotNull String value) {
+        if (sysSubstitutor == null) {
+            sysSubstitutor = new StrSubstitutor(StrLookup.systemPropertiesLookup());
+            sysSubstitutor.setVariablePrefix(SYS_PREFIX);
+            envSubstitutor = new StrSubstitutor(StrLookup.mapLookup(environment));
+            envSubstitutor.setVariablePrefix(ENV_PREFIX);
+        }
+        return envSubstitutor.replace(sysSubstitutor.replace(value));
+    }
+
+    /**
+     * @return null: To be substituted by {@link StrSubstitutor}.
+     */
+    @Nullable
+    static Template compile(@NotNull String value) {
+        final List<String> literals = new ArrayList<String>();
+        final List<String> names = new ArrayList<String>();
+        final List<Boolean> env = new ArrayList<Boolean>();
+        int from = 0;
+        while (true) {
+            final int sys = value.indexOf(SYS_PREFIX, from);
+            final int envVariable = value.indexOf(ENV_PREFIX, from);
+            final int start = sys < 0 || envVariable >= 0 && envVariable < sys ? envVariable : sys;
+            if (start < 0) {
+                break;
+            }
+            if (start > 0 && value.charAt(start - 1) == '$') {
+                return null;
+            }
+            final int nameStart = start + SYS_PREFIX.length();
+            final int end = value.indexOf('}', nameStart);
+            if (end < 0) {
+                break;
+            }
+            final String name = value.substring(nameStart, end);
+            if (name.contains("${") || name.contains(":-")) {
+                return null;
+            }
+            literals.add(value.substring(from, start));
+            names.add(name);
+            env.add(start == envVariable);
+            from = end + 1;
+        }
+        literals.add(value.substring(from));
+        final boolean[] isEnv = new boolean[env.size()];
+        for (int i = 0; i < isEnv.length; i++) {
+            isEnv[i] = env.get(i);
+        }
+        return new Template(literals.toArray(new String[literals.size()]), names.toArray(new String[names.size()]), isEnv);
+    }
+
+    /**
+     * A value split into literal text and variables: literals[0], variable names[0], literals[1], ..., literals[n].
+     */
+    static final class Template {
+        private final String[] literals;
+        private final String[] names;
+        private final boolean[] env;
+
+        private Template(String[] literals, String[] names, boolean[] env) {
+            this.literals = literals;
+            this.names = names;
+            this.env = env;
+        }
+
+        /**
+         * @return null: A variable resolved to a value containing other variables.
+         */
+        @Nullable
+        String replace(@NotNull Map<String, String> environment) {
+            final StringBuilder replaced = new StringBuilder(literals[0]);
+            for (int i = 0; i < names.length; i++) {
+                String resolved;
+                try {
+                    resolved = env[i] ? environment.get(names[i]) : System.getProperty(names[i]);
+                }
+                catch (SecurityException e) {
+                    resolved = null;
+                }
+                if (resolved == null) {
+                    replaced.append(env[i] ? ENV_PREFIX : SYS_PREFIX).append(names[i]).append('}');
+                }
+                else if (resolved.contains(MARKER)) {
+                    return null;
+                }
+                else {
+                    replaced.append(resolved);
+                }
+                replaced.append(literals[i + 1]);
+            }
+            return replaced.toString();
+        }
+    }
+}
@@ -32,21 +32,28 @@
 
 package org.osjava.sj.loader;
 
-import org.w3c.dom.*;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 /**
- * Loads properties using the DOM API from an InputStream containing XML
+ * Loads properties using the StAX API from an InputStream containing XML. The document is streamed, so its size is not limited by the heap.
+ * <p>
+ * Every text is stored under the names of the elements enclosing it, joined by the delimiter, e.g. "config.one.two". Text interrupted by comments, processing instructions or child elements is stored in parts, resulting in a List. Blank text and CDATA sections are ignored. Attributes are stored after the content of their element, sorted by name, e.g. "config.four.name". Attributes of the root element are ignored.
  */
 public class XmlSJProperties extends SJProperties {
 
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+    private static final XMLInputFactory FACTORY = createFactory();
+
     public XmlSJProperties() {
         super();
     }
@@ -55,64 +62,96 @@ public class XmlSJProperties extends SJProperties {
         super(props);
     }
 
+    private static XMLInputFactory createFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Qualified names and xmlns attributes as they are written.
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        if (factory.isPropertySupported(REPORT_CDATA)) {
+            factory.setProperty(REPORT_CDATA, true);
+        }
+        return factory;
+    }
+
     @Override
     public void load(InputStream in) throws IOException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = null;
-        Document document = null;
-        
+        XMLStreamReader reader = null;
         try {
-            builder = factory.newDocumentBuilder();
-            document = builder.parse(in);            
-        } catch (ParserConfigurationException pce) {
-            throw new IOException("Unable to get DocumentBuilder from factory. " + pce.getMessage());
-        } 
-        catch (SAXException se) {
-            throw new IOException("Unable to parse document. " + se.getMessage());
+            reader = FACTORY.createXMLStreamReader(in);
+            load(reader);
+        }
+        catch (XMLStreamException e) {
+            throw new IOException("Unable to parse document. " + e.getMessage());
         }
-        
-        if (document != null) {
-            loadDocument(document);
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (XMLStreamException ignore) { }
+            }
         }
     }
 
-    private void loadDocument(Document document) {
-        Element root = document.getDocumentElement();
-        String level = root.getNodeName();
-        processChildren(level, root);
-    }
-    
-    private void processChildren(String level, Node node) {
-        NodeList children = node.getChildNodes();
-        for(int i=0;i<children.getLength();i++) {
-            Node child = children.item(i);
-            addNode(level, child);
-            if (child.hasAttributes()) {
-                String attributeLevel = level + getDelimiter() + child.getNodeName();
-                addAttributes(attributeLevel, child.getAttributes());
+    private void load(XMLStreamReader reader) throws XMLStreamException {
+        // The names of the enclosing elements, joined by the delimiter.
+        final StringBuilder path = new StringBuilder();
+        // Per enclosing element: The length of path before its name was appended, and its attributes.
+        final List<Integer> lengths = new ArrayList<Integer>();
+        final List<Map<String, String>> attributes = new ArrayList<Map<String, String>>();
+        final StringBuilder text = new StringBuilder();
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+                text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                continue;
+            }
+            if (text.length() > 0) {
+                store(path.toString(), text.toString());
+                text.setLength(0);
+            }
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    lengths.add(path.length());
+                    if (lengths.size() > 1) {
+                        path.append(getDelimiter());
+                    }
+                    attributes.add(lengths.size() > 1 ? sortedAttributes(reader) : null);
+                    path.append(qualifiedName(reader.getPrefix(), reader.getLocalName()));
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    final int last = lengths.size() - 1;
+                    final Map<String, String> attrs = attributes.remove(last);
+                    if (attrs != null) {
+                        final int length = path.length();
+                        for (Map.Entry<String, String> attr : attrs.entrySet()) {
+                            path.append(getDelimiter()).append(attr.getKey());
+                            store(path.toString(), attr.getValue());
+                            path.setLength(length);
+                        }
+                    }
+                    path.setLength(lengths.remove(last));
+                    break;
             }
         }
     }
-    
-    private void addNode(String level, Node node) {            
-        switch (node.getNodeType()) {
-            case Node.ELEMENT_NODE :
-                level = level + getDelimiter() + node.getNodeName();
-                break;
-            case Node.TEXT_NODE :
-                store(level, node.getNodeValue());
-                break;
+
+    /**
+     * @return null: The element has no attributes.
+     */
+    private static Map<String, String> sortedAttributes(XMLStreamReader reader) {
+        final int count = reader.getAttributeCount();
+        if (count == 0) {
+            return null;
+        }
+        final Map<String, String> attributes = new TreeMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            attributes.put(qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
         }
-                     
-        processChildren(level, node);        
+        return attributes;
     }
 
-    private void addAttributes(String level, NamedNodeMap map) {
-        for(int i=0;i<map.getLength();i++) {
-            Node attribute = map.item(i);
-            String attributeLevel = level + getDelimiter() + attribute.getNodeName();
-            store(attributeLevel, attribute.getNodeValue());
-        }          
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
     }
 
     private void store(String name, String value) {
@@ -120,4 +159,4 @@ public class XmlSJProperties extends SJProperties {
             setProperty(name, value);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,241 @@
+package org.osjava.sj;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osjava.sj.jndi.MemoryContext;
+import org.osjava.sj.loader.NioBasedJndiLoader;
+
+import javax.naming.Binding;
+import javax.naming.ConfigurationException;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.Name;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests loading several roots concurrently with {@link SimpleJndi#ROOT_PARALLELISM}.
+ */
+public class ConcurrentRootsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Hashtable<String, String> env(String... roots) {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put("java.naming.factory.initial", "org.osjava.sj.SimpleContextFactory");
+        env.put("org.osjava.sj.delimiter", "/");
+        env.put("org.osjava.sj.space", "java:comp/env");
+        env.put(SimpleJndi.ROOT_PARALLELISM, "4");
+        final StringBuilder root = new StringBuilder();
+        for (String name : roots) {
+            if (root.length() > 0) {
+                root.append(File.pathSeparator);
+            }
+            root.append(new File(folder.getRoot(), name).getPath());
+        }
+        env.put(SimpleJndi.ROOT, root.toString());
+        return env;
+    }
+
+    private void write(String name, String content) throws IOException {
+        final File file = new File(folder.getRoot(), name);
+        file.getParentFile().mkdirs();
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void merged() throws Exception {
+        write("shared/jdbc/orders.properties", "url=jdbc:h2:mem:orders\n");
+        write("region/jdbc/customers.properties", "url=jdbc:h2:mem:customers\n");
+        write("app/settings.properties", "size=1\n");
+        final InitialContext ctx = new InitialContext(env("shared", "region", "app"));
+        try {
+            assertEquals("jdbc:h2:mem:orders", ctx.lookup("java:comp/env/jdbc/orders/url"));
+            assertEquals("jdbc:h2:mem:customers", ctx.lookup("java:comp/env/jdbc/customers/url"));
+            assertEquals("1", ctx.lookup("java:comp/env/settings/size"));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void mergedSeparatorInName() throws Exception {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put("jndi.syntax.escape", "\\");
+        final MemoryContext first = new MemoryContext(env);
+        final MemoryContext second = new MemoryContext(env);
+        final MemoryContext target = new MemoryContext(env);
+        try {
+            // One component containing the separator, listed as "a\/b".
+            final Name name = first.getNameParser("").parse("");
+            name.add("a/b");
+            first.bind(name, "first");
+            second.bind(name, "second");
+            second.bind("c", "second");
+            final RootMerger merger = new RootMerger("/");
+            merger.add("first", first);
+            merger.add("second", second);
+            merger.merge(target, false);
+            assertEquals("first", target.lookup(name));
+            final Map<String, Object> bindings = new TreeMap<String, Object>();
+            collect(target, "", bindings);
+            assertEquals("{a\\/b=first, c=second}", bindings.toString());
+        }
+        finally {
+            first.close();
+            second.close();
+            target.close();
+        }
+    }
+
+    @Test
+    public void sameAsSequential() throws Exception {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put("org.osjava.sj.root",
+                "src/test/resources/roots/fileAsRoot.cfg" + File.pathSeparator +
+                "src/test/resources/roots/shareContext1/directory1/directory1_file1.properties" + File.pathSeparator +
+                "src/test/resources/roots/multiValueAttributes");
+        env.put("java.naming.factory.initial", "org.osjava.sj.SimpleContextFactory");
+        env.put("org.osjava.sj.delimiter", "/");
+        env.put(SimpleJndi.ROOT_PARALLELISM, "3");
+        env.put(NioBasedJndiLoader.PARALLELISM, "2");
+        final InitialContext ctx = new InitialContext(env);
+        try {
+            assertEquals("\"'quotes' \"inside\"\"", ctx.lookup("quotesInside"));
+            assertNotNull(ctx.lookup("booleans/person/myBooleans"));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void firstRootWins() throws Exception {
+        write("shared/jdbc/orders.properties", "url=jdbc:h2:mem:orders\n");
+        write("app/jdbc/orders.properties", "url=jdbc:h2:mem:app\nuser=app\n");
+        write("overrides/jdbc.properties", "orders=none\ncustomers=none\n");
+        final InitialContext ctx = new InitialContext(env("shared", "app", "overrides"));
+        try {
+            assertEquals("jdbc:h2:mem:orders", ctx.lookup("java:comp/env/jdbc/orders/url"));
+            assertEquals("none", ctx.lookup("java:comp/env/jdbc/customers"));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void sameAsSequentialOnConflicts() throws Exception {
+        write("shared/jdbc/orders.properties", "url=jdbc:h2:mem:orders\n");
+        write("shared/settings.properties", "size=1\n");
+        write("app/jdbc/orders.properties", "url=jdbc:h2:mem:app\nuser=app\n");
+        write("app/settings.properties", "size=2\nname=app\n");
+        write("overrides/jdbc.properties", "orders=none\ncustomers=none\n");
+        write("overrides/settings/size.properties", "value=3\n");
+        final Map<String, Object> concurrent = bindings("shared", "app", "overrides", "4");
+        final Map<String, Object> sequential = bindings("shared", "app", "overrides", "1");
+        assertEquals(sequential, concurrent);
+        assertEquals("jdbc:h2:mem:orders", concurrent.get("jdbc/orders/url"));
+        assertEquals("app", concurrent.get("jdbc/orders/user"));
+        assertEquals("none", concurrent.get("jdbc/customers"));
+        assertEquals("1", concurrent.get("settings/size"));
+        assertEquals("app", concurrent.get("settings/name"));
+    }
+
+    /**
+     * @return The objects bound below java:comp/env by their names, loaded with {@link SimpleJndi#ROOT_PARALLELISM} rootParallelism.
+     */
+    private Map<String, Object> bindings(String first, String second, String third, String rootParallelism) throws Exception {
+        final Hashtable<String, String> env = env(first, second, third);
+        env.put(SimpleJndi.ROOT_PARALLELISM, rootParallelism);
+        final InitialContext ctx = new InitialContext(env);
+        try {
+            final Map<String, Object> bindings = new TreeMap<String, Object>();
+            collect((Context) ctx.lookup("java:comp/env"), "", bindings);
+            return bindings;
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    private static void collect(Context context, String prefix, Map<String, Object> bindings) throws NamingException {
+        final NamingEnumeration<Binding> enumeration = context.listBindings("");
+        while (enumeration.hasMore()) {
+            final Binding binding = enumeration.next();
+            if (binding.getObject() instanceof Context) {
+                collect((Context) binding.getObject(), prefix + binding.getName() + "/", bindings);
+            }
+            else {
+                bindings.put(prefix + binding.getName(), binding.getObject());
+            }
+        }
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void failOnConflictNotLazy() throws Exception {
+        write("shared/settings.properties", "size=1\n");
+        write("app/settings.properties", "size=2\n");
+        final Hashtable<String, String> env = env("shared", "app");
+        env.put(SimpleJndi.FAIL_ON_ROOT_CONFLICT, "true");
+        env.put(NioBasedJndiLoader.LAZY, "true");
+        new InitialContext(env);
+    }
+
+    @Test
+    public void failOnConflict() throws Exception {
+        write("shared/jdbc/orders.properties", "url=jdbc:h2:mem:orders\n");
+        write("app/jdbc/orders.properties", "url=jdbc:h2:mem:app\nuser=app\n");
+        write("overrides/jdbc.properties", "orders=none\n");
+        final Hashtable<String, String> env = env("shared", "app", "overrides");
+        // Also when loading one root after another.
+        env.remove(SimpleJndi.ROOT_PARALLELISM);
+        env.put(SimpleJndi.FAIL_ON_ROOT_CONFLICT, "true");
+        try {
+            new InitialContext(env);
+            fail();
+        }
+        catch (NameAlreadyBoundException e) {
+            final String shared = new File(folder.getRoot(), "shared").getPath();
+            final String app = new File(folder.getRoot(), "app").getPath();
+            final String overrides = new File(folder.getRoot(), "overrides").getPath();
+            assertEquals("Names bound by more than one root: "
+                    + "jdbc/orders (" + shared + ", " + overrides + "); "
+                    + "jdbc/orders/url (" + shared + ", " + app + ")", e.getMessage());
+        }
+    }
+
+    @Test
+    public void failedRoot() throws Exception {
+        write("shared/settings.properties", "size=1\n");
+        write("broken/broken.xml", "<broken>");
+        try {
+            new InitialContext(env("shared", "broken"));
+            fail();
+        }
+        catch (NamingException e) {
+            assertEquals("Unable to load: " + new File(folder.getRoot(), "broken").getAbsolutePath(), e.getMessage());
+        }
+    }
+}
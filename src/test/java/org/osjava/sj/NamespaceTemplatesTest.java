@@ -0,0 +1,157 @@
+package org.osjava.sj;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.osjava.sj.loader.JndiLoader;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link SimpleJndi#TEMPLATE}.
+ */
+public class NamespaceTemplatesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        SimpleJndiContextFactory.clearCache();
+        file = new File(folder.newFolder("ctx"), "ds.properties");
+        write("name=value\n");
+    }
+
+    @After
+    public void tearDown() {
+        SimpleJndiContextFactory.clearCache();
+    }
+
+    @Test
+    public void forks() throws Exception {
+        final InitialContext ctx1 = createContext();
+        final InitialContext ctx2 = createContext();
+        try {
+            assertEquals("value", ctx1.lookup("ctx/ds/name"));
+            ctx1.rebind("ctx/ds/name", "changed");
+            ctx1.bind("ctx/ds/added", "added");
+            assertEquals("changed", ctx1.lookup("ctx/ds/name"));
+            assertEquals("value", ctx2.lookup("ctx/ds/name"));
+            try {
+                ctx2.lookup("ctx/ds/added");
+                fail();
+            }
+            catch (NameNotFoundException ignored) { }
+            ctx1.close();
+            assertEquals("value", createContext().lookup("ctx/ds/name"));
+        }
+        finally {
+            ctx2.close();
+        }
+    }
+
+    @Test
+    public void reloadOnFileChange() throws Exception {
+        final Hashtable<String, String> env = environment();
+        env.put(SimpleJndi.TEMPLATE_CHECK_INTERVAL, "0");
+        assertEquals("value", new InitialContext(env).lookup("ctx/ds/name"));
+        write("name=modified\n");
+        assertEquals("modified", new InitialContext(env).lookup("ctx/ds/name"));
+    }
+
+    @Test
+    public void checkInterval() throws Exception {
+        final Hashtable<String, String> env = environment();
+        env.put(SimpleJndi.TEMPLATE_CHECK_INTERVAL, "60000");
+        assertEquals("value", new InitialContext(env).lookup("ctx/ds/name"));
+        write("name=modified\n");
+        assertEquals("value", new InitialContext(env).lookup("ctx/ds/name"));
+    }
+
+    /**
+     * The String bound is created anew by every load of the root.
+     */
+    @Test
+    public void loadedOnce() throws Exception {
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Object>> lookups = new ArrayList<Future<Object>>();
+            for (int i = 0; i < threads; i++) {
+                lookups.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        start.await();
+                        return createContext().lookup("ctx/ds/name");
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Object> lookup : lookups) {
+                assertSame(lookups.get(0).get(), lookup.get());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void keyedByRelevantEntries() throws Exception {
+        final Object value = createContext().lookup("ctx/ds/name");
+        final Hashtable<String, String> env = environment();
+        env.put("org.example.unrelated", "x");
+        env.put(Context.PROVIDER_URL, "y");
+        assertSame(value, new InitialContext(env).lookup("ctx/ds/name"));
+        env.put(JndiLoader.COLON_REPLACE, "--");
+        assertNotSame(value, new InitialContext(env).lookup("ctx/ds/name"));
+    }
+
+    private InitialContext createContext() throws NamingException {
+        return new InitialContext(environment());
+    }
+
+    private Hashtable<String, String> environment() {
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put("java.naming.factory.initial", "org.osjava.sj.SimpleJndiContextFactory");
+        env.put(SimpleJndi.ROOT, folder.getRoot().getAbsolutePath());
+        env.put(SimpleJndi.SHARED, "false");
+        env.put(SimpleJndi.TEMPLATE, "true");
+        env.put("org.osjava.sj.delimiter", "/");
+        env.put("jndi.syntax.separator", "/");
+        return env;
+    }
+
+    private void write(String content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+    }
+}
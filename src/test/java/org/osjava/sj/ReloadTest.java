@@ -0,0 +1,181 @@
+package org.osjava.sj;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that {@link SimpleJndiContextFactory#reload(Hashtable)} replaces a shared namespace atomically and closes the previous one when no reader needs it anymore.
+ */
+public class ReloadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Hashtable<String, String> env;
+
+    @Before
+    public void setUp() throws Exception {
+        SimpleJndiContextFactory.clearCache();
+        MemoryContextFactory.clearCache();
+        Pool.fail = false;
+        write("pool.properties", "type=" + Pool.class.getName() + "\nconverter=org.osjava.sj.loader.convert.BeanConverter\n");
+        write("settings.properties", "size=1\n");
+        env = new Hashtable<String, String>();
+        env.put(SimpleJndi.ROOT, folder.getRoot().getAbsolutePath());
+        env.put(SimpleJndi.SHARED, "true");
+    }
+
+    @After
+    public void tearDown() {
+        SimpleJndiContextFactory.clearCache();
+        MemoryContextFactory.clearCache();
+    }
+
+    private void write(String name, String content) throws IOException {
+        final OutputStream out = new FileOutputStream(new File(folder.getRoot(), name));
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void reload() throws Exception {
+        final Context ctx = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        try {
+            final Pool pool = (Pool) ctx.lookup("pool");
+            assertEquals("1", ctx.lookup("settings.size"));
+            final Context snapshot = SimpleJndiContextFactory.snapshot(env);
+            write("settings.properties", "size=2\n");
+
+            assertTrue(SimpleJndiContextFactory.reload(env));
+            assertEquals("2", ctx.lookup("settings.size"));
+            final Pool reloaded = (Pool) ctx.lookup("pool");
+            assertNotSame(pool, reloaded);
+            // The snapshot still reads the previous namespace.
+            assertEquals("1", snapshot.lookup("settings.size"));
+            assertSame(pool, snapshot.lookup("pool"));
+            assertFalse(pool.closed);
+
+            snapshot.close();
+            assertTrue(pool.closed);
+            assertFalse(reloaded.closed);
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void subcontextReadsPreviousVersion() throws Exception {
+        final Context ctx = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        try {
+            final Pool pool = (Pool) ctx.lookup("pool");
+            final Context settings = (Context) ctx.lookup("settings");
+            final NamingEnumeration<Binding> bindings = ctx.listBindings("");
+            write("settings.properties", "size=2\n");
+
+            assertTrue(SimpleJndiContextFactory.reload(env));
+            assertEquals("2", ctx.lookup("settings.size"));
+            assertEquals("1", settings.lookup("size"));
+            int count = 0;
+            while (bindings.hasMore()) {
+                final Binding binding = bindings.next();
+                if (binding.getName().equals("settings")) {
+                    assertEquals("1", ((Context) binding.getObject()).lookup("size"));
+                }
+                count++;
+            }
+            assertEquals(2, count);
+            // settings is still open.
+            assertFalse(pool.closed);
+
+            settings.close();
+            // The context of the settings binding was not closed, but is released when garbage collected.
+            for (int i = 0; i < 50 && !pool.closed; i++) {
+                System.gc();
+                Thread.sleep(20);
+                SimpleJndiContextFactory.reload(env);
+            }
+            assertTrue(pool.closed);
+            try {
+                settings.lookup("size");
+                fail();
+            }
+            catch (NamingException expected) { }
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void reloadInBackground() throws Exception {
+        final Context ctx = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        try {
+            write("settings.properties", "size=2\n");
+            assertTrue(SimpleJndiContextFactory.reloadInBackground(env).get(10, TimeUnit.SECONDS));
+            assertEquals("2", ctx.lookup("settings.size"));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void failedReloadKeepsNamespace() throws Exception {
+        final Context ctx = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        try {
+            final Pool pool = (Pool) ctx.lookup("pool");
+            Pool.fail = true;
+            try {
+                SimpleJndiContextFactory.reload(env);
+                fail();
+            }
+            catch (NamingException expected) { }
+            assertSame(pool, ctx.lookup("pool"));
+            assertFalse(pool.closed);
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void notLoaded() throws Exception {
+        assertFalse(SimpleJndiContextFactory.reload(env));
+    }
+
+    public static class Pool implements AutoCloseable {
+        static volatile boolean fail;
+        volatile boolean closed;
+
+        public Pool() {
+            if (fail) {
+                throw new IllegalStateException("Creation failed");
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
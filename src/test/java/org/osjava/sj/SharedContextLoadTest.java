@@ -0,0 +1,221 @@
+package org.osjava.sj;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that a shared root is loaded only once, however many threads ask for it at the same time, and closed with the last handle.
+ */
+public class SharedContextLoadTest {
+
+    private static final AtomicInteger created = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        SimpleJndiContextFactory.clearCache();
+        MemoryContextFactory.clearCache();
+        created.set(0);
+        final OutputStream out = new FileOutputStream(new File(folder.getRoot(), "counted.properties"));
+        try {
+            out.write(("type=" + Counted.class.getName() + "\nconverter=org.osjava.sj.loader.convert.BeanConverter\n").getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        SimpleJndiContextFactory.clearCache();
+        MemoryContextFactory.clearCache();
+    }
+
+    @Test
+    public void singleFlight() throws Exception {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(SimpleJndi.ROOT, folder.getRoot().getAbsolutePath());
+        env.put(SimpleJndi.SHARED, "true");
+        final int threads = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Context> contexts = new ArrayList<Context>();
+        try {
+            List<Future<Context>> futures = new ArrayList<Future<Context>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Context>() {
+                    @Override
+                    public Context call() throws Exception {
+                        start.await();
+                        return new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Context> future : futures) {
+                contexts.add(future.get(10, TimeUnit.SECONDS));
+            }
+            final Object counted = contexts.get(0).lookup("counted");
+            assertTrue(counted instanceof Counted);
+            for (Context ctx : contexts) {
+                assertSame(counted, ctx.lookup("counted"));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            for (Context ctx : contexts) {
+                ctx.close();
+            }
+        }
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void retryAfterFailure() throws Exception {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(SimpleJndi.ROOT, folder.getRoot().getAbsolutePath());
+        env.put(SimpleJndi.SHARED, "true");
+        Counted.fail = true;
+        try {
+            new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+            fail();
+        }
+        catch (NamingException expected) { }
+        finally {
+            Counted.fail = false;
+        }
+        final Context ctx = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        try {
+            assertTrue(ctx.lookup("counted") instanceof Counted);
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void closedWithLastHandle() throws Exception {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(SimpleJndi.ROOT, folder.getRoot().getAbsolutePath());
+        env.put(SimpleJndi.SHARED, "true");
+        final Context first = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        final Context second = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        final Object counted = first.lookup("counted");
+        first.close();
+        first.close(); // Released only once.
+        assertSame(counted, second.lookup("counted"));
+        final Context third = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        second.close();
+        assertSame(counted, third.lookup("counted"));
+        third.close();
+        assertEquals(1, created.get());
+
+        final Context reloaded = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        try {
+            assertNotSame(counted, reloaded.lookup("counted"));
+            assertEquals(2, created.get());
+        }
+        finally {
+            reloaded.close();
+        }
+    }
+
+    @Test
+    public void uncountedHandleNeverReleases() throws Exception {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(SimpleJndi.ROOT, folder.getRoot().getAbsolutePath());
+        env.put(SimpleJndi.SHARED, "true");
+        env.put(MemoryContext.IGNORE_CLOSE, "true");
+        final Context first = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        final Context second = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        final Object counted = first.lookup("counted");
+        first.removeFromEnvironment(MemoryContext.IGNORE_CLOSE);
+        first.close();
+        try {
+            first.lookup("counted");
+            fail();
+        }
+        catch (NamingException expected) { }
+        assertSame(counted, second.lookup("counted"));
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void ignoreClosePerHandle() throws Exception {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(SimpleJndi.ROOT, folder.getRoot().getAbsolutePath());
+        env.put(SimpleJndi.SHARED, "true");
+        final Context first = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        final Context second = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        try {
+            assertNull(first.addToEnvironment(MemoryContext.IGNORE_CLOSE, "true"));
+            assertEquals("true", first.getEnvironment().get(MemoryContext.IGNORE_CLOSE));
+            assertNull(second.getEnvironment().get(MemoryContext.IGNORE_CLOSE));
+            first.close();
+            second.close();
+            // first still counts.
+            assertNotNull(first.lookup("counted"));
+            assertEquals(1, created.get());
+        }
+        finally {
+            first.removeFromEnvironment(MemoryContext.IGNORE_CLOSE);
+            first.close();
+        }
+    }
+
+    @Test
+    public void gracePeriod() throws Exception {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(SimpleJndi.ROOT, folder.getRoot().getAbsolutePath());
+        env.put(SimpleJndi.SHARED, "true");
+        env.put(SimpleJndi.SHARED_GRACE_PERIOD, "200");
+        Context ctx = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        final Object counted = ctx.lookup("counted");
+        ctx.close();
+        // Acquired again within the grace period.
+        ctx = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        assertSame(counted, ctx.lookup("counted"));
+        ctx.close();
+        Thread.sleep(600);
+        ctx = new SimpleJndiContextFactory().getInitialContext(new Hashtable<String, String>(env));
+        try {
+            assertNotSame(counted, ctx.lookup("counted"));
+            assertEquals(2, created.get());
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    public static class Counted {
+        static volatile boolean fail;
+
+        public Counted() throws InterruptedException {
+            if (fail) {
+                throw new IllegalStateException("Creation failed");
+            }
+            created.incrementAndGet();
+            // Widen the window for concurrent loads.
+            Thread.sleep(50);
+        }
+    }
+}
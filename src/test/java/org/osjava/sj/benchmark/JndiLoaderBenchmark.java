@@ -0,0 +1,69 @@
+package org.osjava.sj.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osjava.sj.jndi.MemoryContext;
+import org.osjava.sj.loader.JndiLoader;
+
+import javax.naming.NamingException;
+import java.util.Hashtable;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures binding parsed properties with {@link JndiLoader#load(Properties, javax.naming.Context)}: 1,000 keys in 100 contexts nested three deep, of which every tenth has a type declaration, and 100 keys without namespace. Divide the score by 1,100 for the cost per key.
+ * <p>
+ * Run {@link #main(String[])} from the test classpath, e.g. from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JndiLoaderBenchmark {
+
+    private Hashtable<String, String> env;
+    private Properties properties;
+    private JndiLoader loader;
+
+    @Setup
+    public void setUp() {
+        env = new Hashtable<String, String>();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(JndiLoader.DELIMITER, ".");
+        properties = new Properties();
+        for (int c = 0; c < 100; c++) {
+            for (int k = 0; k < 10; k++) {
+                final String name = "app.module" + c % 10 + ".context" + c + ".name" + k;
+                if (k == 0) {
+                    properties.put(name + ".type", "java.lang.Integer");
+                    properties.put(name, String.valueOf(c));
+                }
+                else {
+                    properties.put(name, "value" + k);
+                }
+            }
+            properties.put("plain" + c, "value" + c);
+        }
+        loader = new JndiLoader(env);
+    }
+
+    @Benchmark
+    public MemoryContext load() throws NamingException {
+        final MemoryContext ctx = new MemoryContext(env);
+        loader.load(properties, ctx);
+        return ctx;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(JndiLoaderBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
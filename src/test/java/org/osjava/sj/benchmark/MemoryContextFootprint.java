@@ -0,0 +1,62 @@
+package org.osjava.sj.benchmark;
+
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.util.Hashtable;
+
+/**
+ * Measures the heap retained by a {@link MemoryContext} tree of 100,000 bindings: 12,500 subcontexts in 250 groups, holding 8 objects each, like a namespace of many small contexts.
+ * <p>
+ * Run {@link #main(String[])} from the test classpath, preferably with a fixed heap size, e.g. -Xms1g -Xmx1g. Pass "true" as first argument to measure {@link MemoryContext#CONCURRENT}, and the number of objects per subcontext as second argument to measure fewer, larger contexts.
+ */
+public class MemoryContextFootprint {
+
+    private static final int GROUPS = 250;
+    private static final int BINDINGS = 100000;
+
+    public static void main(String[] args) throws NamingException, InterruptedException {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put("org.osjava.sj.delimiter", "/");
+        env.put(MemoryContext.CONCURRENT, args.length > 0 ? args[0] : "false");
+        final int bindingsPerContext = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        final int contextsPerGroup = BINDINGS / GROUPS / bindingsPerContext;
+        final String[] values = new String[bindingsPerContext];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = "value" + i;
+        }
+
+        final long before = usedHeap();
+        final MemoryContext ctx = new MemoryContext(env);
+        for (int g = 0; g < GROUPS; g++) {
+            final Context group = ctx.createSubcontext("group" + g);
+            for (int c = 0; c < contextsPerGroup; c++) {
+                final Context sub = group.createSubcontext("ctx" + c);
+                for (int b = 0; b < bindingsPerContext; b++) {
+                    sub.bind("name" + b, values[b]);
+                }
+            }
+        }
+        final long after = usedHeap();
+
+        final int bindings = GROUPS * contextsPerGroup * bindingsPerContext;
+        System.out.printf("%d bindings in %d contexts: %,d bytes, %d bytes per binding%n",
+                bindings, GROUPS * (contextsPerGroup + 1) + 1, after - before, (after - before) / bindings);
+        // Keep ctx reachable until measured.
+        ctx.close();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
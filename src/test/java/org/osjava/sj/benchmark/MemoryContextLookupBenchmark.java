@@ -0,0 +1,102 @@
+package org.osjava.sj.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osjava.sj.jndi.LookupHandle;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares lookups in a {@link MemoryContext} backed by synchronized maps with lookups in one backed by concurrent maps ({@link MemoryContext#CONCURRENT}), with and without full name index ({@link MemoryContext#INDEX}), lookups in a frozen one ({@link MemoryContext#freeze()}) and {@link LookupHandle#get()}.
+ * <p>
+ * Run {@link #main(String[])} from the test classpath, e.g. from the IDE, to compare both modes under 1 to 64 reader threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryContextLookupBenchmark {
+
+    @Param({"false", "true"})
+    public String concurrent;
+
+    @Param({"false", "true"})
+    public String index;
+
+    @Param({"false", "true"})
+    public String frozen;
+
+    private MemoryContext ctx;
+    private LookupHandle handle;
+
+    @Setup
+    public void setUp() throws NamingException {
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put("org.osjava.sj.delimiter", "/");
+        env.put(MemoryContext.CONCURRENT, concurrent);
+        env.put(MemoryContext.INDEX, index);
+        ctx = new MemoryContext(env);
+        for (int i = 0; i < 10; i++) {
+            final Context sub = ctx.createSubcontext("sub" + i);
+            for (int j = 0; j < 100; j++) {
+                sub.bind("name" + j, "value" + j);
+            }
+        }
+        ctx.bind("name", "value");
+        Context deep = ctx;
+        for (String name : new String[]{"jdbc", "prod", "eu", "orders", "primary", "pool"}) {
+            deep = deep.createSubcontext(name);
+        }
+        deep.bind("ds", "value");
+        if (Boolean.parseBoolean(frozen)) {
+            ctx.freeze();
+        }
+        handle = ctx.handle("jdbc/prod/eu/orders/primary/pool/ds");
+    }
+
+    @TearDown
+    public void tearDown() throws NamingException {
+        ctx.close();
+    }
+
+    @Benchmark
+    public Object lookup() throws NamingException {
+        return ctx.lookup("name");
+    }
+
+    @Benchmark
+    public Object lookupNested() throws NamingException {
+        return ctx.lookup("sub5/name50");
+    }
+
+    @Benchmark
+    public Object lookupDeep() throws NamingException {
+        return ctx.lookup("jdbc/prod/eu/orders/primary/pool/ds");
+    }
+
+    @Benchmark
+    public Object handleDeep() throws NamingException {
+        return handle.get();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+            Options options = new OptionsBuilder()
+                    .include(MemoryContextLookupBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.osjava.sj.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osjava.sj.loader.NioBasedJndiLoader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Hashtable;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing a generated .properties file of 1,000 to 1,000,000 keys with {@link NioBasedJndiLoader#toProperties(Path)}, to verify the time grows linearly with the number of keys. Every tenth key is defined twice, resulting in a List value.
+ * <p>
+ * Run {@link #main(String[])} from the test classpath, e.g. from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class PropertiesFileLoadBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int keys;
+
+    private Path file;
+    private NioBasedJndiLoader loader;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("benchmark", ".properties");
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1)) {
+            for (int i = 0; i < keys; i++) {
+                out.write("ctx" + i / 100 + ".name" + i % 100 + "=value" + i + "\n");
+                if (i % 10 == 0) {
+                    out.write("ctx" + i / 100 + ".name" + i % 100 + "=other" + i + "\n");
+                }
+            }
+        }
+        loader = new NioBasedJndiLoader(new Hashtable());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public Properties load() throws IOException {
+        return loader.toProperties(file);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PropertiesFileLoadBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
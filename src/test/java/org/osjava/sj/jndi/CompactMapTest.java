@@ -0,0 +1,120 @@
+package org.osjava.sj.jndi;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompactMapTest {
+
+    /**
+     * Colliding keys exercise linear probing and the shifting on remove().
+     */
+    @Test
+    public void sameAsHashMap() {
+        final Random random = new Random(42);
+        for (int run = 0; run < 200; run++) {
+            final CompactMap<Key, Integer> compact = new CompactMap<Key, Integer>();
+            final Map<Key, Integer> expected = new HashMap<Key, Integer>();
+            for (int op = 0; op < 200; op++) {
+                final Key key = new Key(random.nextInt(12), random.nextInt(3));
+                if (random.nextInt(3) == 0) {
+                    assertEquals(expected.remove(key), compact.remove(key));
+                }
+                else {
+                    final Integer value = random.nextInt(5) == 0 ? null : op;
+                    assertEquals(expected.put(key, value), compact.put(key, value));
+                }
+                assertEquals(expected, compact);
+                for (int k = 0; k < 12; k++) {
+                    final Key probe = new Key(k, k % 3);
+                    assertEquals(expected.containsKey(probe), compact.containsKey(probe));
+                    assertEquals(expected.get(probe), compact.get(probe));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void grow() {
+        final CompactMap<String, String> map = new CompactMap<String, String>();
+        for (int i = 0; i < 100; i++) {
+            map.put("name" + i, "value" + i);
+        }
+        assertEquals(100, map.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value" + i, map.get("name" + i));
+        }
+        map.remove("name0");
+        assertNull(map.get("name0"));
+        assertEquals(99, map.size());
+    }
+
+    @Test
+    public void getRegion() {
+        final CompactMap<String, String> map = new CompactMap<String, String>();
+        assertSame(RegionLookup.ABSENT, map.getRegion("a/b", 0, 1));
+        map.put("a", "value");
+        map.put("b", null);
+        assertEquals("value", map.getRegion("a/b", 0, 1));
+        assertNull(map.getRegion("a/b", 2, 3));
+        assertSame(RegionLookup.ABSENT, map.getRegion("a/b", 0, 3));
+        assertSame(RegionLookup.ABSENT, map.getRegion("a/b", 1, 2));
+    }
+
+    @Test
+    public void shrink() {
+        final CompactMap<String, String> map = new CompactMap<String, String>();
+        for (int i = 0; i < 1000; i++) {
+            map.put("name" + i, "value" + i);
+        }
+        for (int i = 0; i < 990; i++) {
+            assertEquals("value" + i, map.remove("name" + i));
+        }
+        assertEquals(10, map.size());
+        for (int i = 990; i < 1000; i++) {
+            assertEquals("value" + i, map.getRegion("x/name" + i, 2, 9));
+        }
+        assertTrue(map.capacity() <= 64);
+    }
+
+    @Test
+    public void iteratorRemove() {
+        final CompactMap<String, String> map = new CompactMap<String, String>();
+        for (int i = 0; i < 6; i++) {
+            map.put("name" + i, "value" + i);
+        }
+        int seen = 0;
+        for (Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator(); iterator.hasNext(); ) {
+            iterator.next();
+            iterator.remove();
+            seen++;
+        }
+        assertEquals(6, seen);
+        assertTrue(map.isEmpty());
+    }
+
+    private static class Key {
+        private final int id;
+        private final int hash;
+
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id && ((Key) o).hash == hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -4,6 +4,11 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
@@ -155,4 +160,47 @@ public class CustomSJPropertiesTest {
         props.load(in);
         assertEquals("value#with#hash", props.getProperty("key"));
     }
+
+    @Test
+    public void insertionOrder() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 50000; i > 0; i--) {
+            content.append("key").append(i).append('=').append(i).append('\n');
+            expected.add("key" + i);
+        }
+        content.append("key7=again\nkey7=and again\n");
+        CustomSJProperties props = new CustomSJProperties();
+        props.load(new ByteArrayInputStream(content.toString().getBytes()));
+        assertEquals(expected, new ArrayList<Object>(props.keySet()));
+        assertEquals(expected, Collections.list(props.propertyNames()));
+        assertEquals(Arrays.asList("7", "again", "and again"), props.get("key7"));
+
+        props.remove("key7");
+        props.put("key7", "last");
+        assertEquals("key7", new ArrayList<Object>(props.keySet()).get(expected.size() - 1));
+        assertEquals("last", props.get("key7"));
+        props.clear();
+        assertEquals(0, props.keySet().size());
+    }
+
+    @Test
+    public void removeWhileIterating() throws Exception {
+        CustomSJProperties props = new CustomSJProperties();
+        props.load(new ByteArrayInputStream("a=1\nb=2\nc=3\n".getBytes()));
+        for (Object key : props.keySet()) {
+            if (!key.equals("b")) {
+                props.remove(key);
+            }
+        }
+        final Enumeration keys = props.keys();
+        while (keys.hasMoreElements()) {
+            props.put("d", "4");
+            keys.nextElement();
+        }
+        assertEquals(Arrays.asList("b", "d"), new ArrayList<Object>(props.keySet()));
+        // A copy, as before.
+        props.keySet().remove("b");
+        assertEquals("2", props.get("b"));
+    }
 }
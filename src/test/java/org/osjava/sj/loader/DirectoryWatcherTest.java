@@ -0,0 +1,170 @@
+package org.osjava.sj.loader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Hashtable;
+
+import static org.junit.Assert.*;
+
+public class DirectoryWatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Context ctxt;
+    private NioBasedJndiLoader loader;
+    private DirectoryWatcher watcher;
+
+    @Before
+    public void setUp() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "org.osjava.sj.MemoryContextFactory");
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(JndiLoader.DELIMITER, ".");
+        loader = new NioBasedJndiLoader(env);
+        ctxt = new InitialContext(env);
+        folder.newFolder("sub");
+        write("app.properties", "size=1\nname=app\nbean.type=" + TestBean.class.getName() + "\nbean.converter=org.osjava.sj.loader.convert.BeanConverter\nbean.text=Hello\n");
+        write("sub/db.properties", "url=jdbc:h2:mem\n");
+        loader.load(folder.getRoot(), ctxt, false);
+        watcher = loader.watch(folder.getRoot(), ctxt, 50);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        watcher.close();
+        ctxt.close();
+    }
+
+    private void write(String name, String content) throws IOException {
+        final OutputStream out = new FileOutputStream(new File(folder.getRoot(), name));
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return The object bound to name once it differs from previous, null once name is unbound.
+     */
+    private Object awaitChange(String name, Object previous) throws Exception {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            Object current;
+            try {
+                current = ctxt.lookup(name);
+            }
+            catch (NamingException e) { // MemoryContext does not throw NameNotFoundException for missing subcontexts.
+                current = null;
+            }
+            if (current == null ? previous != null : !current.equals(previous)) {
+                return current;
+            }
+            Thread.sleep(20);
+        }
+        fail(name + " did not change.");
+        return null;
+    }
+
+    @Test
+    public void modifiedFile() throws Exception {
+        final Object bean = ctxt.lookup("app/bean");
+        write("app.properties", "size=2\nbean.type=" + TestBean.class.getName() + "\nbean.converter=org.osjava.sj.loader.convert.BeanConverter\nbean.text=Hello\n");
+        assertEquals("2", awaitChange("app/size", "1"));
+        assertNull(awaitChange("app/name", "app"));
+        // Defined by the same properties as before.
+        assertSame(bean, ctxt.lookup("app/bean"));
+        assertEquals("jdbc:h2:mem", ctxt.lookup("sub/db/url"));
+    }
+
+    @Test
+    public void addedAndRemovedFiles() throws Exception {
+        write("sub/cache.properties", "ttl=60\n");
+        assertEquals("60", awaitChange("sub/cache/ttl", null));
+        assertTrue(new File(folder.getRoot(), "sub/db.properties").delete());
+        assertNull(awaitChange("sub/db/url", "jdbc:h2:mem"));
+        try {
+            ctxt.lookup("sub/db");
+            fail("The context of the removed file is left empty and destroyed.");
+        }
+        catch (NameNotFoundException expected) { }
+        assertEquals("60", ctxt.lookup("sub/cache/ttl"));
+    }
+
+    @Test
+    public void removedFileKeepsNamesDefinedElsewhere() throws Exception {
+        write("sub/default.properties", "db.url=jdbc:h2:default\ndb.user=sa\n");
+        assertEquals("sa", awaitChange("sub/db/user", null));
+        assertEquals("jdbc:h2:default", ctxt.lookup("sub/db/url"));
+        write("sub/db.properties", "url=jdbc:h2:file\n");
+        assertEquals("jdbc:h2:file", awaitChange("sub/db/url", "jdbc:h2:default"));
+        assertTrue(new File(folder.getRoot(), "sub/db.properties").delete());
+        // Still defined by default.properties.
+        assertEquals("jdbc:h2:default", awaitChange("sub/db/url", "jdbc:h2:file"));
+        Thread.sleep(300);
+        assertEquals("jdbc:h2:default", ctxt.lookup("sub/db/url"));
+        assertEquals("sa", ctxt.lookup("sub/db/user"));
+    }
+
+    @Test
+    public void addedDirectory() throws Exception {
+        folder.newFolder("sub", "more");
+        write("sub/more/queue.properties", "name=orders\n");
+        assertEquals("orders", awaitChange("sub/more/queue/name", null));
+    }
+
+    @Test
+    public void continuousWritesDoNotHoldBackChanges() throws Exception {
+        final Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; !isInterrupted(); i++) {
+                        write("sub/counter.properties", "count=" + i + "\n");
+                        Thread.sleep(10);
+                    }
+                }
+                catch (InterruptedException e) {
+                    // done
+                }
+                catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        writer.start();
+        try {
+            Thread.sleep(100);
+            // Changes reported more often than the debounce time of 50 ms.
+            write("sub/db.properties", "url=jdbc:h2:file\n");
+            assertEquals("jdbc:h2:file", awaitChange("sub/db/url", "jdbc:h2:mem"));
+            assertTrue(writer.isAlive());
+        }
+        finally {
+            writer.interrupt();
+            writer.join();
+        }
+    }
+
+    @Test
+    public void closed() throws Exception {
+        watcher.close();
+        write("sub/db.properties", "url=jdbc:h2:file\n");
+        Thread.sleep(300);
+        assertEquals("jdbc:h2:mem", ctxt.lookup("sub/db/url"));
+    }
+}
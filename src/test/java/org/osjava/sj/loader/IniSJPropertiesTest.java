@@ -0,0 +1,103 @@
+package org.osjava.sj.loader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class IniSJPropertiesTest {
+
+    private IniSJProperties load(String content, boolean unquote) throws IOException {
+        final IniSJProperties properties = new IniSJProperties();
+        properties.setCharset(StandardCharsets.UTF_8);
+        properties.setUnquote(unquote);
+        properties.load(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        return properties;
+    }
+
+    @Test
+    public void blocksAndComments() throws Exception {
+        final IniSJProperties properties = load(
+                "first=blockless\n"
+                + "; comment=1\n"
+                + "\n"
+                + "  [block1]  \n"
+                + "value=13 ; comment\n"
+                + "key =value\n"
+                + "no equals sign\n"
+                + "[block2]\r\n"
+                + "apple=pears\r"
+                + "list=a\r\n"
+                + "list=b\n"
+                + "[]\n"
+                + "last=\"quoted; value\"", false);
+        assertEquals(Arrays.asList("first", "block1.value", "block1.key ", "block2.apple", "block2.list", "last"),
+                Arrays.asList(properties.keySet().toArray()));
+        assertEquals("blockless", properties.get("first"));
+        assertEquals("13 ", properties.get("block1.value"));
+        assertEquals("value", properties.get("block1.key "));
+        assertEquals("pears", properties.get("block2.apple"));
+        assertEquals(Arrays.asList("a", "b"), properties.get("block2.list"));
+        assertEquals("\"quoted", properties.get("last"));
+    }
+
+    @Test
+    public void longLines() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        final char[] chars = new char[20000];
+        Arrays.fill(chars, 'x');
+        final String longValue = new String(chars);
+        for (int i = 0; i < 1000; i++) {
+            content.append("key").append(i).append('=').append(i % 100 == 0 ? longValue : "v" + i).append("\r\n");
+        }
+        final IniSJProperties properties = load(content.toString(), false);
+        assertEquals(1000, properties.size());
+        assertEquals(longValue, properties.get("key500"));
+        assertEquals("v999", properties.get("key999"));
+    }
+
+    @Test
+    public void charset() throws Exception {
+        final IniSJProperties properties = new IniSJProperties();
+        properties.setCharset(StandardCharsets.ISO_8859_1);
+        properties.load(new ByteArrayInputStream("name=Grüße\n".getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals("Grüße", properties.get("name"));
+        assertEquals("Grüße", load("name=Grüße\n", false).get("name"));
+    }
+
+    @Test
+    public void unquote() throws Exception {
+        final IniSJProperties properties = load(
+                "[quoted]\n"
+                + "double=\"multiple words; with semicolon\" ; comment\n"
+                + "single= 'single quoted'\n"
+                + "blanks=\"  \"\n"
+                + "plain=as is\n", true);
+        assertEquals("multiple words; with semicolon", properties.get("quoted.double"));
+        assertEquals("single quoted", properties.get("quoted.single"));
+        assertEquals("  ", properties.get("quoted.blanks"));
+        assertEquals("as is", properties.get("quoted.plain"));
+    }
+
+    @Test
+    public void malformedQuotedValue() throws Exception {
+        try {
+            load("a=1\n\nb=\"unterminated\n", true);
+            fail();
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line 3:"));
+        }
+        try {
+            load("a='quoted' trailing\n", true);
+            fail();
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line 1:"));
+        }
+    }
+}
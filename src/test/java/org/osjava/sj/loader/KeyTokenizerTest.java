@@ -0,0 +1,53 @@
+package org.osjava.sj.loader;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link KeyTokenizer} must split keys like {@link JndiLoader#extractContextName(String)} and {@link JndiLoader#extractObjectName(String)}.
+ */
+public class KeyTokenizerTest {
+
+    private static final String[] KEYS = {
+            "", "a", "a.b", "my.ctx.object", "ds.type", "type", ".a", "a.", "a..b",
+            "a/b.c", "a.\"b.c\"", "a.'b'", "a\\.b.c", "a::b::c", "with blank.x"};
+
+    private void assertSameAsCompoundName(String delimiter) throws Exception {
+        final Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(JndiLoader.DELIMITER, delimiter);
+        final JndiLoader loader = new JndiLoader(env);
+        final Properties syntax = new Properties();
+        syntax.putAll(env);
+        final KeyTokenizer tokenizer = new KeyTokenizer(syntax);
+        for (String key : KEYS) {
+            final String[] components = tokenizer.tokenize(key);
+            assertEquals(key, loader.toCompoundName(key).size(), components.length);
+            assertEquals(key, loader.extractObjectName(key), KeyTokenizer.objectName(components));
+            for (int i = 0; i < components.length - 1; i++) {
+                assertEquals(key + " " + Arrays.asList(components), loader.toCompoundName(key).get(i), components[i]);
+            }
+        }
+    }
+
+    @Test
+    public void dot() throws Exception {
+        assertSameAsCompoundName(".");
+    }
+
+    @Test
+    public void slash() throws Exception {
+        assertSameAsCompoundName("/");
+    }
+
+    @Test
+    public void multipleCharacters() throws Exception {
+        assertSameAsCompoundName("::");
+    }
+}
@@ -0,0 +1,180 @@
+package org.osjava.sj.loader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osjava.sj.jndi.LazyContext;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests loading subdirectories on first use with {@link NioBasedJndiLoader#LAZY}.
+ */
+public class LazyLoadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Context ctxt;
+
+    @Before
+    public void setUp() throws Exception {
+        Counted.instances.set(0);
+        folder.newFolder("jdbc", "eu");
+        write("settings.properties", "size=1\n");
+        write("jdbc/orders.properties", "url=jdbc:h2:mem:orders\n");
+        write("jdbc/eu/counted.properties", "type=" + Counted.class.getName() + "\nconverter=org.osjava.sj.loader.convert.BeanConverter\n");
+        ctxt = load(folder.getRoot(), "true");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ctxt.close();
+    }
+
+    private Context load(File root, String lazy) throws Exception {
+        Hashtable env = new Hashtable();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "org.osjava.sj.MemoryContextFactory");
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(JndiLoader.DELIMITER, ".");
+        env.put(NioBasedJndiLoader.LAZY, lazy);
+        final Context ctxt = new InitialContext(env);
+        new NioBasedJndiLoader(env).load(root, ctxt, false);
+        return ctxt;
+    }
+
+    private void write(String name, String content) throws IOException {
+        final OutputStream out = new FileOutputStream(new File(folder.getRoot(), name));
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void dump(Context ctxt, String prefix, Map<String, String> dump) throws NamingException {
+        final NamingEnumeration<Binding> bindings = ctxt.listBindings("");
+        while (bindings.hasMore()) {
+            final Binding binding = bindings.next();
+            final Object object = binding.getObject();
+            if (object instanceof Context) {
+                dump((Context) object, prefix + binding.getName() + "/", dump);
+            }
+            else {
+                dump.put(prefix + binding.getName(), String.valueOf(object));
+            }
+        }
+    }
+
+    @Test
+    public void loadedOnFirstLookup() throws Exception {
+        assertEquals("1", ctxt.lookup("settings/size"));
+        final LazyContext jdbc = (LazyContext) ctxt.lookup("jdbc");
+        assertFalse(jdbc.isLoaded());
+        assertEquals("jdbc", jdbc.getNameInNamespace());
+
+        assertEquals("jdbc:h2:mem:orders", ctxt.lookup("jdbc/orders/url"));
+        assertTrue(jdbc.isLoaded());
+        final LazyContext eu = (LazyContext) ctxt.lookup("jdbc/eu");
+        assertFalse(eu.isLoaded());
+        assertEquals(0, Counted.instances.get());
+        assertTrue(ctxt.lookup("jdbc/eu/counted") instanceof Counted);
+        assertEquals(1, Counted.instances.get());
+    }
+
+    @Test
+    public void loadedOnce() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<Object>> lookups = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 8; i++) {
+                lookups.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        start.await();
+                        return ctxt.lookup("jdbc/eu/counted");
+                    }
+                }));
+            }
+            start.countDown();
+            final Object counted = lookups.get(0).get();
+            for (Future<Object> lookup : lookups) {
+                assertSame(counted, lookup.get());
+            }
+            assertEquals(1, Counted.instances.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void bindLoads() throws Exception {
+        ctxt.bind("jdbc/eu/extra", "x");
+        assertEquals(1, Counted.instances.get());
+        assertEquals("x", ctxt.lookup("jdbc/eu/extra"));
+    }
+
+    @Test
+    public void sameNamespace() throws Exception {
+        final File roots = new File("src/test/resources/roots/sameNamesInDifferentBranches");
+        final Context eager = load(roots, "false");
+        final Context lazy = load(roots, "true");
+        try {
+            final Map<String, String> expected = new TreeMap<String, String>();
+            dump(eager, "", expected);
+            assertFalse(expected.isEmpty());
+            final Map<String, String> actual = new TreeMap<String, String>();
+            dump(lazy, "", actual);
+            assertEquals(expected, actual);
+        }
+        finally {
+            eager.close();
+            lazy.close();
+        }
+    }
+
+    @Test
+    public void closeDoesNotLoad() throws Exception {
+        final MemoryContext root = new MemoryContext(ctxt.getEnvironment());
+        new NioBasedJndiLoader(ctxt.getEnvironment()).load(folder.getRoot(), root, false);
+        final LazyContext jdbc = (LazyContext) root.lookup("jdbc");
+        root.close();
+        assertFalse(jdbc.isLoaded());
+        assertEquals(0, Counted.instances.get());
+    }
+
+    public static class Counted {
+        static final AtomicInteger instances = new AtomicInteger();
+
+        public Counted() {
+            instances.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package org.osjava.sj.loader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Hashtable;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests loading root directories from snapshots with {@link NioBasedJndiLoader#SNAPSHOT}.
+ */
+public class NamespaceSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File root;
+    private File snapshots;
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.newFolder("root");
+        snapshots = folder.newFolder("snapshots");
+        new File(root, "jdbc").mkdir();
+        write("settings.properties", "size=1\nname=${sj.sys:snapshot.test}\nlist=a\nlist=b\n");
+        write("jdbc/orders.xml", "<orders><url>jdbc:h2:mem:orders</url></orders>");
+        write("jdbc/eu.ini", "[customers]\nurl=jdbc:h2:mem:customers\n");
+        System.setProperty("snapshot.test", "first");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("snapshot.test");
+    }
+
+    private Context load() throws Exception {
+        return load(false);
+    }
+
+    /**
+     * @param unquote {@link NioBasedJndiLoader#INI_UNQUOTE}
+     */
+    private Context load(boolean unquote) throws Exception {
+        final Hashtable env = env(unquote);
+        final Context ctxt = new InitialContext(env);
+        new NioBasedJndiLoader(env).load(root, ctxt, false);
+        return ctxt;
+    }
+
+    private Hashtable env(boolean unquote) {
+        Hashtable env = new Hashtable();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "org.osjava.sj.MemoryContextFactory");
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(JndiLoader.DELIMITER, ".");
+        env.put(NioBasedJndiLoader.SNAPSHOT, snapshots.getPath());
+        env.put(NioBasedJndiLoader.INI_UNQUOTE, String.valueOf(unquote));
+        return env;
+    }
+
+    private void write(String name, String content) throws IOException {
+        final OutputStream out = new FileOutputStream(new File(root, name));
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private File snapshot() {
+        final File[] files = snapshots.listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private void assertLoaded(Context ctxt) throws Exception {
+        assertEquals("1", ctxt.lookup("settings/size"));
+        assertEquals(2, ((List) ctxt.lookup("settings/list")).size());
+        assertEquals("jdbc:h2:mem:orders", ctxt.lookup("jdbc/orders/orders/url"));
+        assertEquals("jdbc:h2:mem:customers", ctxt.lookup("jdbc/eu/customers/url"));
+    }
+
+    @Test
+    public void loadedFromSnapshot() throws Exception {
+        final File settings = new File(root, "settings.properties");
+        final FileTime modified = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        Files.setLastModifiedTime(settings.toPath(), modified);
+        Context ctxt = load();
+        assertLoaded(ctxt);
+        ctxt.close();
+        final File snapshot = snapshot();
+        final long written = snapshot.lastModified();
+
+        // Same size and modification time: The file is not read again.
+        write("settings.properties", "size=2\nname=${sj.sys:snapshot.test}\nlist=a\nlist=b\n");
+        Files.setLastModifiedTime(settings.toPath(), modified);
+        System.setProperty("snapshot.test", "second");
+        ctxt = load();
+        assertLoaded(ctxt);
+        // Substituted again.
+        assertEquals("second", ctxt.lookup("settings/name"));
+        ctxt.close();
+        assertEquals(written, snapshot.lastModified());
+    }
+
+    @Test
+    public void modifiedFile() throws Exception {
+        load().close();
+        write("settings.properties", "size=22\n");
+        final Context ctxt = load();
+        assertEquals("22", ctxt.lookup("settings/size"));
+        ctxt.close();
+        final Context again = load();
+        assertEquals("22", again.lookup("settings/size"));
+        again.close();
+    }
+
+    /**
+     * A file changed within the modification time resolution after the snapshot was taken.
+     */
+    @Test
+    public void racyFile() throws Exception {
+        final File settings = new File(root, "settings.properties");
+        final FileTime modified = Files.getLastModifiedTime(settings.toPath());
+        load().close();
+        // Same size and modification time, other content.
+        write("settings.properties", "size=3\nname=${sj.sys:snapshot.test}\nlist=a\nlist=b\n");
+        Files.setLastModifiedTime(settings.toPath(), modified);
+        final Context ctxt = load();
+        assertEquals("3", ctxt.lookup("settings/size"));
+        ctxt.close();
+    }
+
+    @Test
+    public void touchedFile() throws Exception {
+        load().close();
+        final File settings = new File(root, "settings.properties");
+        final FileTime modified = Files.getLastModifiedTime(settings.toPath());
+        // Same size, other content, other modification time.
+        write("settings.properties", "size=9\nname=${sj.sys:snapshot.test}\nlist=a\nlist=b\n");
+        Files.setLastModifiedTime(settings.toPath(), FileTime.fromMillis(modified.toMillis() + 5000));
+        final Context ctxt = load();
+        assertEquals("9", ctxt.lookup("settings/size"));
+        ctxt.close();
+    }
+
+    @Test
+    public void addedFile() throws Exception {
+        load().close();
+        write("jdbc/more.properties", "a=1\n");
+        final Context ctxt = load();
+        assertEquals("1", ctxt.lookup("jdbc/more/a"));
+        assertLoaded(ctxt);
+        ctxt.close();
+    }
+
+    @Test
+    public void otherParseOptions() throws Exception {
+        write("jdbc/eu.ini", "[customers]\nurl=\"jdbc:h2:mem:customers\"\n");
+        Context ctxt = load(false);
+        assertEquals("\"jdbc:h2:mem:customers\"", ctxt.lookup("jdbc/eu/customers/url"));
+        ctxt.close();
+        ctxt = load(true);
+        assertEquals("jdbc:h2:mem:customers", ctxt.lookup("jdbc/eu/customers/url"));
+        ctxt.close();
+    }
+
+    @Test
+    public void malformedIniSkipped() throws Exception {
+        write("jdbc/broken.ini", "[customers]\nurl=\"unterminated\n");
+        for (int i = 0; i < 2; i++) {
+            final Context ctxt = load(true);
+            assertLoaded(ctxt);
+            try {
+                ctxt.lookup("jdbc/broken/customers/url");
+                fail();
+            }
+            catch (NamingException expected) { }
+            ctxt.close();
+        }
+    }
+
+    @Test
+    public void corruptSnapshot() throws Exception {
+        load().close();
+        final OutputStream out = new FileOutputStream(snapshot());
+        try {
+            out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17});
+        }
+        finally {
+            out.close();
+        }
+        final Context ctxt = load();
+        assertLoaded(ctxt);
+        ctxt.close();
+    }
+    /**
+     * Parses settings.properties to a value other than a String, like a custom {@link SJProperties} may.
+     */
+    private static final class OtherValuesLoader extends NioBasedJndiLoader {
+        OtherValuesLoader(Hashtable env) {
+            super(env);
+        }
+
+        @Override
+        protected SJProperties parse(Path path, InputStream stream, boolean substitution) throws IOException {
+            final SJProperties properties = super.parse(path, stream, substitution);
+            if (path.getFileName().toString().equals("settings.properties")) {
+                properties.put("count", 7);
+            }
+            return properties;
+        }
+    }
+
+    @Test
+    public void otherValuesNotWritten() throws Exception {
+        final Hashtable env = env(false);
+        final Context ctxt = new InitialContext(env);
+        new OtherValuesLoader(env).load(root, ctxt, false);
+        assertLoaded(ctxt);
+        assertEquals(7, ctxt.lookup("settings/count"));
+        assertEquals("first", ctxt.lookup("settings/name"));
+        ctxt.close();
+        assertEquals(0, snapshots.listFiles().length);
+    }
+}
@@ -0,0 +1,107 @@
+package org.osjava.sj.loader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that parsing in parallel with {@link NioBasedJndiLoader#PARALLELISM} results in the same namespace as loading file after file.
+ */
+public class ParallelLoadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Hashtable env(String parallelism) {
+        Hashtable env = new Hashtable();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "org.osjava.sj.MemoryContextFactory");
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(JndiLoader.DELIMITER, ".");
+        env.put(NioBasedJndiLoader.PARALLELISM, parallelism);
+        return env;
+    }
+
+    private Map<String, String> load(File root, String parallelism) throws Exception {
+        final Hashtable env = env(parallelism);
+        final Context ctxt = new InitialContext(env);
+        try {
+            new NioBasedJndiLoader(env).load(root, ctxt, false);
+            final Map<String, String> dump = new TreeMap<String, String>();
+            dump(ctxt, "", dump);
+            return dump;
+        }
+        finally {
+            ctxt.close();
+        }
+    }
+
+    private void dump(Context ctxt, String prefix, Map<String, String> dump) throws NamingException {
+        final NamingEnumeration<Binding> bindings = ctxt.listBindings("");
+        while (bindings.hasMore()) {
+            final Binding binding = bindings.next();
+            final Object object = binding.getObject();
+            if (object instanceof Context) {
+                dump.put(prefix + binding.getName(), "Context");
+                dump((Context) object, prefix + binding.getName() + "/", dump);
+            }
+            else {
+                dump.put(prefix + binding.getName(), object == null || object instanceof String ? (String) object : object.getClass().getName());
+            }
+        }
+    }
+
+    private void write(String name, String content) throws IOException {
+        final OutputStream out = new FileOutputStream(new File(folder.getRoot(), name));
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void sameNamespace() throws Exception {
+        final File roots = new File("src/test/resources/roots");
+        final Map<String, String> sequential = load(roots, "1");
+        assertFalse(sequential.isEmpty());
+        assertEquals(sequential, load(roots, "4"));
+    }
+
+    @Test
+    public void sameOrderOfBinding() throws Exception {
+        folder.newFolder("app");
+        // app/name is defined by more than one file: The one bound last wins, in parallel mode too.
+        write("app/default.properties", "name=default\n");
+        write("app/name.properties", "first=1\n");
+        write("app.properties", "name=app\n");
+        assertEquals(load(folder.getRoot(), "1"), load(folder.getRoot(), "3"));
+    }
+
+    @Test
+    public void parseFailure() throws Exception {
+        write("broken.xml", "<broken>");
+        write("fine.properties", "a=1\n");
+        try {
+            load(folder.getRoot(), "2");
+            fail();
+        }
+        catch (IOException expected) { }
+    }
+}
@@ -0,0 +1,210 @@
+package org.osjava.sj.loader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Hashtable;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests caching parsed files with {@link NioBasedJndiLoader#PARSE_CACHE}.
+ */
+public class ParseCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File root;
+    private File cache;
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.newFolder("root");
+        cache = folder.newFolder("cache");
+        new File(root, "jdbc").mkdir();
+        write("settings.properties", "size=1\nname=${sj.sys:parse.cache.test}\nlist=a\nlist=b\n");
+        write("jdbc/orders.xml", "<orders><url>jdbc:h2:mem:orders</url></orders>");
+        write("jdbc/eu.ini", "[customers]\nurl=jdbc:h2:mem:customers\n");
+        System.setProperty("parse.cache.test", "first");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("parse.cache.test");
+    }
+
+    private Context load() throws Exception {
+        return load(false);
+    }
+
+    /**
+     * @param unquote {@link NioBasedJndiLoader#INI_UNQUOTE}
+     */
+    private Context load(boolean unquote) throws Exception {
+        final Hashtable env = env(unquote);
+        final Context ctxt = new InitialContext(env);
+        new NioBasedJndiLoader(env).load(root, ctxt, false);
+        return ctxt;
+    }
+
+    private Hashtable env(boolean unquote) {
+        Hashtable env = new Hashtable();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "org.osjava.sj.MemoryContextFactory");
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put(JndiLoader.DELIMITER, ".");
+        env.put(NioBasedJndiLoader.PARSE_CACHE, cache.getPath());
+        env.put(NioBasedJndiLoader.INI_UNQUOTE, String.valueOf(unquote));
+        return env;
+    }
+
+    private void write(String name, String content) throws IOException {
+        final OutputStream out = new FileOutputStream(new File(root, name));
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private Path entry(String name) {
+        return new ParseCache(cache.toPath(), ".", new NioBasedJndiLoader(env(false)).parseOptions()).entry(new File(root, name).toPath());
+    }
+
+    private void assertLoaded(Context ctxt) throws Exception {
+        assertEquals("1", ctxt.lookup("settings/size"));
+        assertEquals(2, ((List) ctxt.lookup("settings/list")).size());
+        assertEquals("jdbc:h2:mem:orders", ctxt.lookup("jdbc/orders/orders/url"));
+        assertEquals("jdbc:h2:mem:customers", ctxt.lookup("jdbc/eu/customers/url"));
+    }
+
+    @Test
+    public void loadedFromCache() throws Exception {
+        // Written long before the cache entries, so size and modification time decide.
+        final Path settings = new File(root, "settings.properties").toPath();
+        final FileTime modified = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        Files.setLastModifiedTime(settings, modified);
+        Context ctxt = load();
+        assertLoaded(ctxt);
+        assertEquals("first", ctxt.lookup("settings/name"));
+        ctxt.close();
+        assertEquals(3, cache.listFiles().length);
+        final FileTime written = Files.getLastModifiedTime(entry("settings.properties"));
+
+        // Same size and modification time: The file is not parsed again.
+        write("settings.properties", "size=2\nname=${sj.sys:parse.cache.test}\nlist=a\nlist=b\n");
+        Files.setLastModifiedTime(settings, modified);
+        System.setProperty("parse.cache.test", "second");
+        ctxt = load();
+        assertLoaded(ctxt);
+        // Substituted again.
+        assertEquals("second", ctxt.lookup("settings/name"));
+        ctxt.close();
+        assertEquals(written, Files.getLastModifiedTime(entry("settings.properties")));
+    }
+
+    @Test
+    public void modifiedFile() throws Exception {
+        load().close();
+        write("settings.properties", "size=22\n");
+        final Context ctxt = load();
+        assertEquals("22", ctxt.lookup("settings/size"));
+        ctxt.close();
+        final Context again = load();
+        assertEquals("22", again.lookup("settings/size"));
+        again.close();
+    }
+
+    @Test
+    public void sameSizeAndModificationTime() throws Exception {
+        // Changed right after it was cached: The checksum decides.
+        final Path settings = new File(root, "settings.properties").toPath();
+        load().close();
+        final FileTime modified = Files.getLastModifiedTime(settings);
+        write("settings.properties", "size=9\nname=${sj.sys:parse.cache.test}\nlist=a\nlist=b\n");
+        Files.setLastModifiedTime(settings, modified);
+        final Context ctxt = load();
+        assertEquals("9", ctxt.lookup("settings/size"));
+        ctxt.close();
+    }
+
+    @Test
+    public void corruptEntry() throws Exception {
+        load().close();
+        final OutputStream out = Files.newOutputStream(entry("jdbc/orders.xml"));
+        try {
+            out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17});
+        }
+        finally {
+            out.close();
+        }
+        final Context ctxt = load();
+        assertLoaded(ctxt);
+        ctxt.close();
+        final Context again = load();
+        assertLoaded(again);
+        again.close();
+    }
+
+    @Test
+    public void otherDelimiter() throws Exception {
+        assertFalse(entry("settings.properties").equals(new ParseCache(cache.toPath(), "/", "").entry(new File(root, "settings.properties").toPath())));
+    }
+
+    @Test
+    public void otherParseOptions() throws Exception {
+        write("jdbc/eu.ini", "[customers]\nurl=\"jdbc:h2:mem:customers\"\n");
+        Context ctxt = load(false);
+        assertEquals("\"jdbc:h2:mem:customers\"", ctxt.lookup("jdbc/eu/customers/url"));
+        ctxt.close();
+        ctxt = load(true);
+        assertEquals("jdbc:h2:mem:customers", ctxt.lookup("jdbc/eu/customers/url"));
+        ctxt.close();
+    }
+    /**
+     * Parses settings.properties to a value other than a String, like a custom {@link SJProperties} may.
+     */
+    private static final class OtherValuesLoader extends NioBasedJndiLoader {
+        OtherValuesLoader(Hashtable env) {
+            super(env);
+        }
+
+        @Override
+        protected SJProperties parse(Path path, InputStream stream, boolean substitution) throws IOException {
+            final SJProperties properties = super.parse(path, stream, substitution);
+            if (path.getFileName().toString().equals("settings.properties")) {
+                properties.put("count", 7);
+            }
+            return properties;
+        }
+    }
+
+    @Test
+    public void otherValuesNotCached() throws Exception {
+        final Hashtable env = env(false);
+        final Context ctxt = new InitialContext(env);
+        new OtherValuesLoader(env).load(root, ctxt, false);
+        assertLoaded(ctxt);
+        assertEquals(7, ctxt.lookup("settings/count"));
+        assertEquals("first", ctxt.lookup("settings/name"));
+        ctxt.close();
+        // The other files are still cached.
+        assertEquals(2, cache.listFiles().length);
+        assertFalse(Files.exists(entry("settings.properties")));
+    }
+}
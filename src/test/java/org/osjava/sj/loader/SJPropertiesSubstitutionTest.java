@@ -6,6 +6,8 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
@@ -91,4 +93,77 @@ public class SJPropertiesSubstitutionTest {
 
         assertEquals("systemProperty", sjProperties.get(key));
     }
+
+    @Test
+    public void environmentVariable() {
+        final Map.Entry<String, String> variable = System.getenv().entrySet().iterator().next();
+        SJProperties sjProperties = new SJProperties();
+        sjProperties.setProperty("key", "[${sj.env:" + variable.getKey() + "}]");
+        sjProperties.setProperty("missing", "${sj.env:sj.no.such.variable}");
+        assertEquals("[" + variable.getValue() + "]", sjProperties.get("key"));
+        assertEquals("${sj.env:sj.no.such.variable}", sjProperties.get("missing"));
+    }
+
+    /**
+     * Templates are cached, the values of the variables not.
+     */
+    @Test
+    public void sameValueTwice() {
+        final String value = "a ${sj.sys:" + sysName + "} b ${sj.sys:" + sysName + "}";
+        System.setProperty(sysName, "1");
+        SJProperties sjProperties = new SJProperties();
+        sjProperties.setProperty("key", value);
+        assertEquals("a 1 b 1", sjProperties.get("key"));
+        System.setProperty(sysName, "2");
+        sjProperties = new SJProperties();
+        sjProperties.setProperty("key", value);
+        assertEquals("a 2 b 2", sjProperties.get("key"));
+    }
+
+    @Test
+    public void sharedSubstitutor() {
+        final VariableSubstitutor substitutor = new VariableSubstitutor(Collections.singletonMap("VARIABLE", "variable"));
+        for (int i = 0; i < 2; i++) {
+            final SJProperties sjProperties = new SJProperties();
+            sjProperties.setSubstitutor(substitutor);
+            sjProperties.setProperty("key", "${sj.env:VARIABLE}");
+            assertEquals("variable", sjProperties.get("key"));
+        }
+        assertEquals(1, substitutor.cachedTemplates());
+    }
+
+    /**
+     * The templates used last are kept.
+     */
+    @Test
+    public void templatesBounded() {
+        final VariableSubstitutor substitutor = new VariableSubstitutor(Collections.<String, String>emptyMap());
+        for (int i = 0; i < VariableSubstitutor.MAX_TEMPLATES + 100; i++) {
+            assertEquals(i + " ${sj.env:sj.no.such.variable}", substitutor.replace(i + " ${sj.env:sj.no.such.variable}"));
+        }
+        assertEquals(VariableSubstitutor.MAX_TEMPLATES, substitutor.cachedTemplates());
+        substitutor.replace("new ${sj.env:sj.no.such.variable}");
+        assertEquals(VariableSubstitutor.MAX_TEMPLATES, substitutor.cachedTemplates());
+    }
+
+    /**
+     * Values not compiled into templates are substituted as before.
+     */
+    @Test
+    public void sameAsStrSubstitutor() {
+        System.setProperty(sysName, "value");
+        System.setProperty("test.property.nested", "${sj.sys:" + sysName + "}!");
+        try {
+            final VariableSubstitutor substitutor = new VariableSubstitutor(Collections.singletonMap("VARIABLE", "variable"));
+            assertEquals("${sj.sys:" + sysName + "}", substitutor.replace("$" + literalValue));
+            assertEquals("default", substitutor.replace("${sj.sys:no.such.property:-default}"));
+            assertEquals("value!", substitutor.replace("${sj.sys:test.property.nested}"));
+            assertEquals("value variable", substitutor.replace(literalValue + " ${sj.env:VARIABLE}"));
+            assertEquals("${sj.sys:" + sysName, substitutor.replace("${sj.sys:" + sysName));
+            assertEquals("${sj.other:x}", substitutor.replace("${sj.other:x}"));
+        }
+        finally {
+            System.clearProperty("test.property.nested");
+        }
+    }
 }
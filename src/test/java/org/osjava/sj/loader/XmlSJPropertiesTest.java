@@ -33,10 +33,17 @@
 package org.osjava.sj.loader;
 
 import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -66,4 +73,76 @@ public class XmlSJPropertiesTest {
 
     }
 
+    /**
+     * The keys and values stored must be the same as those of the DOM based implementation used before.
+     */
+    @Test
+    public void sameAsDom() throws Exception {
+        final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!-- comment -->\n"
+                + "<config root=\"ignored\" xmlns:p=\"urn:p\">\n"
+                + "  root text\n"
+                + "  <one z=\"last\" a=\"first\" p:m=\"middle\"><two>three</two><two>four</two></one>\n"
+                + "  <mixed>before<!-- split -->after<child x=\"1\">inner</child>tail<?pi data?>end</mixed>\n"
+                + "  <p:prefixed xmlns=\"urn:default\">value &amp; &lt;more&gt; \u00e4</p:prefixed>\n"
+                + "  <cdata>text<![CDATA[ignored]]>more</cdata>\n"
+                + "  <empty/>\n"
+                + "  <blank attr=\"  \">   </blank>\n"
+                + "  <multi><item>one</item><item>two</item></multi>\n"
+                + "</config>\n";
+        final XmlSJProperties properties = new XmlSJProperties();
+        properties.load(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        final List<String> actual = new ArrayList<String>();
+        for (Object key : properties.keySet()) {
+            actual.add(key + "=" + properties.get(key));
+        }
+        assertEquals(loadWithDom(xml), actual);
+        assertEquals("first", properties.get("config.one.a"));
+        assertEquals(null, properties.get("config.root"));
+        assertEquals(4, ((List) properties.get("config.mixed")).size());
+    }
+
+    private static List<String> loadWithDom(String xml) throws Exception {
+        final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        final XmlSJProperties properties = new XmlSJProperties() {
+            @Override
+            public void load(InputStream in) {
+                processChildren(document.getDocumentElement().getNodeName(), document.getDocumentElement());
+            }
+
+            private void processChildren(String level, Node node) {
+                final NodeList children = node.getChildNodes();
+                for (int i = 0; i < children.getLength(); i++) {
+                    final Node child = children.item(i);
+                    String childLevel = level;
+                    if (child.getNodeType() == Node.ELEMENT_NODE) {
+                        childLevel = level + getDelimiter() + child.getNodeName();
+                    }
+                    else if (child.getNodeType() == Node.TEXT_NODE) {
+                        store(level, child.getNodeValue());
+                    }
+                    processChildren(childLevel, child);
+                    if (child.hasAttributes()) {
+                        final NamedNodeMap map = child.getAttributes();
+                        for (int j = 0; j < map.getLength(); j++) {
+                            store(level + getDelimiter() + child.getNodeName() + getDelimiter() + map.item(j).getNodeName(), map.item(j).getNodeValue());
+                        }
+                    }
+                }
+            }
+
+            private void store(String name, String value) {
+                if (value.trim().length() > 0) {
+                    setProperty(name, value);
+                }
+            }
+        };
+        properties.load((InputStream) null);
+        final List<String> expected = new ArrayList<String>();
+        for (Object key : properties.keySet()) {
+            expected.add(key + "=" + properties.get(key));
+        }
+        return expected;
+    }
 }
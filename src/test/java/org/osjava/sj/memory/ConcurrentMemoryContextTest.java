@@ -0,0 +1,134 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Binding;
+import javax.naming.Context;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link MemoryContext} with {@link MemoryContext#CONCURRENT} set to "true".
+ */
+public class ConcurrentMemoryContextTest {
+
+    private MemoryContext ctx;
+
+    @Before
+    public void setUp() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put("org.osjava.sj.delimiter", "/");
+        env.put(MemoryContext.CONCURRENT, "true");
+        ctx = new MemoryContext(env);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ctx.close();
+    }
+
+    @Test
+    public void bindLookupUnbind() throws Exception {
+        final Context sub = ctx.createSubcontext("sub");
+        sub.bind("name", "value");
+        assertEquals("value", ctx.lookup("sub/name"));
+        ctx.rebind("sub/name", "value2");
+        assertEquals("value2", ctx.lookup("sub/name"));
+        ctx.unbind("sub/name");
+        assertFalse(ctx.list("sub").hasMore());
+    }
+
+    @Test
+    public void nullValue() throws Exception {
+        ctx.bind("null", null);
+        assertNull(ctx.lookup("null"));
+        final NamingEnumeration<Binding> bindings = ctx.listBindings("");
+        final Binding binding = bindings.next();
+        assertEquals("null", binding.getName());
+        assertNull(binding.getObject());
+        assertFalse(bindings.hasMore());
+    }
+
+    @Test
+    public void bindIsAtomic() throws Exception {
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger successes = new AtomicInteger();
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < threads; i++) {
+                final int value = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        try {
+                            ctx.bind("name", value);
+                            successes.incrementAndGet();
+                        }
+                        catch (NameAlreadyBoundException ignore) { }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, successes.get());
+    }
+
+    /**
+     * rebind() must never let a concurrent reader see the name unbound.
+     */
+    @Test
+    public void rebindIsAtomic() throws Exception {
+        ctx.bind("name", 0);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Integer> misses = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int misses = 0;
+                    while (!stop.get()) {
+                        try {
+                            ctx.lookup("name");
+                        }
+                        catch (NameNotFoundException e) {
+                            misses++;
+                        }
+                    }
+                    return misses;
+                }
+            });
+            for (int i = 1; i < 20000; i++) {
+                ctx.rebind("name", i);
+            }
+            stop.set(true);
+            assertEquals(0, (int) misses.get(10, TimeUnit.SECONDS));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
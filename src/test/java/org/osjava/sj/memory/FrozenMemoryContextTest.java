@@ -0,0 +1,174 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.*;
+import javax.sql.DataSource;
+import java.util.Hashtable;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link MemoryContext#freeze()} and {@link MemoryContext#FROZEN}.
+ */
+public class FrozenMemoryContextTest {
+
+    private MemoryContext ctx;
+
+    @Before
+    public void setUp() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put("org.osjava.sj.delimiter", "/");
+        ctx = new MemoryContext(env);
+        ctx.bind("name", "value");
+        ctx.bind("null", null);
+        final Context sub = ctx.createSubcontext("sub");
+        sub.bind("name", "subValue");
+        sub.createSubcontext("deep").bind("name", "deepValue");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ctx.close();
+    }
+
+    @Test
+    public void lookup() throws Exception {
+        ctx.freeze();
+        assertTrue(ctx.isFrozen());
+        assertEquals("value", ctx.lookup("name"));
+        assertNull(ctx.lookup("null"));
+        assertEquals("subValue", ctx.lookup("sub/name"));
+        assertEquals("deepValue", ctx.lookup("sub/deep/name"));
+        final Context sub = (Context) ctx.lookup("sub");
+        assertTrue(((MemoryContext) sub).isFrozen());
+        assertEquals("deepValue", sub.lookup("deep/name"));
+        assertEquals("deepValue", sub.lookup(new CompositeName("deep/name")));
+        try {
+            ctx.lookup("sub/missing");
+            fail();
+        }
+        catch (NameNotFoundException ignore) { }
+    }
+
+    @Test
+    public void list() throws Exception {
+        ctx.freeze();
+        int count = 0;
+        final NamingEnumeration<Binding> bindings = ctx.listBindings("sub");
+        while (bindings.hasMore()) {
+            bindings.next();
+            count++;
+        }
+        assertEquals(2, count);
+    }
+
+    @Test
+    public void writesThrow() throws Exception {
+        ctx.freeze();
+        try {
+            ctx.bind("other", "value");
+            fail();
+        }
+        catch (OperationNotSupportedException ignore) { }
+        try {
+            ctx.bind("sub/other", "value");
+            fail();
+        }
+        catch (OperationNotSupportedException ignore) { }
+        try {
+            ctx.rebind("name", "value2");
+            fail();
+        }
+        catch (OperationNotSupportedException ignore) { }
+        try {
+            ctx.unbind("sub/name");
+            fail();
+        }
+        catch (OperationNotSupportedException ignore) { }
+        try {
+            ctx.rename("name", "other");
+            fail();
+        }
+        catch (OperationNotSupportedException ignore) { }
+        try {
+            ctx.createSubcontext("other");
+            fail();
+        }
+        catch (OperationNotSupportedException ignore) { }
+        try {
+            ctx.destroySubcontext("sub");
+            fail();
+        }
+        catch (OperationNotSupportedException ignore) { }
+        assertEquals("value", ctx.lookup("name"));
+        assertEquals("subValue", ctx.lookup("sub/name"));
+    }
+
+    @Test
+    public void fork() throws Exception {
+        ctx.freeze();
+        final MemoryContext fork1 = ctx.fork();
+        final MemoryContext fork2 = ctx.fork();
+        try {
+            assertFalse(fork1.isFrozen());
+            assertEquals("deepValue", fork1.lookup("sub/deep/name"));
+            assertNotSame(ctx.lookup("sub"), fork1.lookup("sub"));
+            fork1.rebind("sub/name", "changed");
+            fork1.bind("sub/deep/added", "added");
+            fork1.unbind("name");
+            assertEquals("changed", fork1.lookup("sub/name"));
+            assertEquals("added", fork1.lookup("sub/deep/added"));
+            assertEquals("subValue", fork2.lookup("sub/name"));
+            assertEquals("value", fork2.lookup("name"));
+            assertEquals("subValue", ctx.lookup("sub/name"));
+            try {
+                ctx.lookup("sub/deep/added");
+                fail();
+            }
+            catch (NameNotFoundException ignored) { }
+        }
+        finally {
+            fork1.close();
+            fork2.close();
+        }
+        assertEquals("value", ctx.lookup("name"));
+    }
+
+    @Test
+    public void freezeByEnvironment() throws Exception {
+        ctx.addToEnvironment(MemoryContext.FROZEN, "true");
+        assertTrue(ctx.isFrozen());
+        assertTrue(((MemoryContext) ctx.lookup("sub/deep")).isFrozen());
+    }
+
+    @Test
+    public void simpleJndi() throws Exception {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put("org.osjava.sj.root", "src/test/resources/roots/datasourcePool/");
+        env.put("java.naming.factory.initial", "org.osjava.sj.SimpleContextFactory");
+        env.put("org.osjava.sj.delimiter", "/");
+        env.put("org.osjava.sj.space", "java:comp/env");
+        env.put(MemoryContext.FROZEN, "true");
+        final InitialContext initialContext = new InitialContext(env);
+        try {
+            // The Reference is still replaced by the DataSource on first lookup.
+            final DataSource ds = (DataSource) initialContext.lookup("java:comp/env/myDataSource");
+            assertNotNull(ds);
+            assertSame(ds, initialContext.lookup("java:comp/env/myDataSource"));
+            try {
+                initialContext.bind("java:comp/env/other", "value");
+                fail();
+            }
+            catch (OperationNotSupportedException ignore) { }
+        }
+        finally {
+            initialContext.close();
+        }
+    }
+}
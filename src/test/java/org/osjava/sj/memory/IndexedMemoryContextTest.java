@@ -0,0 +1,108 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.util.Hashtable;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link MemoryContext} with {@link MemoryContext#INDEX} set to "true".
+ */
+public class IndexedMemoryContextTest {
+
+    private MemoryContext ctx;
+
+    @Before
+    public void setUp() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", ".");
+        env.put("org.osjava.sj.delimiter", ".");
+        env.put(MemoryContext.INDEX, "true");
+        ctx = new MemoryContext(env);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ctx.close();
+    }
+
+    @Test
+    public void deepLookup() throws Exception {
+        final Context ds = ctx.createSubcontext("jdbc").createSubcontext("prod").createSubcontext("eu");
+        ds.bind("orders", "ordersDS");
+        assertEquals("ordersDS", ctx.lookup("jdbc.prod.eu.orders"));
+        assertSame(ds, ctx.lookup("jdbc.prod.eu"));
+        final Context prod = (Context) ctx.lookup("jdbc.prod");
+        assertEquals("ordersDS", prod.lookup("eu.orders"));
+    }
+
+    @Test
+    public void rebindAndUnbind() throws Exception {
+        ctx.createSubcontext("a").createSubcontext("b");
+        ctx.bind("a.b.c", "1");
+        ctx.rebind("a.b.c", "2");
+        assertEquals("2", ctx.lookup("a.b.c"));
+        ctx.unbind("a.b.c");
+        assertNotFound("a.b.c");
+        ctx.bind("a.b.c", null);
+        assertNull(ctx.lookup("a.b.c"));
+    }
+
+    @Test
+    public void unbindSubcontext() throws Exception {
+        ctx.createSubcontext("a").createSubcontext("b").bind("c", "1");
+        ctx.unbind("a");
+        assertNotFound("a.b.c");
+        assertNotFound("a.b");
+    }
+
+    @Test
+    public void rebindSubcontextWithObject() throws Exception {
+        ctx.createSubcontext("a").bind("b", "1");
+        ctx.rebind("a", "value");
+        assertEquals("value", ctx.lookup("a"));
+        try {
+            ctx.lookup("a.b");
+            fail();
+        }
+        catch (NamingException expected) { }
+    }
+
+    @Test
+    public void destroySubcontext() throws Exception {
+        ctx.createSubcontext("a").createSubcontext("b").bind("c", "1");
+        ctx.destroySubcontext("a");
+        assertNotFound("a.b.c");
+        assertNotFound("a");
+    }
+
+    /**
+     * A subcontext removed from the namespace but still in use must not leave its bindings in the index.
+     */
+    @Test
+    public void detachedSubcontext() throws Exception {
+        final Context b = ctx.createSubcontext("a").createSubcontext("b");
+        ctx.unbind("a");
+        b.bind("c", "1");
+        assertNotFound("a.b.c");
+        assertEquals("1", b.lookup("c"));
+    }
+
+    /**
+     * A missing intermediate subcontext results in a NamingException, not in a NameNotFoundException.
+     */
+    private void assertNotFound(String name) {
+        try {
+            ctx.lookup(name);
+            fail(name + " found");
+        }
+        catch (NamingException expected) { }
+    }
+}
@@ -0,0 +1,134 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.LookupHandle;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NameNotFoundException;
+import javax.naming.Reference;
+import java.util.Hashtable;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link MemoryContext#handle(String)}.
+ */
+public class LookupHandleTest {
+
+    private MemoryContext ctx;
+
+    @Before
+    public void setUp() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put("org.osjava.sj.delimiter", "/");
+        ctx = new MemoryContext(env);
+        ctx.createSubcontext("jdbc").bind("orders", "value");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ctx.close();
+    }
+
+    @Test
+    public void followsRebindAndUnbind() throws Exception {
+        final LookupHandle handle = ctx.handle("jdbc/orders");
+        assertSame(handle, ctx.handle("jdbc/orders"));
+        assertEquals("jdbc/orders", handle.getName());
+        assertEquals("value", handle.get());
+        assertEquals(0, handle.getVersion());
+
+        ctx.rebind("jdbc/orders", "value2");
+        assertEquals("value2", handle.get());
+        assertEquals(1, handle.getVersion());
+
+        ctx.unbind("jdbc/orders");
+        assertFalse(handle.isBound());
+        assertEquals(2, handle.getVersion());
+        try {
+            handle.get();
+            fail();
+        }
+        catch (NameNotFoundException ignored) { }
+
+        ctx.bind("jdbc/orders", "value3");
+        assertTrue(handle.isBound());
+        assertEquals("value3", handle.get());
+        assertEquals(3, handle.getVersion());
+    }
+
+    @Test
+    public void invalidatedByDestroySubcontext() throws Exception {
+        final LookupHandle handle = ctx.handle("jdbc/orders");
+        final LookupHandle contextHandle = ctx.handle("jdbc");
+        assertTrue(contextHandle.get() instanceof Context);
+        ctx.destroySubcontext("jdbc");
+        assertFalse(handle.isBound());
+        assertFalse(contextHandle.isBound());
+        ctx.createSubcontext("jdbc").bind("orders", "value");
+        // A handle of a destroyed context is not revived.
+        assertFalse(handle.isBound());
+        assertNotSame(handle, ctx.handle("jdbc/orders"));
+        assertTrue(contextHandle.isBound());
+    }
+
+    @Test
+    public void invalidatedByUnbindingParent() throws Exception {
+        ((Context) ctx.lookup("jdbc")).createSubcontext("pools").bind("primary", "pool");
+        final LookupHandle handle = ctx.handle("jdbc/orders");
+        final LookupHandle nested = ctx.handle("jdbc/pools/primary");
+        ctx.unbind("jdbc");
+        assertFalse(handle.isBound());
+        assertFalse(nested.isBound());
+        try {
+            nested.get();
+            fail();
+        }
+        catch (NameNotFoundException ignored) { }
+    }
+
+    @Test
+    public void invalidatedByRebindingParent() throws Exception {
+        final LookupHandle handle = ctx.handle("jdbc/orders");
+        final LookupHandle contextHandle = ctx.handle("jdbc");
+        final Context other = new MemoryContext(ctx.getEnvironment());
+        other.bind("orders", "other");
+        ctx.rebind("jdbc", other);
+        assertFalse(handle.isBound());
+        assertSame(other, contextHandle.get());
+        assertEquals("other", ctx.handle("jdbc/orders").get());
+        // Rebinding the same context keeps its handles.
+        final LookupHandle otherHandle = ctx.handle("jdbc/orders");
+        ctx.rebind("jdbc", other);
+        assertTrue(otherHandle.isBound());
+    }
+
+    @Test
+    public void resolvesReference() throws Exception {
+        ctx.rebind("jdbc/orders", new Reference(Object.class.getName(), ObjectFactory.class.getName(), null));
+        final LookupHandle handle = ctx.handle("jdbc/orders");
+        final Object instance = handle.get();
+        assertNotNull(instance);
+        assertFalse(instance instanceof Reference);
+        assertSame(instance, ctx.lookup("jdbc/orders"));
+        assertSame(instance, handle.get());
+    }
+
+    @Test(expected = NameNotFoundException.class)
+    public void unboundName() throws Exception {
+        ctx.handle("jdbc/missing");
+    }
+
+    public static class ObjectFactory implements javax.naming.spi.ObjectFactory {
+        @Override
+        public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> environment) {
+            return new Object();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+
+import javax.naming.Context;
+import javax.naming.event.EventContext;
+import javax.naming.event.NamespaceChangeListener;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingExceptionEvent;
+import javax.naming.event.ObjectChangeListener;
+import java.util.Hashtable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link MemoryContext} as {@link EventContext}.
+ */
+public class MemoryContextEventTest {
+
+    private MemoryContext ctx;
+
+    @Before
+    public void setUp() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put("org.osjava.sj.delimiter", "/");
+        ctx = new MemoryContext(env);
+        ctx.createSubcontext("jdbc").bind("orders", "value");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ctx.close();
+    }
+
+    @Test
+    public void objectScope() throws Exception {
+        final Listener listener = new Listener();
+        ctx.addNamingListener("jdbc/orders", EventContext.OBJECT_SCOPE, listener);
+        ctx.bind("jdbc/other", "value");
+        ctx.rebind("jdbc/orders", "value2");
+        ctx.unbind("jdbc/orders");
+
+        NamingEvent event = listener.next();
+        assertEquals(NamingEvent.OBJECT_CHANGED, event.getType());
+        assertSame(ctx, event.getEventContext());
+        assertEquals("jdbc/orders", event.getNewBinding().getName());
+        assertEquals("value2", event.getNewBinding().getObject());
+        assertEquals("value", event.getOldBinding().getObject());
+        event = listener.next();
+        assertEquals(NamingEvent.OBJECT_REMOVED, event.getType());
+        assertEquals("value2", event.getOldBinding().getObject());
+        assertNull(listener.poll());
+    }
+
+    @Test
+    public void oneLevelScope() throws Exception {
+        final EventContext jdbc = (EventContext) ctx.lookup("jdbc");
+        final Listener listener = new Listener();
+        jdbc.addNamingListener("", EventContext.ONELEVEL_SCOPE, listener);
+        jdbc.bind("added", "value");
+        jdbc.createSubcontext("sub").bind("nested", "value");
+
+        NamingEvent event = listener.next();
+        assertEquals(NamingEvent.OBJECT_ADDED, event.getType());
+        assertEquals("added", event.getNewBinding().getName());
+        assertNull(event.getOldBinding());
+        event = listener.next();
+        assertEquals("sub", event.getNewBinding().getName());
+        assertTrue(event.getNewBinding().getObject() instanceof Context);
+        assertNull(listener.poll());
+    }
+
+    @Test
+    public void subtreeScope() throws Exception {
+        final Listener listener = new Listener();
+        ctx.addNamingListener("", EventContext.SUBTREE_SCOPE, listener);
+        ctx.createSubcontext("jdbc/sub").bind("nested", "value");
+        ((Context) ctx.lookup("jdbc")).destroySubcontext("sub");
+
+        assertEquals("jdbc/sub", listener.next().getNewBinding().getName());
+        assertEquals("jdbc/sub/nested", listener.next().getNewBinding().getName());
+        NamingEvent event = listener.next();
+        assertEquals(NamingEvent.OBJECT_REMOVED, event.getType());
+        assertEquals("jdbc/sub/nested", event.getOldBinding().getName());
+        assertEquals("jdbc/sub", listener.next().getOldBinding().getName());
+
+        ctx.removeNamingListener(listener);
+        ctx.bind("jdbc/ignored", "value");
+        assertNull(listener.poll());
+    }
+
+    @Test
+    public void namespaceListenerIgnoresChanges() throws Exception {
+        final BlockingQueue<NamingEvent> events = new LinkedBlockingQueue<NamingEvent>();
+        ctx.addNamingListener("jdbc", EventContext.ONELEVEL_SCOPE, new NamespaceChangeListener() {
+            @Override
+            public void objectAdded(NamingEvent evt) {
+                events.add(evt);
+            }
+
+            @Override
+            public void objectRemoved(NamingEvent evt) {
+                events.add(evt);
+            }
+
+            @Override
+            public void objectRenamed(NamingEvent evt) {
+                events.add(evt);
+            }
+
+            @Override
+            public void namingExceptionThrown(NamingExceptionEvent evt) { }
+        });
+        ctx.rebind("jdbc/orders", "value2");
+        ctx.bind("jdbc/added", "value");
+        assertEquals(NamingEvent.OBJECT_ADDED, events.poll(10, TimeUnit.SECONDS).getType());
+        assertTrue(events.isEmpty());
+    }
+
+    private static class Listener implements ObjectChangeListener, NamespaceChangeListener {
+
+        private final BlockingQueue<NamingEvent> events = new LinkedBlockingQueue<NamingEvent>();
+
+        NamingEvent next() throws InterruptedException {
+            final NamingEvent event = events.poll(10, TimeUnit.SECONDS);
+            assertNotNull(event);
+            return event;
+        }
+
+        /**
+         * @return null: No further event within 100 ms.
+         */
+        NamingEvent poll() throws InterruptedException {
+            return events.poll(100, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void objectChanged(NamingEvent evt) {
+            events.add(evt);
+        }
+
+        @Override
+        public void objectAdded(NamingEvent evt) {
+            events.add(evt);
+        }
+
+        @Override
+        public void objectRemoved(NamingEvent evt) {
+            events.add(evt);
+        }
+
+        @Override
+        public void objectRenamed(NamingEvent evt) {
+            events.add(evt);
+        }
+
+        @Override
+        public void namingExceptionThrown(NamingExceptionEvent evt) { }
+    }
+}
@@ -5,15 +5,29 @@ import org.junit.Test;
 import org.osjava.sj.SimpleJndi;
 import org.osjava.sj.jndi.MemoryContext;
 
+import javax.naming.Binding;
 import javax.naming.Context;
 import javax.naming.InitialContext;
+import javax.naming.Name;
+import javax.naming.NameClassPair;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NotContextException;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 /**
  * @author Holger Thurow (thurow.h@gmail.com) on 04/02/2017.
@@ -35,6 +49,103 @@ public class MemoryContextTest {
         assertEquals("value", name);
     }
 
+    /**
+     * Subcontexts share the environment of their parent until it is modified.
+     */
+    @Test
+    public void environmentCopyOnWrite() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        final MemoryContext ctx = new MemoryContext(env);
+        try {
+            final Context sub1 = ctx.createSubcontext("sub1");
+            ctx.addToEnvironment("key", "value");
+            final Context sub2 = ctx.createSubcontext("sub2");
+            sub2.addToEnvironment("key2", "value2");
+            assertEquals("value", ctx.getEnvironment().get("key"));
+            assertNull(sub1.getEnvironment().get("key"));
+            assertEquals("value", sub2.getEnvironment().get("key"));
+            assertNull(ctx.getEnvironment().get("key2"));
+            assertEquals("value", sub2.removeFromEnvironment("key"));
+            assertNull(sub2.getEnvironment().get("key"));
+            assertEquals("value", ctx.getEnvironment().get("key"));
+            ctx.getEnvironment().put("key", "modified");
+            assertEquals("value", ctx.getEnvironment().get("key"));
+            sub2.bind("name", "value");
+            assertEquals("value", ctx.lookup("sub2/name"));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    /**
+     * Plain names are looked up without parsing them, with the same results.
+     */
+    @Test
+    public void lookupPlainName() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        final MemoryContext ctx = new MemoryContext(env);
+        Hashtable dotEnv = new Hashtable();
+        dotEnv.put("jndi.syntax.direction", "left_to_right");
+        dotEnv.put("jndi.syntax.separator", ".");
+        final MemoryContext dotted = new MemoryContext(dotEnv);
+        try {
+            final Context sub = ctx.createSubcontext("a").createSubcontext("b");
+            sub.bind("name", "value");
+            sub.bind("null", null);
+            dotted.bind("y", "dotted");
+            ctx.bind("dotted", dotted);
+            assertEquals("value", ctx.lookup("a/b/name"));
+            assertNull(ctx.lookup("a/b/null"));
+            assertSame(sub, ctx.lookup("a/b"));
+            assertEquals("dotted", ctx.lookup("dotted/y"));
+            try {
+                ctx.lookup("a/b/missing");
+                fail();
+            }
+            catch (NameNotFoundException ignored) { }
+            try {
+                ctx.lookup("a/missing/name");
+                fail();
+            }
+            catch (NamingException ignored) { }
+        }
+        finally {
+            // Also closes dotted.
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void tryLookupAndGetOrCreateSubcontext() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        final MemoryContext ctx = new MemoryContext(env);
+        try {
+            assertNull(ctx.tryLookup("a/b/name"));
+            final Context b = ctx.getOrCreateSubcontext("a/b");
+            assertSame(b, ctx.getOrCreateSubcontext("a/b"));
+            assertSame(b, ctx.lookup("a/b"));
+            b.bind("name", "value");
+            assertEquals("value", ctx.tryLookup("a/b/name"));
+            assertNull(ctx.tryLookup("a/b/missing"));
+            assertNull(ctx.tryLookup("a/missing/name"));
+            try {
+                ctx.getOrCreateSubcontext("a/b/name/c");
+                fail();
+            }
+            catch (NotContextException ignored) { }
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
     @Test
     public void loadViaInitialContext() throws Exception {
         InitialContext ctx = null;
@@ -130,6 +241,55 @@ public class MemoryContextTest {
         }
     }
 
+    /**
+     * Names are listed as bound, escaped if necessary, though looked up by their normalized key.
+     */
+    @Test
+    public void listedAsBound() throws Exception {
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put("jndi.syntax.escape", "\\");
+        env.put("jndi.syntax.ignorecase", "true");
+        final MemoryContext ctx = new MemoryContext(env);
+        try {
+            ctx.bind("MyName", "value");
+            ctx.createSubcontext("Jdbc").bind("DS", "ds");
+            final Name slashed = ctx.getNameParser("").parse("");
+            slashed.add("a/b");
+            ctx.bind(slashed, "slashed");
+            assertEquals("value", ctx.lookup("myname"));
+            assertEquals("ds", ctx.lookup("JDBC/ds"));
+
+            final Map<String, Object> listed = new HashMap<String, Object>();
+            final NamingEnumeration<Binding> bindings = ctx.listBindings("");
+            while (bindings.hasMore()) {
+                final Binding binding = bindings.next();
+                listed.put(binding.getName(), binding.getObject());
+            }
+            assertEquals(new HashSet<String>(Arrays.asList("MyName", "Jdbc", "a\\/b")), listed.keySet());
+            assertEquals("slashed", ctx.lookup(ctx.getNameParser("").parse("a\\/b")));
+            assertEquals("DS", ((Context) listed.get("Jdbc")).list("").next().getName());
+
+            // Listed as bound again after unbinding.
+            ctx.unbind("MYNAME");
+            ctx.rebind("myName", "value2");
+            assertEquals(new HashSet<String>(Arrays.asList("myName", "Jdbc", "a\\/b")), listNames(ctx));
+        }
+        finally {
+            ctx.close();
+        }
+    }
+
+    private static Set<String> listNames(Context ctx) throws NamingException {
+        final Set<String> names = new HashSet<String>();
+        final NamingEnumeration<NameClassPair> pairs = ctx.list("");
+        while (pairs.hasMore()) {
+            names.add(pairs.next().getName());
+        }
+        return names;
+    }
+
     /**
      * See {@link #initializeWithoutJndiPropertiesFile()}
      */
@@ -0,0 +1,115 @@
+package org.osjava.sj.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osjava.sj.jndi.MemoryContext;
+import org.osjava.sj.jndi.MemoryContext.ResolutionState;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.Reference;
+import javax.naming.spi.ObjectFactory;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the single-flight resolution of {@link Reference}s by {@link MemoryContext#lookup(Name)}.
+ */
+public class ReferenceResolutionTest {
+
+    private static final AtomicInteger created = new AtomicInteger();
+    private static volatile CountDownLatch release;
+    private static volatile boolean fail;
+
+    private MemoryContext ctx;
+
+    @Before
+    public void setUp() throws Exception {
+        created.set(0);
+        release = new CountDownLatch(0);
+        fail = false;
+        Hashtable env = new Hashtable();
+        env.put("jndi.syntax.direction", "left_to_right");
+        env.put("jndi.syntax.separator", "/");
+        env.put("org.osjava.sj.delimiter", "/");
+        ctx = new MemoryContext(env);
+        ctx.createSubcontext("jdbc").bind("orders", new Reference(Object.class.getName(), SlowFactory.class.getName(), null));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        ctx.close();
+    }
+
+    @Test
+    public void singleFlight() throws Exception {
+        release = new CountDownLatch(1);
+        final int threads = 16;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return ctx.lookup("jdbc/orders");
+                    }
+                }));
+            }
+            while (ctx.getResolutionState("jdbc/orders") != ResolutionState.RESOLVING) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            final Object instance = futures.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<Object> future : futures) {
+                assertSame(instance, future.get(10, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, created.get());
+        assertEquals(ResolutionState.RESOLVED, ctx.getResolutionState("jdbc/orders"));
+    }
+
+    @Test
+    public void retryAfterFailure() throws Exception {
+        assertEquals(ResolutionState.UNRESOLVED, ctx.getResolutionState("jdbc/orders"));
+        fail = true;
+        try {
+            ctx.lookup("jdbc/orders");
+            fail();
+        }
+        catch (NamingException e) {
+            assertTrue(e.getRootCause() instanceof IllegalStateException);
+        }
+        assertEquals(ResolutionState.UNRESOLVED, ctx.getResolutionState("jdbc/orders"));
+        fail = false;
+        final Object instance = ctx.lookup("jdbc/orders");
+        assertNotNull(instance);
+        assertSame(instance, ctx.lookup("jdbc/orders"));
+        assertEquals(1, created.get());
+        assertEquals(ResolutionState.RESOLVED, ctx.getResolutionState("jdbc/orders"));
+        assertEquals(ResolutionState.RESOLVED, ctx.getResolutionState("jdbc"));
+    }
+
+    public static class SlowFactory implements ObjectFactory {
+        @Override
+        public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> environment) throws Exception {
+            release.await();
+            if (fail) {
+                throw new IllegalStateException("Creation failed");
+            }
+            created.incrementAndGet();
+            return new Object();
+        }
+    }
+}
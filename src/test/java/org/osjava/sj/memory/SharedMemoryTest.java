@@ -60,12 +60,14 @@ public class SharedMemoryTest {
     @Test
     public void testSharedMemory() throws NamingException {
         InitialContext ctxA = null;
+        InitialContext ctxB = null;
         try {
             String foo = "bar";
             ctxA = createContext();
             ctxA.bind("fooKey", foo);
             Object oA = ctxA.lookup("fooKey");
-            Object oB = createContext().lookup("fooKey");
+            ctxB = createContext();
+            Object oB = ctxB.lookup("fooKey");
             assertNotNull("Shared memory failing", oB);
             assertEquals("Shared memory corrupting", oA, oB);
         } catch (NamingException e) {
@@ -75,18 +77,22 @@ public class SharedMemoryTest {
             if (ctxA != null) {
                 ctxA.close();
             }
+            if (ctxB != null) {
+                ctxB.close();
+            }
         }
     }
 
     @Test
     public void testSharedSubContextMemory() throws NamingException {
         InitialContext context = null;
+        InitialContext context2 = null;
         try {
             context = createContext();
             context.createSubcontext("path");
             context.bind("path/foo", "42");
-            context = createContext();
-            assertEquals("42", context.lookup("path/foo") );
+            context2 = createContext();
+            assertEquals("42", context2.lookup("path/foo") );
         } catch (NamingException e) {
             fail("NamingException " + e.getMessage());
         }
@@ -94,7 +100,9 @@ public class SharedMemoryTest {
             if (context != null) {
                 context.close();
             }
-
+            if (context2 != null) {
+                context2.close();
+            }
         }
     }
 }